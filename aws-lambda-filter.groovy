@@ -4,14 +4,13 @@ import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.auth.BasicSessionCredentials;
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
-import com.amazonaws.services.lambda.AWSLambda;
-import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
-import com.amazonaws.services.lambda.model.InvokeRequest;
-import com.amazonaws.services.lambda.model.InvokeResult;
+import com.axway.aws.lambda.LambdaInvocation;
+import com.axway.aws.lambda.LambdaInvocationEngine;
+
+// Name of the engine shared by every message of this script (and by scripts using the same name)
+ENGINE_NAME = "aws-lambda-filter.groovy"
 
 def invoke(msg) {
-    AWSLambda awsLambda = null
-    
     try {
         // ========================================
         // ADVANCED DYNAMIC CONFIGURATION
@@ -49,86 +48,39 @@ def invoke(msg) {
         Trace.info("Log Type: " + logType)
         Trace.info("Max Retries: " + maxRetries)
 
-        // 1. Configure credentials - Multiple strategies
-        def credentialsProvider = configureCredentials()
-        if (!credentialsProvider) {
-            return false
-        }
-        
-        // 2. Create Invoke Lambda Function client
-        AWSLambdaClientBuilder builder = AWSLambdaClientBuilder.standard()
-            .withCredentials(credentialsProvider)
-        
         // Use environment variable or message region
         def regionToUse = awsRegion ?: System.getenv("AWS_DEFAULT_REGION")
-        if (regionToUse != null && regionToUse.trim() != "") {
-            builder = builder.withRegion(regionToUse)
-            Trace.info("Using region: " + regionToUse)
-        } else {
+        if (regionToUse == null || regionToUse.trim() == "") {
             Trace.error("AWS region not specified")
             msg.put("aws.lambda.error", "AWS region not specified. Set AWS_DEFAULT_REGION or aws.lambda.region")
             return false
         }
+        Trace.info("Using region: " + regionToUse)
+        
+        // 1. Get the shared engine: credentials are resolved and clients are built once,
+        //    then reused by every message (one cached client per region)
+        LambdaInvocationEngine engine = LambdaInvocationEngine.shared(ENGINE_NAME, { configureCredentials() })
         
-        awsLambda = builder.build()
+        // 2. Describe the invocation
+        LambdaInvocation invocation = createInvocation(
+            functionName, regionToUse, payload, invocationType, logType,
+            qualifier, clientContextData, customHeaders,
+            Integer.parseInt(maxRetries), Integer.parseInt(retryDelay)
+        )
         
         // ========================================
         // LAMBDA INVOCATION WITH RETRY
         // ========================================
         
+        // 3. Invoke with the filter's retry loop and response processing
+        //    (sets aws.lambda.response, aws.lambda.http.status.code, aws.lambda.error, ...)
         Trace.info("Invoking Lambda function with retry...")
-        
-        def maxRetriesInt = Integer.parseInt(maxRetries)
-        def retryDelayInt = Integer.parseInt(retryDelay)
-        def lastException = null
-        
-        for (int attempt = 1; attempt <= maxRetriesInt; attempt++) {
-            try {
-                Trace.info("Attempt " + attempt + " of " + maxRetriesInt)
-                
-                // 3. Create advanced request
-                InvokeRequest invokeRequest = createInvokeRequest(
-                    functionName, payload, invocationType, logType, 
-                    qualifier, clientContextData, customHeaders
-                )
-                
-                // 4. Invoke Lambda function
-                InvokeResult invokeResult = awsLambda.invoke(invokeRequest)
-                
-                // 5. Process response
-                return processInvokeResult(invokeResult, msg)
-                
-            } catch (Exception e) {
-                lastException = e
-                Trace.warn("Attempt " + attempt + " failed: " + e.getMessage())
-                
-                // If not the last attempt, wait before retrying
-                if (attempt < maxRetriesInt) {
-                    Trace.info("Waiting " + retryDelayInt + "ms before next attempt...")
-                    Thread.sleep(retryDelayInt)
-                }
-            }
-        }
-        
-        // If reached here, all attempts failed
-        Trace.error("All " + maxRetriesInt + " attempts failed")
-        msg.put("aws.lambda.error", "Failure after " + maxRetriesInt + " attempts: " + lastException.getMessage())
-        return false
+        return engine.invoke(msg, invocation)
         
     } catch (Exception e) {
         Trace.error("Error invoking Lambda: " + e.getMessage(), e)
         msg.put("aws.lambda.error", e.getMessage())
         return false
-        
-    } finally {
-        // Clean up resources
-        if (awsLambda != null) {
-            try {
-                awsLambda.shutdown()
-            } catch (Exception e) {
-                Trace.error("Error closing AWS client: " + e.getMessage())
-            }
-        }
     }
 }
 
@@ -192,16 +144,18 @@ def configureCredentials() {
     }
 }
 
-def createInvokeRequest(functionName, payload, invocationType, logType, qualifier, clientContextData, customHeaders) {
-    InvokeRequest invokeRequest = new InvokeRequest()
+def createInvocation(functionName, region, payload, invocationType, logType, qualifier, clientContextData, customHeaders, maxRetries, retryDelay) {
+    LambdaInvocation invocation = new LambdaInvocation()
         .withFunctionName(functionName)
-        .withPayload(payload)
+        .withRegions([region])
         .withInvocationType(invocationType)
         .withLogType(logType)
+        .withMaxRetries(maxRetries)
+        .withRetryDelay(retryDelay)
     
     // Add qualifier if specified
     if (qualifier && qualifier.trim() != "") {
-        invokeRequest.setQualifier(qualifier)
+        invocation.withQualifier(qualifier)
         Trace.info("Using qualifier: " + qualifier)
     }
     
@@ -240,43 +194,5 @@ def createInvokeRequest(functionName, payload, invocationType, logType, qualifie
         }
     }
     
-    return invokeRequest
+    return invocation.withPayload(payload.toString().getBytes("UTF-8"))
 }
-
-def processInvokeResult(InvokeResult invokeResult, msg) {
-    String response = new String(invokeResult.getPayload().array(), "UTF-8")
-    int statusCode = invokeResult.getStatusCode()
-    
-    Trace.info("=== Lambda Response ===")
-    Trace.info("Status Code: " + statusCode)
-    Trace.info("Response: " + response)
-    Trace.info("Executed Version: " + invokeResult.getExecutedVersion())
-    
-    if (invokeResult.getLogResult()) {
-        Trace.info("Log Result: " + invokeResult.getLogResult())
-    }
-    
-    // Store results
-    msg.put("aws.lambda.response", response)
-    msg.put("aws.lambda.http.status.code", statusCode)
-    msg.put("aws.lambda.executed.version", invokeResult.getExecutedVersion())
-    msg.put("aws.lambda.log.result", invokeResult.getLogResult())
-    
-    // Check Lambda function error
-    if (invokeResult.getFunctionError() != null) {
-        Trace.error("Lambda function error: " + invokeResult.getFunctionError())
-        msg.put("aws.lambda.error", invokeResult.getFunctionError())
-        msg.put("aws.lambda.function.error", invokeResult.getFunctionError())
-        return false
-    }
-    
-    // Check HTTP status code
-    if (statusCode >= 400) {
-        Trace.error("HTTP error in Lambda invocation: " + statusCode)
-        msg.put("aws.lambda.error", "HTTP Error: " + statusCode)
-        return false
-    }
-    
-    Trace.info("Lambda invocation successful")
-    return true
-} 
\ No newline at end of file
@@ -0,0 +1,64 @@
+package com.axway.aws.lambda;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread and heap footprint of LambdaExecutors with many in-flight invocations.
+ *
+ * Each task blocks for the given latency, like an invoke waiting on Lambda, so
+ * all tasks are in flight at the same time. Compare a Java 8/17 run with a
+ * Java 21 run, or run on Java 21 with -Dcom.axway.aws.lambda.virtualThreads=false.
+ *
+ * Usage: ExecutorFootprintBenchmark [inflight] [latencyMs]
+ */
+public final class ExecutorFootprintBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int inflight = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		long latencyMs = args.length > 1 ? Long.parseLong(args[1]) : 500;
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+		System.gc();
+		int baselineThreads = threads.getThreadCount();
+		long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+
+		ExecutorService executor = LambdaExecutors.newInvocationExecutor("lambda-bench", inflight);
+		long start = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>(inflight);
+		for (int i = 0; i < inflight; i++) {
+			futures.add(executor.submit(() -> {
+				Thread.sleep(latencyMs);
+				return null;
+			}));
+		}
+
+		// Sample while the invocations are in flight
+		int peakThreads = 0;
+		long peakHeap = 0;
+		while (!futures.get(futures.size() - 1).isDone()) {
+			peakThreads = Math.max(peakThreads, threads.getThreadCount());
+			peakHeap = Math.max(peakHeap, memory.getHeapMemoryUsage().getUsed());
+			Thread.sleep(Math.max(1, latencyMs / 20));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		executor.shutdown();
+
+		System.out.println("Java " + System.getProperty("java.version") + ", virtual threads: " + LambdaExecutors.usesVirtualThreads());
+		System.out.println("In-flight invocations: " + inflight + " x " + latencyMs + "ms");
+		System.out.println("Elapsed: " + elapsedMs + "ms");
+		System.out.println("Platform threads: " + baselineThreads + " -> peak " + peakThreads + " (+" + (peakThreads - baselineThreads) + ")");
+		System.out.println("Heap used: " + (baselineHeap >> 20) + "MB -> peak " + (peakHeap >> 20) + "MB (+" + ((peakHeap - baselineHeap) >> 20) + "MB)");
+	}
+}
@@ -0,0 +1,36 @@
+package com.axway.aws.lambda;
+
+import com.vordel.circuit.DefaultFilter;
+import com.vordel.common.util.PropDef;
+import com.vordel.config.ConfigContext;
+import com.vordel.es.EntityStoreException;
+
+public class AwaitLambdaResultFilter extends DefaultFilter {
+
+	@Override
+	protected final void setDefaultPropertyDefs() {
+		this.reqProps.add(new PropDef("aws.lambda.handle", LambdaInvocationHandle.class));
+		genProps.add(new PropDef("aws.lambda.response",String.class));
+		genProps.add(new PropDef("aws.lambda.http.status.code",Integer.class));
+		genProps.add(new PropDef("aws.lambda.cold.start",Boolean.class));
+		genProps.add(new PropDef("aws.lambda.billed.duration.ms",Long.class));
+
+	}
+
+	@Override
+	public void configure(ConfigContext ctx, com.vordel.es.Entity entity) throws EntityStoreException {
+		super.configure(ctx, entity);
+	}
+
+	@Override
+	public Class<AwaitLambdaResultProcessor> getMessageProcessorClass() {
+		return AwaitLambdaResultProcessor.class;
+	}
+
+	public Class getConfigPanelClass() throws ClassNotFoundException {
+		// Avoid any compile or runtime dependencies on SWT and other UI
+		// libraries by lazily loading the class when required.
+		return Class.forName("com.axway.aws.lambda.AwaitLambdaResultFilterUI");
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.axway.aws.lambda;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.vordel.circuit.CircuitAbortException;
+import com.vordel.circuit.Message;
+import com.vordel.circuit.MessageProcessor;
+import com.vordel.config.Circuit;
+import com.vordel.config.ConfigContext;
+import com.vordel.el.Selector;
+import com.vordel.es.Entity;
+import com.vordel.es.EntityStoreException;
+import com.vordel.trace.Trace;
+
+/**
+ * Waits for an invocation started by the Start Lambda Invocation filter and
+ * stores its result in the usual aws.lambda.* attributes.
+ *
+ * The wait is bounded by awaitTimeout (ms) and by the deadline of the
+ * invocation, whichever comes first. When it expires the invocation is
+ * cancelled and the filter fails. The handle is removed from the message once
+ * the invocation is over, so its result is collected only once.
+ */
+public class AwaitLambdaResultProcessor extends MessageProcessor {
+
+	protected Selector<String> handleAttribute;
+	protected Selector<Integer> awaitTimeout;
+
+	@Override
+	public void filterAttached(ConfigContext ctx, Entity entity) throws EntityStoreException {
+		super.filterAttached(ctx, entity);
+
+		this.handleAttribute = new Selector(entity.getStringValue("handleAttribute") != null ? entity.getStringValue("handleAttribute") : StartLambdaInvocationProcessor.DEFAULT_HANDLE_ATTRIBUTE, String.class);
+		this.awaitTimeout = new Selector(entity.getStringValue("awaitTimeout") != null ? entity.getStringValue("awaitTimeout") : "30000", Integer.class);
+
+		Trace.info("=== Await Lambda Result Configuration ===");
+		Trace.info("Handle Attribute: " + handleAttribute.getLiteral());
+		Trace.info("Await Timeout: " + awaitTimeout.getLiteral() + "ms");
+	}
+
+	@Override
+	public boolean invoke(Circuit arg0, Message msg) throws CircuitAbortException {
+		String attribute = handleAttribute.substitute(msg);
+		if (attribute == null || attribute.trim().isEmpty()) {
+			attribute = StartLambdaInvocationProcessor.DEFAULT_HANDLE_ATTRIBUTE;
+		}
+		Object value = msg.get(attribute);
+		if (!(value instanceof LambdaInvocationHandle)) {
+			Trace.error("No Lambda invocation handle found in " + attribute);
+			msg.put("aws.lambda.error", "No Lambda invocation handle found in " + attribute);
+			return false;
+		}
+		LambdaInvocationHandle handle = (LambdaInvocationHandle) value;
+
+		Integer timeoutValue = awaitTimeout.substitute(msg);
+		long timeout = timeoutValue != null && timeoutValue > 0 ? timeoutValue : 30000;
+		// Nobody waits for the result past the deadline of the invocation
+		LambdaInvocation invocation = handle.getInvocation();
+		boolean deadlineBound = invocation.hasDeadline() && invocation.getRemainingMillis() < timeout;
+		if (deadlineBound) {
+			timeout = Math.max(0, invocation.getRemainingMillis());
+		}
+
+		long waitStart = System.nanoTime();
+		InvokeResult invokeResult;
+		try {
+			invokeResult = handle.getFuture().get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			handle.getFuture().cancel(true);
+			msg.remove(attribute);
+			if (deadlineBound) {
+				Trace.error("Lambda result not ready at the invocation deadline, invocation cancelled");
+				msg.put("aws.lambda.deadline.exceeded", true);
+				msg.put("aws.lambda.error", "Deadline exceeded waiting for Lambda result");
+			} else {
+				Trace.error("Lambda result not ready after " + timeout + "ms, invocation cancelled");
+				msg.put("aws.lambda.error", "Timed out after " + timeout + "ms waiting for Lambda result");
+			}
+			return false;
+		} catch (CancellationException e) {
+			msg.remove(attribute);
+			Trace.error("Lambda invocation was cancelled");
+			msg.put("aws.lambda.error", "Lambda invocation was cancelled");
+			return false;
+		} catch (ExecutionException e) {
+			msg.remove(attribute);
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			Trace.error("Lambda invocation failed: " + cause.getMessage());
+			msg.putAll(handle.getInvocation().getAttributes());
+			msg.put("aws.lambda.error", cause.getMessage());
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			Trace.error("Thread interrupted while waiting for Lambda result");
+			msg.put("aws.lambda.error", "Interrupted while waiting for Lambda result");
+			return false;
+		}
+
+		msg.remove(attribute);
+		long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - waitStart);
+		msg.put("aws.lambda.await.wait.ms", waited);
+		Trace.info("Lambda result collected after waiting " + waited + "ms (" + handle.getElapsedMillis() + "ms since start)");
+
+		msg.putAll(invocation.getAttributes());
+		return handle.getProcessor().processInvokeResult(invokeResult, msg, invocation.getFunctionName(), handle.getMemorySize());
+	}
+}
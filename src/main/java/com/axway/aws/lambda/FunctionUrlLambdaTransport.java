@@ -0,0 +1,442 @@
+package com.axway.aws.lambda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vordel.trace.Trace;
+
+/**
+ * Transport posting payloads to a Lambda Function URL, signed with SigV4 (IAM auth type).
+ *
+ * The URL points at one function and alias, so the function name and qualifier
+ * of the request are not sent. DryRun invocations (pre-warm) only open a pooled
+ * connection, since the URL would run the function. Requests go through a pooled Apache HTTP client
+ * with keep-alive, owned by this transport (sized by the client configuration).
+ * Function URLs are synchronous: Event invocations wait for the function and
+ * return an empty 202 result like the Invoke API.
+ *
+ * The HTTP response is turned back into an Invoke result: a 200 JSON response
+ * is the function's return value as is; any other response is returned as the
+ * API Gateway proxy object the function produced ({statusCode, headers, body,
+ * isBase64Encoded}). A 502 is reported as an Unhandled function error, and
+ * errors of the Function URL service itself (x-amzn-ErrorType, or 429) are
+ * thrown so the retry loop handles them. Functions in RESPONSE_STREAM mode can
+ * be streamed into content.body. The trace context is passed in a traceparent
+ * header, since Function URLs have no client context.
+ */
+public class FunctionUrlLambdaTransport implements LambdaTransport {
+
+	// <url-id>.lambda-url.<region>.on.aws
+	private static final Pattern REGION_IN_HOST = Pattern.compile("\\.lambda-url\\.([a-z0-9-]+)\\.on\\.aws$");
+	private static final String ERROR_TYPE_HEADER = "x-amzn-ErrorType";
+	private static final int STREAM_CHUNK_SIZE = 32 * 1024;
+
+	private static final JsonFactory JSON = new JsonFactory();
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final URI url;
+	private final String signingRegion;
+	private final AWSCredentialsProvider credentials;
+	private final PoolingHttpClientConnectionManager pool;
+	private final CloseableHttpClient httpClient;
+	private final RequestConfig requestConfig;
+	private final HttpHost proxy;
+	private final ExecutorService streamPumps = Executors.newCachedThreadPool(LambdaExecutors.daemonThreadFactory("lambda-url-stream"));
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder serviceErrors = new LongAdder();
+	private final LongAdder functionErrors = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+
+	public FunctionUrlLambdaTransport(String url, AWSCredentialsProvider credentials, ClientConfiguration config) {
+		ClientConfiguration clientConfig = config != null ? config : new ClientConfiguration();
+		this.url = URI.create(url.trim());
+		if (this.url.getHost() == null || !(this.url.getScheme().equals("https") || this.url.getScheme().equals("http"))) {
+			throw new IllegalArgumentException("Invalid Function URL: " + url);
+		}
+		Matcher region = REGION_IN_HOST.matcher(this.url.getHost());
+		this.signingRegion = region.find() ? region.group(1) : null;
+		this.credentials = credentials;
+
+		this.pool = new PoolingHttpClientConnectionManager(clientConfig.getConnectionTTL(), TimeUnit.MILLISECONDS);
+		pool.setMaxTotal(clientConfig.getMaxConnections());
+		pool.setDefaultMaxPerRoute(clientConfig.getMaxConnections());
+		pool.setValidateAfterInactivity(clientConfig.getValidateAfterInactivityMillis());
+		this.requestConfig = RequestConfig.custom()
+			.setConnectTimeout(clientConfig.getConnectionTimeout())
+			.setSocketTimeout(clientConfig.getSocketTimeout())
+			.setConnectionRequestTimeout(clientConfig.getConnectionTimeout())
+			.build();
+		org.apache.http.impl.client.HttpClientBuilder http = HttpClients.custom()
+			.setConnectionManager(pool)
+			.setDefaultRequestConfig(requestConfig)
+			.evictIdleConnections(clientConfig.getConnectionMaxIdleMillis(), TimeUnit.MILLISECONDS)
+			// The processor retries, with its own delay and deadline
+			.disableAutomaticRetries();
+		this.proxy = clientConfig.getProxyHost() != null && !clientConfig.getProxyHost().isEmpty() ?
+			new HttpHost(clientConfig.getProxyHost(), clientConfig.getProxyPort()) : null;
+		if (proxy != null) {
+			http.setProxy(proxy);
+		}
+		this.httpClient = http.build();
+
+		Trace.info("Function URL transport: " + this.url + " (signing region " + (signingRegion != null ? signingRegion : "of the invocation") +
+			"), maxConnections=" + clientConfig.getMaxConnections() + ", connectionTimeout=" + clientConfig.getConnectionTimeout() +
+			"ms, socketTimeout=" + clientConfig.getSocketTimeout() + "ms");
+	}
+
+	@Override
+	public InvokeResult invoke(String region, InvokeRequest request) throws Exception {
+		if ("DryRun".equals(request.getInvocationType())) {
+			// Function URLs have no DryRun: open a pooled connection without sending a request
+			openConnection();
+			return new InvokeResult().withStatusCode(204);
+		}
+		long start = System.nanoTime();
+		HttpPost post = createPost(region, request);
+		try (CloseableHttpResponse response = httpClient.execute(post)) {
+			int status = response.getStatusLine().getStatusCode();
+			byte[] body = response.getEntity() != null ? EntityUtils.toByteArray(response.getEntity()) : new byte[0];
+			bytesReceived.add(body.length);
+			checkServiceError(response, status, body);
+			return toInvokeResult(request, response, status, body);
+		} finally {
+			latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+		}
+	}
+
+	@Override
+	public boolean supportsStreaming() {
+		return true;
+	}
+
+	@Override
+	public LambdaResponseStream invokeStreaming(String region, InvokeRequest request, int bufferChunks) throws Exception {
+		long start = System.nanoTime();
+		HttpPost post = createPost(region, request);
+		CloseableHttpResponse response = httpClient.execute(post);
+		int status = response.getStatusLine().getStatusCode();
+		HttpEntity entity = response.getEntity();
+		if (status != 200 || entity == null) {
+			// Not a stream: report it like a buffered response
+			try {
+				byte[] body = entity != null ? EntityUtils.toByteArray(entity) : new byte[0];
+				bytesReceived.add(body.length);
+				checkServiceError(response, status, body);
+				if (status == 502) {
+					functionErrors.increment();
+				}
+				LambdaResponseStream stream = new LambdaResponseStream(1);
+				stream.start(200, getHeader(response, "X-Amz-Executed-Version"), "application/json");
+				stream.chunk(toPayload(response, status, body));
+				stream.complete(status == 502 ? "Unhandled" : null, null, null);
+				return stream;
+			} finally {
+				response.close();
+				latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+			}
+		}
+
+		LambdaResponseStream stream = new LambdaResponseStream(bufferChunks);
+		Semaphore demand = new Semaphore(stream.getBufferChunks());
+		AtomicBoolean cancelled = new AtomicBoolean();
+		stream.onDemand(n -> demand.release((int) Math.min(n, Integer.MAX_VALUE)));
+		stream.onCancel(() -> {
+			// The pump may be waiting for demand that will never come: wake it up so it ends
+			cancelled.set(true);
+			post.abort();
+			demand.release();
+		});
+		Header contentType = entity.getContentType();
+		stream.start(status, getHeader(response, "X-Amz-Executed-Version"), contentType != null ? contentType.getValue() : null);
+		streamPumps.execute(() -> {
+			try (CloseableHttpResponse streamed = response; InputStream in = entity.getContent()) {
+				byte[] buffer = new byte[STREAM_CHUNK_SIZE];
+				int read;
+				while (!cancelled.get() && (read = in.read(buffer)) >= 0) {
+					if (read == 0) {
+						continue;
+					}
+					// Wait for the reader to take a chunk before reading the next one
+					demand.acquire();
+					if (cancelled.get()) {
+						break;
+					}
+					bytesReceived.add(read);
+					stream.chunk(java.util.Arrays.copyOf(buffer, read));
+				}
+				if (!cancelled.get()) {
+					stream.complete(null, null, null);
+				}
+			} catch (InterruptedException e) {
+				post.abort();
+				stream.fail(e);
+			} catch (Exception e) {
+				stream.fail(e);
+			} finally {
+				latency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+			}
+		});
+		return stream;
+	}
+
+	/**
+	 * Opens a connection (TCP and TLS) to the URL and returns it to the pool, so that a
+	 * pre-warm does not run the function. Nothing is opened through a proxy.
+	 */
+	private void openConnection() throws Exception {
+		if (proxy != null) {
+			return;
+		}
+		int port = url.getPort() > 0 ? url.getPort() : ("https".equals(url.getScheme()) ? 443 : 80);
+		HttpRoute route = new HttpRoute(new HttpHost(url.getHost(), port, url.getScheme()));
+		HttpClientContext context = HttpClientContext.create();
+		HttpClientConnection connection = pool.requestConnection(route, null)
+			.get(Math.max(0, requestConfig.getConnectionRequestTimeout()), TimeUnit.MILLISECONDS);
+		boolean reusable = false;
+		try {
+			if (!connection.isOpen()) {
+				pool.connect(connection, route, Math.max(0, requestConfig.getConnectTimeout()), context);
+				pool.routeComplete(connection, route, context);
+			}
+			reusable = true;
+		} finally {
+			if (!reusable) {
+				connection.close();
+			}
+			pool.releaseConnection(connection, null, reusable ? -1 : 0, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Builds the signed POST of a request
+	 */
+	private HttpPost createPost(String region, InvokeRequest request) {
+		requests.increment();
+		byte[] payload = toBytes(request.getPayload());
+		bytesSent.add(payload.length);
+
+		DefaultRequest<Void> signable = new DefaultRequest<>("lambda");
+		signable.setHttpMethod(HttpMethodName.POST);
+		signable.setEndpoint(URI.create(url.getScheme() + "://" + url.getRawAuthority()));
+		signable.setResourcePath(url.getRawPath() != null && !url.getRawPath().isEmpty() ? url.getRawPath() : "/");
+		signable.addHeader("Content-Type", "application/json");
+		String traceparent = getTraceparent(request.getClientContext());
+		if (traceparent != null) {
+			signable.addHeader(LambdaTraceContext.TRACEPARENT_HEADER, traceparent);
+		}
+		signable.setContent(new ByteArrayInputStream(payload));
+		AWS4Signer signer = new AWS4Signer();
+		signer.setServiceName("lambda");
+		signer.setRegionName(signingRegion != null ? signingRegion : region);
+		signer.sign(signable, credentials.getCredentials());
+
+		HttpPost post = new HttpPost(url);
+		for (Map.Entry<String, String> header : signable.getHeaders().entrySet()) {
+			post.setHeader(header.getKey(), header.getValue());
+		}
+		post.setEntity(new ByteArrayEntity(payload));
+		// Trim the attempt to the remaining budget of the invocation
+		Integer timeout = request.getSdkClientExecutionTimeout();
+		if (timeout != null && timeout > 0) {
+			int socketTimeout = requestConfig.getSocketTimeout() > 0 ? Math.min(requestConfig.getSocketTimeout(), timeout) : timeout;
+			post.setConfig(RequestConfig.copy(requestConfig)
+				.setSocketTimeout(socketTimeout)
+				.setConnectTimeout(Math.min(Math.max(0, requestConfig.getConnectTimeout()), timeout))
+				.build());
+		}
+		return post;
+	}
+
+	/**
+	 * Throws the errors of the Function URL service (throttling, authorization, limits)
+	 */
+	private void checkServiceError(CloseableHttpResponse response, int status, byte[] body) {
+		String errorType = getHeader(response, ERROR_TYPE_HEADER);
+		if (status == 429 || (errorType != null && status != 502)) {
+			serviceErrors.increment();
+			String message = new String(body, StandardCharsets.UTF_8);
+			AmazonServiceException exception = new AmazonServiceException(
+				(errorType != null ? errorType + ": " : "") + (message.isEmpty() ? "HTTP " + status : message));
+			exception.setStatusCode(status);
+			exception.setErrorCode(errorType != null ? errorType : "TooManyRequestsException");
+			exception.setServiceName("AWSLambda");
+			exception.setRequestId(getHeader(response, "x-amzn-RequestId"));
+			throw exception;
+		}
+	}
+
+	private InvokeResult toInvokeResult(InvokeRequest request, CloseableHttpResponse response, int status, byte[] body) throws IOException {
+		InvokeResult result = new InvokeResult().withExecutedVersion(getHeader(response, "X-Amz-Executed-Version"));
+		if ("Event".equals(request.getInvocationType())) {
+			return result.withStatusCode(202).withPayload(ByteBuffer.wrap(new byte[0]));
+		}
+		if (status == 502) {
+			functionErrors.increment();
+			result.withFunctionError("Unhandled");
+		}
+		return result.withStatusCode(200).withPayload(ByteBuffer.wrap(toPayload(response, status, body)));
+	}
+
+	/**
+	 * Returns the function's return value: the body of a 200 JSON response (or of a function error),
+	 * otherwise the proxy object of the response
+	 */
+	private static byte[] toPayload(CloseableHttpResponse response, int status, byte[] body) throws IOException {
+		String contentType = getHeader(response, "Content-Type");
+		if ((status == 200 && contentType != null && contentType.toLowerCase().contains("json")) || status == 502) {
+			return body;
+		}
+		boolean text = contentType == null || isText(contentType);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 256);
+		try (JsonGenerator gen = JSON.createGenerator(out)) {
+			gen.writeStartObject();
+			gen.writeNumberField("statusCode", status);
+			gen.writeObjectFieldStart("headers");
+			for (Header header : response.getAllHeaders()) {
+				gen.writeStringField(header.getName(), header.getValue());
+			}
+			gen.writeEndObject();
+			gen.writeStringField("body", text ? new String(body, StandardCharsets.UTF_8) : Base64.getEncoder().encodeToString(body));
+			gen.writeBooleanField("isBase64Encoded", !text);
+			gen.writeEndObject();
+		}
+		return out.toByteArray();
+	}
+
+	private static boolean isText(String contentType) {
+		String type = contentType.toLowerCase();
+		return type.startsWith("text/") || type.contains("json") || type.contains("xml") ||
+			type.contains("javascript") || type.contains("x-www-form-urlencoded");
+	}
+
+	/**
+	 * Reads the traceparent the processor put in the base64 client context
+	 */
+	private static String getTraceparent(String clientContext) {
+		if (clientContext == null) {
+			return null;
+		}
+		try {
+			JsonNode traceparent = MAPPER.readTree(Base64.getDecoder().decode(clientContext)).path("custom").path("traceparent");
+			return traceparent.isTextual() ? traceparent.asText() : null;
+		} catch (IOException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static String getHeader(CloseableHttpResponse response, String name) {
+		Header header = response.getFirstHeader(name);
+		return header != null ? header.getValue() : null;
+	}
+
+	private static byte[] toBytes(ByteBuffer payload) {
+		if (payload == null) {
+			return new byte[0];
+		}
+		ByteBuffer buffer = payload.duplicate();
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	public URI getUrl() {
+		return url;
+	}
+
+	/**
+	 * Request latency in microseconds (until the end of the body for streamed responses)
+	 */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public long getRequestCount() {
+		return requests.sum();
+	}
+
+	public long getServiceErrorCount() {
+		return serviceErrors.sum();
+	}
+
+	public long getFunctionErrorCount() {
+		return functionErrors.sum();
+	}
+
+	/**
+	 * Connections leased, idle and awaited in the pool of this transport
+	 */
+	public PoolStats getPoolStats() {
+		return pool.getTotalStats();
+	}
+
+	@Override
+	public String getName() {
+		return FUNCTION_URL;
+	}
+
+	@Override
+	public void close() {
+		Trace.info("Function URL transport closed: " + this);
+		streamPumps.shutdownNow();
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			Trace.error("Error closing the Function URL HTTP client: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public String toString() {
+		PoolStats stats = getPoolStats();
+		return url + ": requests=" + getRequestCount() + ", serviceErrors=" + getServiceErrorCount() + ", functionErrors=" + getFunctionErrorCount() +
+			", sent=" + bytesSent.sum() + " bytes, received=" + bytesReceived.sum() + " bytes" +
+			", pool leased=" + stats.getLeased() + " available=" + stats.getAvailable() + " pending=" + stats.getPending() + " max=" + stats.getMax() +
+			"\n  latency(us) " + latency;
+	}
+}
@@ -0,0 +1,21 @@
+package com.axway.aws.lambda;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Request body encodings of the Invoke Lambda Function payload
+ */
+public class InvokeLambdaFunctionBodyEncoding {
+    
+    public static Map<String, String> payloadBodyEncoding;
+    
+    static {
+        Map<String, String> init = new HashMap<>();
+        init.put(InvokeLambdaFunctionProcessor.BODY_ENCODING_TEXT, "Text (JSON object or string)");
+        init.put(InvokeLambdaFunctionProcessor.BODY_ENCODING_BASE64, "Base64 (isBase64Encoded)");
+        init.put(InvokeLambdaFunctionProcessor.BODY_ENCODING_AUTO, "Auto (base64 for non-text content types)");
+        payloadBodyEncoding = Collections.unmodifiableMap(init);
+    }
+}
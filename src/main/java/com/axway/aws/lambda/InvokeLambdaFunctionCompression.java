@@ -0,0 +1,21 @@
+package com.axway.aws.lambda;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Payload compressions of the Invoke Lambda Function filter
+ */
+public class InvokeLambdaFunctionCompression {
+    
+    public static Map<String, String> payloadCompression;
+    
+    static {
+        Map<String, String> init = new HashMap<>();
+        init.put(LambdaCompression.NONE, "None");
+        init.put(LambdaCompression.GZIP, "gzip");
+        init.put(LambdaCompression.ZSTD, "zstd (requires zstd-jni)");
+        payloadCompression = Collections.unmodifiableMap(init);
+    }
+}
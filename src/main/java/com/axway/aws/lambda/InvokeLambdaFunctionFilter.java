@@ -15,6 +15,8 @@ public class InvokeLambdaFunctionFilter extends DefaultFilter {
 		this.reqProps.add(new PropDef("http.headers", HeaderSet.class));
 		genProps.add(new PropDef("aws.lambda.response",String.class));
 		genProps.add(new PropDef("aws.lambda.http.status.code",Integer.class));
+		genProps.add(new PropDef("aws.lambda.cold.start",Boolean.class));
+		genProps.add(new PropDef("aws.lambda.billed.duration.ms",Long.class));
 
 	}
 
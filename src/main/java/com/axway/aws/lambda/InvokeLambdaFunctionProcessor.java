@@ -10,7 +10,6 @@ import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.auth.EC2ContainerCredentialsProviderWrapper;
 import com.amazonaws.auth.profile.ProfileCredentialsProvider;
 import com.amazonaws.auth.WebIdentityTokenCredentialsProvider;
-import com.amazonaws.services.lambda.AWSLambda;
 import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
 import com.amazonaws.services.lambda.model.InvokeRequest;
 import com.amazonaws.services.lambda.model.InvokeResult;
@@ -40,6 +39,14 @@ import java.nio.ByteBuffer;
  */
 public class InvokeLambdaFunctionProcessor extends MessageProcessor {
 	
+	public static final String RESPONSE_MODE_BUFFERED = "buffered";
+	public static final String RESPONSE_MODE_STREAM = "stream";
+	public static final String RESPONSE_MODE_PROXY = "proxy";
+	
+	public static final String BODY_ENCODING_TEXT = "text";
+	public static final String BODY_ENCODING_BASE64 = "base64";
+	public static final String BODY_ENCODING_AUTO = "auto";
+	
 	// Selectors for dynamic field resolution (following S3 pattern)
 	protected Selector<String> functionName;
 	protected Selector<String> awsRegion;
@@ -67,6 +74,76 @@ public class InvokeLambdaFunctionProcessor extends MessageProcessor {
 	protected Selector<String> payloadUriField;
 	protected Selector<String> payloadQueryStringField;
 	protected Selector<String> payloadParamsPathField;
+	// Body encoding: text (JSON or string), base64 (isBase64Encoded) or auto (base64 for non-text content types)
+	protected String payloadBodyEncoding;
+	// Compiled payload template, replaces the field mapping when configured
+	protected LambdaPayloadTemplate payloadTemplate;
+	
+	// Tail log telemetry (percentage of invocations that request the log tail)
+	protected Selector<Integer> tailSampleRate;
+	
+	// Multi-region routing (null when only awsRegion is used)
+	protected RegionRouter regionRouter;
+	protected Selector<Integer> crossRegionRetries;
+	
+	// Weighted qualifier split (null when qualifier is a single alias or version)
+	protected QualifierSplitter qualifierSplitter;
+	protected Selector<String> qualifierStickyKey;
+	
+	// Overall time budget (ms) and optional message attribute carrying an upstream deadline
+	protected Selector<Integer> invocationTimeout;
+	protected String deadlineAttribute;
+	
+	// Smallest budget (ms) worth starting another attempt with
+	private static final long MIN_ATTEMPT_MILLIS = 100;
+	
+	// Response handling: buffered into aws.lambda.response, or streamed into content.body
+	protected String responseMode;
+	protected int streamBufferChunks;
+	// Response fields copied into message attributes (null when not configured)
+	protected LambdaResponseProjection responseProjection;
+	// Spill of large responses to memory-mapped files and cap of response memory (null when disabled)
+	protected LambdaResponseSpill responseSpill;
+	
+	// Deduplication of repeated Event invocations (null when disabled)
+	protected volatile LambdaDeduplicator deduplicator;
+	// Created on first use and resized in place, so reservations in flight stay with it
+	private LambdaDeduplicator dedupInstance;
+	protected Selector<String> dedupKey;
+	private long configuredDedupWindow;
+	private int dedupMaxEntries;
+	
+	// Runtime overrides of the settings, managed through JMX (no overrides until the filter is attached)
+	protected LambdaTuning tuning = new LambdaTuning(null);
+	
+	// REPORT telemetry of the functions invoked, bounded as function names may come from the message
+	private final LambdaMetrics.Registry functionMetrics = new LambdaMetrics.Registry(64);
+	
+	// Background pre-warming and keep-warm pings (null when disabled)
+	protected LambdaWarmer warmer;
+	
+	// Transport sending the invoke requests (SDK v1 by default), holds the clients of each region
+	protected LambdaTransport transport;
+	
+	// Claim-check offload of large payloads to S3 (null when no bucket is configured)
+	protected LambdaClaimCheck claimCheck;
+	
+	// Compressed envelope of large payloads and responses (null when disabled)
+	protected LambdaCompression compression;
+	
+	// Parsed lambda.body documents, keyed by content (null when disabled)
+	protected LambdaDocumentCache bodyCache;
+	
+	// Phase spans of each invocation (null when no exporter is configured)
+	protected LambdaSpanSink spanSink;
+	protected String traceContextField;
+	
+	// Sampled, redacted recording of the invocations for replay (null when disabled)
+	protected LambdaCapture capture;
+	
+	// Priority lanes with their own executor and transport (null when not configured)
+	protected LambdaLanes lanes;
+	protected Selector<String> laneSelector;
 
 	public InvokeLambdaFunctionProcessor() {
 	}
@@ -96,6 +173,33 @@ public class InvokeLambdaFunctionProcessor extends MessageProcessor {
 		this.payloadUriField = new Selector(entity.getStringValue("payloadUriField"), String.class);
 		this.payloadQueryStringField = new Selector(entity.getStringValue("payloadQueryStringField"), String.class);
 		this.payloadParamsPathField = new Selector(entity.getStringValue("payloadParamsPathField"), String.class);
+		this.payloadBodyEncoding = entity.getStringValue("payloadBodyEncoding") != null ? entity.getStringValue("payloadBodyEncoding") : BODY_ENCODING_TEXT;
+		try {
+			this.payloadTemplate = LambdaPayloadTemplate.compile(entity.getStringValue("payloadTemplate"));
+		} catch (Exception e) {
+			Trace.error("Invalid payload template, using the payload fields: " + e.getMessage());
+			this.payloadTemplate = null;
+		}
+		
+		// Initialize tail log sampling (defaults to every invocation)
+		this.tailSampleRate = new Selector(entity.getStringValue("tailSampleRate") != null ? entity.getStringValue("tailSampleRate") : "100", Integer.class);
+		
+		// Initialize multi-region routing
+		this.regionRouter = RegionRouter.parse(entity.getStringValue("awsRegions"), entity.getStringValue("regionRouting"));
+		this.crossRegionRetries = new Selector(entity.getStringValue("crossRegionRetries") != null ? entity.getStringValue("crossRegionRetries") : "1", Integer.class);
+		
+		// Initialize weighted qualifier split (e.g. "live:95,canary:5")
+		String qualifierLiteral = entity.getStringValue("qualifier");
+		if (QualifierSplitter.isSplit(qualifierLiteral)) {
+			this.qualifierSplitter = QualifierSplitter.parse(qualifierLiteral,
+				getDoubleValue(entity, "canaryMaxLatencyRatio", 2.0),
+				getDoubleValue(entity, "canaryMaxErrorRate", 5.0) / 100.0);
+		}
+		this.qualifierStickyKey = new Selector(entity.getStringValue("qualifierStickyKey") != null ? entity.getStringValue("qualifierStickyKey") : "", String.class);
+		
+		// Initialize deadline propagation (0 and empty disable it)
+		this.invocationTimeout = new Selector(entity.getStringValue("invocationTimeout") != null ? entity.getStringValue("invocationTimeout") : "0", Integer.class);
+		this.deadlineAttribute = entity.getStringValue("deadlineAttribute") != null ? entity.getStringValue("deadlineAttribute").trim() : "";
 		
 		// Get client configuration (following S3 pattern exactly)
 		Entity clientConfig = ctx.getEntity(entity.getReferenceValue("clientConfiguration"));
@@ -103,22 +207,268 @@ public class InvokeLambdaFunctionProcessor extends MessageProcessor {
 		// Configure Lambda client builder (following S3 pattern)
 		this.lambdaClientBuilder = getLambdaClientBuilder(ctx, entity, clientConfig);
 		
+		// Initialize response mode
+		this.responseMode = entity.getStringValue("responseMode") != null ? entity.getStringValue("responseMode") : RESPONSE_MODE_BUFFERED;
+		this.streamBufferChunks = (int) getDoubleValue(entity, "streamBufferChunks", 16);
+		this.responseProjection = LambdaResponseProjection.parse(entity.getStringValue("responseProjection"));
+		long spillThreshold = (long) getDoubleValue(entity, "responseSpillThreshold", 0);
+		long responseMemoryLimit = (long) getDoubleValue(entity, "responseMemoryLimit", 0);
+		this.responseSpill = spillThreshold > 0 || responseMemoryLimit > 0 ? new LambdaResponseSpill(spillThreshold, responseMemoryLimit) : null;
+		
+		// Initialize Event deduplication (0 disables it)
+		this.configuredDedupWindow = (long) getDoubleValue(entity, "dedupWindow", 0);
+		this.dedupMaxEntries = (int) getDoubleValue(entity, "dedupMaxEntries", 10000);
+		
+		// Load the saved runtime overrides of this filter, then apply the deduplication window
+		String filterName = entity.getStringValue("name");
+		// Keyed by the entity key (policy path and name): filter names repeat across policies
+		this.tuning = new LambdaTuning(filterName != null && !filterName.isEmpty() ? filterName : getClass().getSimpleName(),
+			entity.getPK() != null ? entity.getPK().toString() : null);
+		tuning.load();
+		tuning.setFunctionMetrics(functionMetrics);
+		tuning.onDedupWindowChange(this::applyDedupWindow);
+		applyDedupWindow(tuning.current().get(LambdaTuning.DEDUP_WINDOW, -1L));
+		this.dedupKey = new Selector(entity.getStringValue("dedupKey") != null ? entity.getStringValue("dedupKey") : "", String.class);
+		
+		// Create the transport (falls back to SDK v1 if SDK v2 is not installed or the Function URL is missing)
+		this.transport = LambdaTransports.create(entity.getStringValue("transport"), lambdaClientBuilder,
+			lambdaClientBuilder.getCredentials(), lambdaClientBuilder.getClientConfiguration(), entity.getStringValue("functionUrl"));
+		
+		// Create the priority lanes, each with a transport of its own sized to the lane
+		String transportName = entity.getStringValue("transport");
+		String functionUrl = entity.getStringValue("functionUrl");
+		this.lanes = LambdaLanes.parse(entity.getStringValue("priorityLanes"), connections -> {
+			ClientConfiguration laneConfig = lambdaClientBuilder.getClientConfiguration() != null ?
+				new ClientConfiguration(lambdaClientBuilder.getClientConfiguration()) : new ClientConfiguration();
+			laneConfig.setMaxConnections(connections);
+			AWSLambdaClientBuilder laneBuilder = AWSLambdaClientBuilder.standard()
+				.withCredentials(lambdaClientBuilder.getCredentials())
+				.withClientConfiguration(laneConfig);
+			return LambdaTransports.create(transportName, laneBuilder, lambdaClientBuilder.getCredentials(), laneConfig, functionUrl);
+		});
+		this.laneSelector = new Selector(entity.getStringValue("laneSelector") != null ? entity.getStringValue("laneSelector") : "", String.class);
+		
+		// Create the claim check (S3 client shares the credentials and client configuration)
+		String regionLiteral = awsRegion.getLiteral();
+		this.claimCheck = LambdaClaimCheck.create(entity.getStringValue("claimCheckBucket"),
+			entity.getStringValue("claimCheckPrefix") != null ? entity.getStringValue("claimCheckPrefix") : "lambda-claim-check/",
+			(int) getDoubleValue(entity, "claimCheckThreshold", 0),
+			entity.getStringValue("claimCheckEndpoint"),
+			regionLiteral != null && !regionLiteral.contains("${") ? regionLiteral : null,
+			lambdaClientBuilder.getCredentials(), lambdaClientBuilder.getClientConfiguration());
+		
+		// Cache the parsed lambda.body documents (0 disables the cache)
+		int bodyCacheSize = (int) getDoubleValue(entity, "lambdaBodyCacheSize", 256);
+		this.bodyCache = bodyCacheSize > 0 ? new LambdaDocumentCache(bodyCacheSize, 64 * 1024) : null;
+		
+		// Compress large payloads into an envelope when configured
+		// Decompressed responses are capped, and never above the response memory limit
+		long maxDecompressed = (long) getDoubleValue(entity, "compressionMaxResponseSize", 64 * 1024 * 1024);
+		if (responseMemoryLimit > 0) {
+			maxDecompressed = Math.min(maxDecompressed, responseMemoryLimit);
+		}
+		this.compression = LambdaCompression.create(entity.getStringValue("payloadCompression"),
+			(int) getDoubleValue(entity, "compressionThreshold", 65536), maxDecompressed);
+		
+		// Create the span exporter and the payload field carrying the trace context
+		this.spanSink = LambdaSpanSinks.create(entity.getStringValue("spanExporter"), entity.getStringValue("spanEndpoint"));
+		this.traceContextField = entity.getStringValue("traceContextField") != null ? entity.getStringValue("traceContextField").trim() : "";
+		
+		// Record the invocations for replay when a capture file is configured
+		this.capture = LambdaCapture.create(entity.getStringValue("captureFile"), (int) getDoubleValue(entity, "captureSampleRate", 1),
+			new LambdaCapture.Mapping(new String[] {
+				literal(payloadMethodField), literal(payloadHeadersField), literal(payloadBodyField),
+				literal(payloadUriField), literal(payloadQueryStringField), literal(payloadParamsPathField)
+			}, payloadBodyEncoding, entity.getStringValue("payloadTemplate")));
+		
 		Trace.info("=== Lambda Configuration (Following S3 Pattern) ===");
 		Trace.info("Function: " + (functionName != null ? functionName.getLiteral() : "dynamic"));
 		Trace.info("Region: " + (awsRegion != null ? awsRegion.getLiteral() : "dynamic"));
+		Trace.info("Region Routing: " + (regionRouter != null ? regionRouter : "single region"));
 		Trace.info("Invocation Type: " + (invocationType != null ? invocationType.getLiteral() : "dynamic"));
 		Trace.info("Log Type: " + (logType != null ? logType.getLiteral() : "dynamic"));
 		Trace.info("Qualifier: " + (qualifier != null ? qualifier.getLiteral() : "dynamic"));
+		Trace.info("Qualifier Split: " + (qualifierSplitter != null ? qualifierSplitter : "disabled"));
 		Trace.info("Retry Delay: " + (retryDelay != null ? retryDelay.getLiteral() : "dynamic"));
+		Trace.info("Invocation Timeout: " + (invocationTimeout != null ? invocationTimeout.getLiteral() : "0") + "ms" +
+			(deadlineAttribute != null && !deadlineAttribute.isEmpty() ? ", deadline from " + deadlineAttribute : ""));
 		Trace.info("Memory Size: " + (memorySize != null ? memorySize.getLiteral() : "dynamic"));
 		Trace.info("Credential Type: " + (credentialType != null ? credentialType.getLiteral() : "dynamic"));
 		Trace.info("Use IAM Role: " + (useIAMRole != null ? useIAMRole.getLiteral() : "false"));
 		Trace.info("AWS Credential: " + (awsCredential != null ? awsCredential.getLiteral() : "dynamic"));
 		Trace.info("Client Configuration: " + (clientConfiguration != null ? clientConfiguration.getLiteral() : "dynamic"));
 		Trace.info("Credentials File Path: " + (credentialsFilePath != null ? credentialsFilePath.getLiteral() : "dynamic"));
+		Trace.info("Payload Body Encoding: " + payloadBodyEncoding);
+		Trace.info("Payload Template: " + (payloadTemplate != null ? payloadTemplate : "not configured"));
+		Trace.info("lambda.body Cache: " + (bodyCache != null ? bodyCache : "disabled"));
+		Trace.info("Tail Sample Rate: " + (tailSampleRate != null ? tailSampleRate.getLiteral() : "100") + "%");
 		Trace.info("Client Config Entity: " + (clientConfig != null ? "configured" : "default"));
+		Trace.info("Transport: " + transport.getName() + (transport instanceof FunctionUrlLambdaTransport ? " " + ((FunctionUrlLambdaTransport) transport).getUrl() : ""));
+		Trace.info("Response Mode: " + responseMode + (RESPONSE_MODE_STREAM.equals(responseMode) ? " (buffer " + streamBufferChunks + " chunks)" : ""));
+		if (RESPONSE_MODE_STREAM.equals(responseMode) && !transport.supportsStreaming()) {
+			Trace.error("Response streaming requires the " + LambdaTransport.SDK_V2_NETTY + " or " + LambdaTransport.FUNCTION_URL + " transport, responses will be buffered");
+		}
+		Trace.info("Claim Check: " + (claimCheck != null ? claimCheck : "disabled"));
+		Trace.info("Payload Compression: " + (compression != null ? compression.getEncoding() : "disabled"));
+		Trace.info("Response Size Policy: " + (responseSpill != null ? responseSpill : "on heap, no limit"));
+		Trace.info("Event Deduplication: " + (deduplicator != null ? deduplicator + (dedupKey.getLiteral() != null && !dedupKey.getLiteral().isEmpty() ? ", key " + dedupKey.getLiteral() : ", payload digest") : "disabled"));
+		Trace.info("Response Projection: " + (responseProjection != null ? responseProjection : "not configured"));
+		Trace.info("Span Exporter: " + (spanSink != null ? spanSink + (!traceContextField.isEmpty() ? ", trace context in payload field " + traceContextField : "") : "disabled"));
+		Trace.info("Capture: " + (capture != null ? capture : "disabled"));
+		Trace.info("Priority Lanes: " + (lanes != null ? lanes + (laneSelector.getLiteral().isEmpty() ? ", by invocation type" : ", selected by " + laneSelector.getLiteral()) : "disabled"));
+		
+		tuning.register();
+		Trace.info("Runtime Settings: " + tuning);
+		if (lanes != null) {
+			lanes.register(filterName != null && !filterName.isEmpty() ? filterName : getClass().getSimpleName());
+		}
+		
+		// Start the warm-up in the background, the filter is usable right away
+		this.warmer = createWarmer(entity);
+		Trace.info("Warm-up: " + (warmer != null ? warmer : "disabled"));
+		if (warmer != null) {
+			warmer.start();
+		}
+	}
+	
+	/**
+	 * Applies a new deduplication window (0 disables deduplication, negative restores the
+	 * configured window). The deduplicator is resized in place, so the invocations in flight
+	 * complete their reservations in the one used by the next invocations.
+	 */
+	private synchronized void applyDedupWindow(long windowMillis) {
+		long window = windowMillis >= 0 ? windowMillis : configuredDedupWindow;
+		if (window <= 0) {
+			this.deduplicator = null;
+			return;
+		}
+		if (dedupInstance == null) {
+			dedupInstance = new LambdaDeduplicator(window, dedupMaxEntries);
+		} else {
+			dedupInstance.setWindowMillis(window);
+		}
+		this.deduplicator = dedupInstance;
+	}
+	
+	/**
+	 * Creates the warmer from the warm-up fields. Returns null if warm-up is disabled.
+	 * The configured function and qualifier are used unless they are resolved per message.
+	 */
+	private LambdaWarmer createWarmer(Entity entity) {
+		int connections = (int) getDoubleValue(entity, "warmupConnections", 0);
+		long interval = (long) getDoubleValue(entity, "keepWarmInterval", 0);
+		if (connections <= 0 && interval <= 0) {
+			return null;
+		}
+		String function = functionName.getLiteral();
+		if (function != null && (function.contains("${") || function.trim().isEmpty())) {
+			function = null;
+		}
+		java.util.List<LambdaWarmer.Target> targets = LambdaWarmer.parseTargets(entity.getStringValue("keepWarmTargets"));
+		if (targets.isEmpty() && interval > 0 && function != null) {
+			String qualifierLiteral = qualifier.getLiteral();
+			boolean staticQualifier = qualifierLiteral != null && !qualifierLiteral.contains("${") && qualifierSplitter == null;
+			targets.add(new LambdaWarmer.Target(function, staticQualifier ? qualifierLiteral : null, 1));
+		}
+		if (transport instanceof FunctionUrlLambdaTransport) {
+			// The URL runs one function whatever the target: keep one target, naming the filter's function
+			java.util.List<LambdaWarmer.Target> kept = new java.util.ArrayList<>();
+			for (LambdaWarmer.Target target : targets) {
+				if (kept.isEmpty() && (function == null || function.equals(target.functionName))) {
+					kept.add(target);
+				} else {
+					Trace.error("Keep-warm target " + target + " ignored: the Function URL transport only invokes " +
+						((FunctionUrlLambdaTransport) transport).getUrl());
+				}
+			}
+			targets = kept;
+		}
+		java.util.List<String> regions = new java.util.ArrayList<>();
+		if (regionRouter != null) {
+			for (RegionRouter.RegionStats region : regionRouter.getRegions()) {
+				regions.add(region.getName());
+			}
+		} else {
+			String region = awsRegion.getLiteral();
+			regions.add(region != null && !region.contains("${") && !region.trim().isEmpty() ? region : null);
+		}
+		// With priority lanes, the invocations use the lane transports: warm those, sized to each lane
+		java.util.List<LambdaWarmer.Pool> pools = new java.util.ArrayList<>();
+		if (lanes != null) {
+			for (LambdaLanes.Lane lane : lanes.getLanes()) {
+				pools.add(new LambdaWarmer.Pool(lane.getTransport(), connections > 0 ? lane.getConnections() : 0));
+			}
+		} else {
+			pools.add(new LambdaWarmer.Pool(transport, connections));
+		}
+		LambdaWarmer created = new LambdaWarmer(pools, regions, function, targets, interval);
+		return created.isEnabled() ? created : null;
 	}
 
+	/**
+	 * Configures the processor without a filter entity, for {@link LambdaInvocationEngine}:
+	 * buffered responses, single region, no qualifier split, claim check, spill, projection or tracing.
+	 */
+	void configureEngine(AWSLambdaClientBuilder builder, LambdaTransport transport) {
+		this.lambdaClientBuilder = builder;
+		this.transport = transport;
+		this.responseMode = RESPONSE_MODE_BUFFERED;
+		this.payloadBodyEncoding = BODY_ENCODING_TEXT;
+		this.traceContextField = "";
+	}
+
+	@Override
+	public void filterDetached() {
+		super.filterDetached();
+		tuning.unregister();
+		if (warmer != null) {
+			warmer.close();
+		}
+		if (transport != null) {
+			transport.close();
+		}
+		if (claimCheck != null) {
+			claimCheck.shutdown();
+		}
+		if (responseSpill != null) {
+			responseSpill.close();
+		}
+		if (compression != null) {
+			Trace.info("Payload compression: " + compression);
+		}
+		if (bodyCache != null) {
+			Trace.info("lambda.body cache: " + bodyCache);
+		}
+		if (spanSink != null) {
+			spanSink.close();
+		}
+		if (capture != null) {
+			capture.close();
+		}
+		if (lanes != null) {
+			lanes.close();
+		}
+	}
+	
+	private static String literal(Selector<?> selector) {
+		return selector != null ? selector.getLiteral() : null;
+	}
+	
+	/**
+	 * Reads a numeric entity field, returning the default if it is missing or invalid
+	 */
+	private double getDoubleValue(Entity entity, String fieldName, double defaultValue) {
+		try {
+			String value = entity.getStringValue(fieldName);
+			if (value != null && !value.trim().isEmpty()) {
+				return Double.parseDouble(value.trim());
+			}
+		} catch (Exception e) {
+			Trace.error("Invalid value for " + fieldName + ", using " + defaultValue);
+		}
+		return defaultValue;
+	}
+	
 	/**
 	 * Creates Lambda client builder following S3 pattern exactly
 	 */
@@ -307,6 +657,107 @@ public class InvokeLambdaFunctionProcessor extends MessageProcessor {
 
 	@Override
 	public boolean invoke(Circuit arg0, Message msg) throws CircuitAbortException {
+		// Shed load above the runtime concurrency limit
+		if (!tuning.tryAcquire()) {
+			Trace.error("Lambda filter concurrency limit reached (" + tuning.getMaxConcurrency() + " invocations in flight)");
+			msg.put("aws.lambda.error", "Concurrency limit reached");
+			return false;
+		}
+		try {
+			return invokeRecorded(msg);
+		} finally {
+			tuning.release();
+		}
+	}
+	
+	/**
+	 * Runs {@link #invokeFunction(Message, LambdaTraceContext)} with the capture record and the
+	 * trace of the message
+	 */
+	protected boolean invokeRecorded(Message msg) throws CircuitAbortException {
+		// Describe the mapping inputs before the payload build consumes them
+		LambdaCapture.Record record = capture != null ? capture.sample(msg) : null;
+		long start = System.nanoTime();
+		if (record != null) {
+			msg.put("aws.lambda.capture", record);
+		}
+		try {
+			if (spanSink == null) {
+				return invokeFunction(msg, null);
+			}
+			
+			// Continue the caller's trace; the phases record themselves into it
+			LambdaTraceContext trace = LambdaTraceContext.start(getIncomingTraceparent(msg));
+			msg.put("aws.lambda.trace", trace);
+			msg.put("aws.lambda.trace.id", trace.getTraceId());
+			boolean result = false;
+			try {
+				result = invokeFunction(msg, trace);
+				return result;
+			} finally {
+				msg.remove("aws.lambda.trace");
+				exportTrace(msg, trace, result);
+			}
+		} finally {
+			if (record != null) {
+				msg.remove("aws.lambda.capture");
+				Object status = msg.get("aws.lambda.http.status.code");
+				record.finished(System.nanoTime() - start, status instanceof Integer ? (Integer) status : 0);
+				capture.submit(record);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the priority lane name of an invocation: the lane selector, or by default
+	 * "sync" for RequestResponse invocations and "async" for the others
+	 */
+	private String selectLane(Message msg, LambdaInvocation invocation) {
+		String lane = laneSelector.substitute(msg);
+		if (lane != null && !lane.trim().isEmpty()) {
+			return lane;
+		}
+		return "RequestResponse".equals(invocation.getInvocationType()) ? "sync" : "async";
+	}
+	
+	/**
+	 * Returns the traceparent header of the incoming request, if any
+	 */
+	private static String getIncomingTraceparent(Message msg) {
+		Object headers = msg.get("http.headers");
+		if (headers instanceof com.vordel.mime.HeaderSet) {
+			return ((com.vordel.mime.HeaderSet) headers).getHeader(LambdaTraceContext.TRACEPARENT_HEADER);
+		}
+		return null;
+	}
+	
+	/**
+	 * Records the root span of the filter and hands the spans of the trace to the exporter
+	 */
+	private void exportTrace(Message msg, LambdaTraceContext trace, boolean result) {
+		if (!trace.isSampled()) {
+			return;
+		}
+		java.util.List<LambdaSpan> spans = trace.finish("lambda.filter", LambdaSpan.KIND_SERVER);
+		LambdaSpan root = spans.get(spans.size() - 1);
+		root.attribute("faas.invoked_name", msg.get("aws.lambda.function.name"))
+			.attribute("aws.region", msg.get("aws.lambda.region"))
+			.attribute("http.status_code", msg.get("aws.lambda.http.status.code"));
+		if (!result) {
+			Object error = msg.get("aws.lambda.error");
+			root.error(error != null ? error.toString() : "filter failed");
+		}
+		try {
+			spanSink.export(spans);
+		} catch (RuntimeException e) {
+			Trace.error("Could not export Lambda spans: " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Invokes the function for a message, recording the phases into the trace when there is one
+	 */
+	protected boolean invokeFunction(Message msg, LambdaTraceContext trace) throws CircuitAbortException {
 		
 		if (lambdaClientBuilder == null) {
 			Trace.error("Invoke Lambda Function client builder was not configured");
@@ -316,12 +767,321 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 		
 		// Get dynamic values using selectors (following S3 pattern)
 		String functionNameValue = functionName.substitute(msg);
+		String qualifierValue = qualifier.substitute(msg);
+		Integer memorySizeValue = memorySize.substitute(msg);
+		if (memorySizeValue == null) {
+			memorySizeValue = 128; // Default 128 MB
+		}
+		
+		LambdaInvocation invocation = prepareInvocation(msg, functionNameValue, qualifierValue, true).withTrace(trace);
+		Boolean prepared = prepareSend(msg, invocation, trace);
+		if (prepared != null) {
+			return prepared;
+		}
+		Trace.info("Memory Size: " + memorySizeValue + " MB");
+		
+		Trace.info("Invoking Lambda function with retry...");
+		
+		// Debug IRSA during actual invocation
+		Trace.info("=== IRSA Debug During Invoke ===");
+		Trace.info("AWS_WEB_IDENTITY_TOKEN_FILE: " + System.getenv("AWS_WEB_IDENTITY_TOKEN_FILE"));
+		Trace.info("AWS_ROLE_ARN: " + System.getenv("AWS_ROLE_ARN"));
+		Trace.info("AWS_REGION: " + System.getenv("AWS_REGION"));
+		
+		// Stream the response into content.body when configured and possible
+		if (RESPONSE_MODE_STREAM.equals(responseMode) && transport.supportsStreaming()) {
+			if ("RequestResponse".equals(invocation.getInvocationType())) {
+				return invokeStreaming(msg, invocation, functionNameValue, memorySizeValue);
+			}
+			Trace.debug("Response streaming only applies to RequestResponse invocations");
+		}
+		
+		LambdaCapture.Record record = (LambdaCapture.Record) msg.get("aws.lambda.capture");
+		boolean delivered = false;
+		try {
+			long phaseStart = System.nanoTime();
+			InvokeResult invokeResult = executeInvocation(invocation);
+			msg.putAll(invocation.getAttributes());
+			delivered = invokeResult.getStatusCode() != null && invokeResult.getStatusCode() / 100 == 2;
+			if (record != null) {
+				record.invoked(System.nanoTime() - phaseStart, invokeResult.getPayload() != null ? invokeResult.getPayload().limit() : 0);
+			}
+			
+			// Process response
+			phaseStart = System.nanoTime();
+			boolean processed = processInvokeResult(invokeResult, msg, functionNameValue, memorySizeValue);
+			if (trace != null) {
+				trace.span("response.process", phaseStart, System.nanoTime())
+					.attribute("response.size", invokeResult.getPayload() != null ? invokeResult.getPayload().limit() : 0);
+			}
+			return processed;
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			Trace.error("Thread interrupted during retry");
+			msg.putAll(invocation.getAttributes());
+			return false;
+		} catch (LambdaInvocationException e) {
+			msg.putAll(invocation.getAttributes());
+			msg.put("aws.lambda.error", e.getMessage());
+			return false;
+		} finally {
+			invocation.completeDeduplication(delivered);
+		}
+	}
+	
+	/**
+	 * Prepares the sending of an invocation, for every filter that sends one: deadline check,
+	 * priority lane, payload build, deduplication of Event invocations, trace context and
+	 * compression. Returns null when the invocation is to be sent, or the filter result when it
+	 * is not (a duplicate, or an error set in aws.lambda.error). A deduplication key reserved
+	 * here must be released with {@link LambdaInvocation#completeDeduplication(boolean)}.
+	 */
+	protected Boolean prepareSend(Message msg, LambdaInvocation invocation, LambdaTraceContext trace) {
+		return prepareSend(msg, invocation, null, trace);
+	}
+	
+	/**
+	 * Prepares the sending of an invocation with a payload of its own (null to build the
+	 * configured payload of the filter)
+	 */
+	protected Boolean prepareSend(Message msg, LambdaInvocation invocation, byte[] builtPayload, LambdaTraceContext trace) {
+		// Nobody waits for the result of an invocation past its deadline: do not send it
+		if (invocation.hasDeadline() && invocation.getRemainingMillis() <= 0) {
+			msg.put("aws.lambda.deadline.exceeded", true);
+			msg.put("aws.lambda.error", "Deadline exceeded before the invocation");
+			return false;
+		}
+		if (lanes != null) {
+			invocation.withLane(lanes.get(selectLane(msg, invocation)));
+		}
+		
+		long phaseStart = System.nanoTime();
+		byte[] payload = builtPayload != null ? builtPayload : resolvePayload(msg);
+		long buildEnd = System.nanoTime();
+		invocation.withPayload(payload);
+		LambdaCapture.Record record = (LambdaCapture.Record) msg.get("aws.lambda.capture");
+		if (record != null) {
+			record.payloadBuilt(invocation.getFunctionName(), invocation.getInvocationType(), buildEnd - phaseStart, payload.length);
+		}
+		
+		// Suppress Event invocations repeated within the deduplication window
+		// The key is reserved until the invoke is over: kept if it succeeded, released otherwise
+		LambdaDeduplicator deduplicator = this.deduplicator;
+		if (deduplicator != null && "Event".equals(invocation.getInvocationType())) {
+			String key = dedupKey.substitute(msg);
+			byte[] digest = LambdaDeduplicator.digest(invocation.getFunctionName(),
+				key != null && !key.isEmpty() ? key.getBytes(java.nio.charset.StandardCharsets.UTF_8) : payload);
+			boolean duplicate = deduplicator.isDuplicate(digest);
+			if (!duplicate) {
+				invocation.withDedupReservation(deduplicator, digest);
+			}
+			msg.put("aws.lambda.deduplicated", duplicate);
+			msg.put("aws.lambda.dedup.suppressed", deduplicator.getSuppressedCount());
+			if (duplicate) {
+				Trace.info("Duplicate Event invocation of " + invocation.getFunctionName() + " suppressed (" + 
+					deduplicator.getSuppressedCount() + " suppressed of " + deduplicator.getCheckedCount() + ")");
+				msg.put("aws.lambda.http.status.code", 202);
+				return true;
+			}
+		}
+		
+		// The trace context is unique per message: inject it after the deduplication digest
+		if (trace != null) {
+			long injectStart = System.nanoTime();
+			if (!traceContextField.isEmpty()) {
+				payload = injectTraceContext(payload, trace.traceparent(trace.getRootSpanId()));
+				invocation.withPayload(payload);
+			}
+			trace.span("payload.build", phaseStart, buildEnd + (System.nanoTime() - injectStart)).attribute("payload.size", payload.length);
+		}
+		
+		Trace.info("=== Lambda Invocation Details ===");
+		Trace.info("Function Name: " + invocation.getFunctionName());
+		Trace.info("Regions: " + invocation.getRegions());
+		Trace.info("Invocation Type: " + invocation.getInvocationType());
+		Trace.info("Log Type: " + invocation.getLogType());
+		Trace.info("Payload length: " + payload.length + " bytes");
+		Trace.info("=== Payload that will be sent to Lambda ===");
+		Trace.info(new String(payload, 0, Math.min(payload.length, 64 * 1024), java.nio.charset.StandardCharsets.UTF_8) +
+			(payload.length > 64 * 1024 ? "... (truncated)" : ""));
+		Trace.info("=== End of Payload ===");
+		
+		// Compress a large payload into the envelope, after the payload log and the deduplication digest
+		if (compression != null) {
+			long compressStart = System.nanoTime();
+			try {
+				compression.compress(invocation);
+			} catch (java.io.IOException e) {
+				Trace.error("Failed to compress the payload: " + e.getMessage());
+				msg.put("aws.lambda.error", "Failed to compress the payload: " + e.getMessage());
+				invocation.completeDeduplication(false);
+				return false;
+			}
+			if (trace != null && invocation.getAttributes().get("aws.lambda.compression.size") != null) {
+				trace.span("payload.compress", compressStart, System.nanoTime())
+					.attribute("payload.size", invocation.getPayload().length);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the task running a prepared invocation off the message thread. Once the task is
+	 * done or cancelled, the concurrency slot of the invocation and its deduplication
+	 * reservation are released.
+	 */
+	protected java.util.concurrent.FutureTask<InvokeResult> newInvocationTask(LambdaInvocation invocation) {
+		return new java.util.concurrent.FutureTask<InvokeResult>(() -> executeInvocation(invocation)) {
+			@Override
+			protected void done() {
+				boolean delivered = false;
+				if (!isCancelled()) {
+					try {
+						Integer statusCode = get().getStatusCode();
+						delivered = statusCode != null && statusCode / 100 == 2;
+					} catch (Exception e) {
+						// Failed invocation, not delivered
+					}
+				}
+				invocation.completeDeduplication(delivered);
+				tuning.release();
+			}
+		};
+	}
+	
+	/**
+	 * Invokes with response streaming and sets content.body to a stream fed by the response chunks.
+	 * Attributes known only at the end of the stream (log result, function error, bytes)
+	 * are set when the gateway has read the whole body.
+	 */
+	private boolean invokeStreaming(Message msg, LambdaInvocation invocation, String functionNameValue, Integer memorySizeValue) {
+		LambdaResponseStream stream;
+		try {
+			stream = executeStreamingInvocation(invocation, streamBufferChunks);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			Trace.error("Thread interrupted during retry");
+			msg.putAll(invocation.getAttributes());
+			return false;
+		} catch (LambdaInvocationException e) {
+			msg.putAll(invocation.getAttributes());
+			msg.put("aws.lambda.error", e.getMessage());
+			return false;
+		}
+		msg.putAll(invocation.getAttributes());
+		
+		int statusCode = stream.getStatusCode() != null ? stream.getStatusCode() : 200;
+		Trace.info("=== Lambda Response Stream ===");
+		Trace.info("Status Code: " + statusCode);
+		Trace.info("Executed Version: " + stream.getExecutedVersion());
+		Trace.info("Content Type: " + stream.getContentType());
+		
+		msg.put("aws.lambda.http.status.code", statusCode);
+		msg.put("aws.lambda.executed.version", stream.getExecutedVersion());
+		msg.put("aws.lambda.memory.size", memorySizeValue);
+		msg.put("aws.lambda.streaming", true);
+		
+		if (statusCode >= 400) {
+			stream.close();
+			Trace.error("HTTP error in Lambda invocation: " + statusCode);
+			msg.put("aws.lambda.error", "HTTP Error: " + statusCode);
+			return false;
+		}
+		
+		stream.setCompletionListener(completed -> {
+			msg.put("aws.lambda.stream.bytes", completed.getBytesRead());
+			if (completed.getLogResult() != null) {
+				msg.put("aws.lambda.log.result", completed.getLogResult());
+				publishReportTelemetry(completed.getLogResult(), msg, functionNameValue, memorySizeValue);
+			}
+			if (completed.getErrorCode() != null) {
+				Trace.error("Lambda function error while streaming: " + completed.getErrorCode() + ": " + completed.getErrorDetails());
+				msg.put("aws.lambda.error", completed.getErrorCode() + (completed.getErrorDetails() != null ? ": " + completed.getErrorDetails() : ""));
+				msg.put("aws.lambda.function.error", completed.getErrorCode());
+			} else if (completed.getFailure() != null) {
+				Trace.error("Lambda response stream failed: " + completed.getFailure().getMessage());
+				msg.put("aws.lambda.error", "Stream failed: " + completed.getFailure().getMessage());
+			} else {
+				Trace.info("Lambda response stream completed: " + completed.getBytesRead() + " bytes");
+			}
+		});
+		
+		String contentType = stream.getContentType() != null ? stream.getContentType() : "application/octet-stream";
+		try {
+			com.vordel.mime.HeaderSet headers = new com.vordel.mime.HeaderSet();
+			headers.addHeader("Content-Type", contentType);
+			msg.put("content.body", com.vordel.mime.Body.create(headers, 
+				new com.vordel.mime.ContentType(com.vordel.mime.ContentType.Authority.MIME, contentType), stream));
+		} catch (Exception e) {
+			stream.close();
+			Trace.error("Error creating streamed response body: " + e.getMessage(), e);
+			msg.put("aws.lambda.error", "Error creating streamed response body: " + e.getMessage());
+			return false;
+		}
+		Trace.info("Lambda response is streamed into content.body");
+		return true;
+	}
+	
+	/**
+	 * Adds the traceparent to a JSON object payload, as the first field of the object.
+	 * Other payloads are returned unchanged.
+	 */
+	private byte[] injectTraceContext(byte[] payload, String traceparent) {
+		int start = 0;
+		while (start < payload.length && Character.isWhitespace(payload[start])) {
+			start++;
+		}
+		if (start == payload.length || payload[start] != '{') {
+			Trace.debug("Payload is not a JSON object, trace context not added to " + traceContextField);
+			return payload;
+		}
+		int next = start + 1;
+		while (next < payload.length && Character.isWhitespace(payload[next])) {
+			next++;
+		}
+		boolean empty = next < payload.length && payload[next] == '}';
+		com.fasterxml.jackson.core.io.JsonStringEncoder encoder = com.fasterxml.jackson.core.io.JsonStringEncoder.getInstance();
+		byte[] field = ("\"" + new String(encoder.quoteAsString(traceContextField)) + "\":\"" + traceparent + "\"" + (empty ? "" : ","))
+			.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+		byte[] result = new byte[payload.length + field.length];
+		System.arraycopy(payload, 0, result, 0, start + 1);
+		System.arraycopy(field, 0, result, start + 1, field.length);
+		System.arraycopy(payload, start + 1, result, start + 1 + field.length, payload.length - start - 1);
+		return result;
+	}
+	
+	/**
+	 * Builds the payload of the invocation, falling back to content.body and then to an empty JSON object
+	 */
+	protected byte[] resolvePayload(Message msg) {
+		// Build payload based on configuration
+		Trace.info("=== Building Lambda Payload ===");
+		byte[] payload = buildConfigurablePayload(msg);
+		if (payload == null || payload.length == 0) {
+			// Fallback to original body if no configuration
+			Trace.info("Payload from buildConfigurablePayload is null or empty, using fallback");
+			String body = contentBody.substitute(msg);
+			if (body == null || body.trim().isEmpty()) {
+				body = "{}";
+				Trace.info("Using empty JSON payload: {}");
+			} else {
+				Trace.info("Using content.body as payload (length: " + body.length() + ")");
+			}
+			payload = body.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+		}
+		return payload;
+	}
+	
+	/**
+	 * Resolves the invocation settings of the filter for one message (everything but the payload)
+	 * 
+	 * @param useQualifierSplit whether the configured weighted qualifier split applies
+	 */
+	protected LambdaInvocation prepareInvocation(Message msg, String functionNameValue, String qualifierValue, boolean useQualifierSplit) {
 		String regionValue = awsRegion.substitute(msg);
 		String invocationTypeValue = invocationType.substitute(msg);
 		String logTypeValue = logType.substitute(msg);
-		String qualifierValue = qualifier.substitute(msg);
 		Integer retryDelayValue = retryDelay.substitute(msg);
-		Integer memorySizeValue = memorySize.substitute(msg);
 		String credentialTypeValue = credentialType.substitute(msg);
 		Boolean useIAMRoleValue = useIAMRole.substitute(msg);
 		String credentialsFilePathValue = credentialsFilePath.substitute(msg);
@@ -333,7 +1093,6 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 		Trace.info("Log Type: " + logTypeValue);
 		Trace.info("Qualifier: " + qualifierValue);
 		Trace.info("Retry Delay: " + retryDelayValue);
-		Trace.info("Memory Size: " + memorySizeValue);
 		Trace.info("Credential Type: " + credentialTypeValue);
 		Trace.info("Use IAM Role: " + useIAMRoleValue);
 		Trace.info("Credentials File Path: " + credentialsFilePathValue);
@@ -348,139 +1107,399 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 		if (retryDelayValue == null) {
 			retryDelayValue = 1000;
 		}
-		if (credentialTypeValue == null || credentialTypeValue.trim().isEmpty()) {
-			credentialTypeValue = "local";
-		}
-		// Determine IAM Role usage based on credential type
-		useIAMRoleValue = "iam".equals(credentialTypeValue);
-		if (memorySizeValue == null) {
-			memorySizeValue = 128; // Default 128 MB
+		
+		// Pick the qualifier from the weighted split, sticky by key when configured
+		QualifierSplitter.Target qualifierTarget = null;
+		if (useQualifierSplit && qualifierSplitter != null) {
+			String stickyKey = qualifierStickyKey != null ? qualifierStickyKey.substitute(msg) : null;
+			qualifierTarget = qualifierSplitter.select(stickyKey);
+			qualifierValue = qualifierTarget.getName();
+			msg.put("aws.lambda.qualifier", qualifierValue);
+			Trace.info("Qualifier selected from split: " + qualifierValue + (stickyKey != null && !stickyKey.isEmpty() ? " (sticky)" : ""));
 		}
 		
-		// Build payload based on configuration
-		Trace.info("=== Building Lambda Payload ===");
-		String payload = buildConfigurablePayload(msg);
-		if (payload == null || payload.trim().isEmpty()) {
-			// Fallback to original body if no configuration
-			Trace.info("Payload from buildConfigurablePayload is null or empty, using fallback");
-			payload = contentBody.substitute(msg);
-			if (payload == null || payload.trim().isEmpty()) {
-				payload = "{}";
-				Trace.info("Using empty JSON payload: {}");
-			} else {
-				Trace.info("Using content.body as payload (length: " + payload.length() + ")");
+		// Request the log tail only for the sampled fraction of invocations
+		if ("Tail".equals(logTypeValue)) {
+			boolean sampled = isTailSampled(msg);
+			msg.put("aws.lambda.tail.sampled", sampled);
+			if (!sampled) {
+				logTypeValue = "None";
+				Trace.debug("Invocation not sampled for Tail logs, using Log Type None");
 			}
 		}
 		
-		Trace.info("=== Lambda Invocation Details ===");
-		Trace.info("Function Name: " + functionNameValue);
-		Trace.info("Region: " + regionValue);
-		Trace.info("Invocation Type: " + invocationTypeValue);
-		Trace.info("Log Type: " + logTypeValue);
-		Trace.info("Using IAM Role: " + useIAMRoleValue);
-		Trace.info("Memory Size: " + memorySizeValue + " MB");
-		Trace.info("Payload length: " + payload.length() + " characters");
-		Trace.info("=== Payload that will be sent to Lambda ===");
-		Trace.info(payload);
-		Trace.info("=== End of Payload ===");
+		// Get maxRetries from clientConfiguration (default 3)
+		int maxRetriesValue = 3; // Default value
 		
-		Trace.info("Invoking Lambda function with retry...");
+		// Regions to try: the routed region list when configured, otherwise the single awsRegion
+		java.util.List<String> regionCandidates = regionRouter != null ? regionRouter.candidates() : java.util.Collections.singletonList(regionValue);
+		Integer crossRegionRetriesValue = crossRegionRetries != null ? crossRegionRetries.substitute(msg) : null;
 		
-		// Debug IRSA during actual invocation
-		Trace.info("=== IRSA Debug During Invoke ===");
-		Trace.info("AWS_WEB_IDENTITY_TOKEN_FILE: " + System.getenv("AWS_WEB_IDENTITY_TOKEN_FILE"));
-		Trace.info("AWS_ROLE_ARN: " + System.getenv("AWS_ROLE_ARN"));
-		Trace.info("AWS_REGION: " + System.getenv("AWS_REGION"));
+		long timeBudget = resolveTimeBudget(msg);
+		if (timeBudget > 0) {
+			Trace.info("Invocation time budget: " + timeBudget + "ms");
+		}
+		
+		LambdaInvocation invocation = new LambdaInvocation()
+			.withFunctionName(functionNameValue)
+			.withQualifier(qualifierValue)
+			.withQualifierTarget(qualifierTarget)
+			.withInvocationType(invocationTypeValue)
+			.withLogType(logTypeValue)
+			.withRegions(regionCandidates)
+			.withMaxRetries(maxRetriesValue)
+			.withRetryDelay(retryDelayValue)
+			.withCrossRegionRetries(crossRegionRetriesValue != null ? Math.max(0, crossRegionRetriesValue) : 0)
+			.withTimeBudget(timeBudget);
+		return timeBudget < 0 ? invocation.withExpiredDeadline() : invocation;
+	}
+	
+	/**
+	 * Resolves the time budget (ms) of one invocation: the smaller of invocationTimeout and the
+	 * deadline found in deadlineAttribute. Returns 0 when neither is set, and -1 when the
+	 * deadline has already passed.
+	 * 
+	 * The deadline attribute may hold an absolute deadline (epoch milliseconds or a Date) or a
+	 * remaining budget in milliseconds (numbers below 10^12).
+	 */
+	private long resolveTimeBudget(Message msg) {
+		long budget = 0;
+		Integer timeoutValue = invocationTimeout != null ? invocationTimeout.substitute(msg) : null;
+		timeoutValue = tuning.current().get(LambdaTuning.INVOCATION_TIMEOUT, timeoutValue != null ? timeoutValue : 0);
+		if (timeoutValue != null && timeoutValue > 0) {
+			budget = timeoutValue;
+		}
+		if (deadlineAttribute != null && !deadlineAttribute.isEmpty()) {
+			Object value = msg.get(deadlineAttribute);
+			long deadline = -1;
+			if (value instanceof java.util.Date) {
+				deadline = ((java.util.Date) value).getTime();
+			} else if (value instanceof Number) {
+				deadline = ((Number) value).longValue();
+			} else if (value != null) {
+				try {
+					deadline = Long.parseLong(value.toString().trim());
+				} catch (NumberFormatException e) {
+					Trace.error("Invalid deadline in " + deadlineAttribute + ": " + value);
+				}
+			}
+			if (deadline >= 0) {
+				long remaining = deadline >= 1_000_000_000_000L ? deadline - System.currentTimeMillis() : deadline;
+				if (remaining <= 0) {
+					Trace.error("Deadline in " + deadlineAttribute + " passed " + -remaining + "ms ago");
+					return -1;
+				}
+				budget = budget > 0 ? Math.min(budget, remaining) : remaining;
+			}
+		}
+		return budget;
+	}
+	
+	/**
+	 * Builds the base64 ClientContext passing the deadline and the trace context to the function
+	 * (context.clientContext.custom)
+	 * 
+	 * @param traceparent W3C traceparent of the invoke attempt, null without trace
+	 */
+	private static String buildClientContext(LambdaInvocation invocation, long remainingMillis, String traceparent) {
+		StringBuilder json = new StringBuilder("{\"custom\":{");
+		if (invocation.hasDeadline()) {
+			json.append("\"deadline\":\"").append(invocation.getDeadlineEpochMillis())
+				.append("\",\"remainingTimeMs\":\"").append(remainingMillis).append('"');
+		}
+		if (traceparent != null) {
+			json.append(invocation.hasDeadline() ? "," : "").append("\"traceparent\":\"").append(traceparent).append('"');
+		}
+		json.append("}}");
+		return java.util.Base64.getEncoder().encodeToString(json.toString().getBytes(java.nio.charset.StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Runs the retry and region failover loop of one invocation.
+	 * 
+	 * This method does not access the message, so it can run on any thread.
+	 * Outcome attributes (region used, failover count) are added to the invocation.
+	 * Invocations assigned to a priority lane run on a lane thread, with the lane transport.
+	 */
+	protected InvokeResult executeInvocation(LambdaInvocation invocation) throws LambdaInvocationException, InterruptedException {
+		LambdaLanes.Lane lane = invocation.getLane();
+		if (lane != null) {
+			return lane.execute(() -> executeInvocation(invocation, lane.getTransport()), invocation.getAttributes());
+		}
+		return executeInvocation(invocation, transport);
+	}
+	
+	private InvokeResult executeInvocation(LambdaInvocation invocation, LambdaTransport transport) throws LambdaInvocationException, InterruptedException {
+		InvokeResult result = executeWithRetries(invocation, transport::invoke, r -> r);
+		if (claimCheck != null && result.getFunctionError() == null) {
+			try {
+				result = claimCheck.resolve(result);
+			} catch (Exception e) {
+				throw new LambdaInvocationException("Failed to resolve claim-check response: " + e.getMessage(), e);
+			}
+		}
+		// Only responses to a compressed request may be envelopes, others are never inflated
+		if (compression != null && result.getFunctionError() == null && invocation.getAttributes().get("aws.lambda.compression.size") != null) {
+			try {
+				result = compression.decompress(result);
+			} catch (Exception e) {
+				throw new LambdaInvocationException("Failed to decompress the compressed response: " + e.getMessage(), e);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Runs the retry and region failover loop of a streamed invocation (InvokeWithResponseStream).
+	 * Retries stop once the initial response is received; the body is then read from the stream.
+	 */
+	protected LambdaResponseStream executeStreamingInvocation(LambdaInvocation invocation, int bufferChunks) throws LambdaInvocationException, InterruptedException {
+		// The stream is read by the gateway thread: only the connections of the lane are used
+		LambdaTransport transport = invocation.getLane() != null ? invocation.getLane().getTransport() : this.transport;
+		return executeWithRetries(invocation, (region, request) -> transport.invokeStreaming(region, request, bufferChunks),
+			stream -> new InvokeResult().withStatusCode(stream.getStatusCode()).withExecutedVersion(stream.getExecutedVersion()));
+	}
+	
+	/**
+	 * Sends one attempt of an invocation to a region
+	 */
+	protected interface InvokeCall<T> {
+		T call(String region, InvokeRequest request) throws Exception;
+	}
+	
+	/**
+	 * Retry and failover loop shared by buffered and streamed invocations
+	 * 
+	 * @param outcome extracts status, function error and executed version for the routing statistics
+	 */
+	private <T> T executeWithRetries(LambdaInvocation invocation, InvokeCall<T> call, java.util.function.Function<T, InvokeResult> outcome) 
+			throws LambdaInvocationException, InterruptedException {
+		// Offload a large payload once, before the first attempt; retries send the same pointer
+		if (claimCheck != null && invocation.getAttributes().get("aws.lambda.claim.check.key") == null) {
+			try {
+				claimCheck.offload(invocation);
+			} catch (Exception e) {
+				throw new LambdaInvocationException("Failed to offload payload to s3://" + claimCheck.getBucket() + ": " + e.getMessage(), e);
+			}
+		}
 		
 		Exception lastException = null;
+		int attempts = 0;
+		boolean deadlineReached = false;
 		
-		// Get maxRetries from clientConfiguration (default 3)
-		int maxRetriesValue = 3; // Default value
+		LambdaTuning.Settings settings = tuning.current();
+		int maxRetriesValue = settings.get(LambdaTuning.MAX_RETRIES, invocation.getMaxRetries());
+		int retryDelayValue = settings.get(LambdaTuning.RETRY_DELAY, invocation.getRetryDelay());
+		QualifierSplitter.Target qualifierTarget = invocation.getQualifierTarget();
+		LambdaTraceContext trace = invocation.getTrace();
+		java.util.List<String> regionCandidates = invocation.getRegions();
+		int regionAttempts = Math.min(regionCandidates.size(), 1 + invocation.getCrossRegionRetries());
+		if (regionRouter != null) {
+			Trace.info("Region candidates (" + regionRouter.getMode() + "): " + regionCandidates + ", cross-region attempts: " + regionAttempts);
+		}
 		
-		for (int attempt = 1; attempt <= maxRetriesValue; attempt++) {
-			try {
-				Trace.info("Attempt " + attempt + " of " + maxRetriesValue);
-				
-				// Create Lambda client with region (following S3 pattern)
-				AWSLambda lambdaClient = lambdaClientBuilder.withRegion(regionValue).build();
-				
-				// Create request
-				Trace.info("=== Creating Lambda Invoke Request ===");
-				InvokeRequest invokeRequest = new InvokeRequest()
-					.withFunctionName(functionNameValue)
-					.withPayload(ByteBuffer.wrap(payload.getBytes()))
-					.withInvocationType(invocationTypeValue)
-					.withLogType(logTypeValue);
-				
-				// Add qualifier if specified
-				if (qualifierValue != null && !qualifierValue.trim().isEmpty()) {
-					invokeRequest.setQualifier(qualifierValue);
-					Trace.info("Using qualifier: " + qualifierValue);
+		regions:
+		for (int regionIndex = 0; regionIndex < regionAttempts; regionIndex++) {
+			String targetRegion = regionCandidates.get(regionIndex);
+			// Only the last region decides whether the failure is reported as a deadline error
+			deadlineReached = false;
+			if (regionIndex > 0) {
+				Trace.info("Failing over to region " + targetRegion + " (cross-region retry " + regionIndex + " of " + (regionAttempts - 1) + ")");
+				invocation.getAttributes().put("aws.lambda.failover.count", regionIndex);
+			}
+			
+			for (int attempt = 1; attempt <= maxRetriesValue; attempt++) {
+				long remaining = invocation.getRemainingMillis();
+				if (remaining <= 0 || (attempts > 0 && remaining < MIN_ATTEMPT_MILLIS)) {
+					Trace.error("Deadline reached, no time left for attempt " + attempt + " in region " + targetRegion);
+					deadlineReached = true;
+					break regions;
 				}
-				
-				Trace.info("InvokeRequest created successfully");
-				Trace.info("Payload bytes: " + payload.getBytes().length + " bytes");
-				
-				// Invoke Lambda function
-				Trace.info("=== Invoking Lambda Function ===");
-				InvokeResult invokeResult = lambdaClient.invoke(invokeRequest);
-				Trace.info("Lambda function invoked successfully");
-				
-				// Process response
-				return processInvokeResult(invokeResult, msg, memorySizeValue);
-				
-			} catch (Exception e) {
-				lastException = e;
-				Trace.error("Attempt " + attempt + " failed: " + e.getMessage());
-				
-				// Debug the specific error for IRSA issues
-				if (e.getMessage().contains("AccessDeniedException")) {
-					Trace.error("=== Access Denied Debug ===");
-					Trace.error("Error message: " + e.getMessage());
+				attempts++;
+				long attemptStart = System.nanoTime();
+				String attemptSpanId = trace != null ? trace.newSpanId() : null;
+				try {
+					Trace.info("Attempt " + attempt + " of " + maxRetriesValue + " in region " + targetRegion);
 					
-					// Check if it's still using node group role
-					if (e.getMessage().contains("axway-first-ng-role")) {
-						Trace.error("❌ Still using node group role instead of ServiceAccount");
-						Trace.error("This indicates IRSA is not properly configured");
-					} else if (e.getMessage().contains("axway-lambda-role")) {
-						Trace.error("✅ Using ServiceAccount role but permission denied");
-						Trace.error("This indicates IRSA is working but role lacks permissions");
+					// Create request
+					Trace.info("=== Creating Lambda Invoke Request ===");
+					InvokeRequest invokeRequest = new InvokeRequest()
+						.withFunctionName(invocation.getFunctionName())
+						.withPayload(ByteBuffer.wrap(invocation.getPayload()))
+						.withInvocationType(invocation.getInvocationType())
+						.withLogType(invocation.getLogType());
+					
+					// Add qualifier if specified
+					String qualifierValue = invocation.getQualifier();
+					if (qualifierValue != null && !qualifierValue.trim().isEmpty()) {
+						invokeRequest.setQualifier(qualifierValue);
+						Trace.info("Using qualifier: " + qualifierValue);
 					}
-				}
-				
-				// If not the last attempt, wait before retrying
-				if (attempt < maxRetriesValue) {
-					Trace.info("Waiting " + retryDelayValue + "ms before next attempt...");
-					try {
+					
+					// Trim the attempt to the remaining budget and pass the deadline to the function
+					if (invocation.hasDeadline()) {
+						invokeRequest.setSdkClientExecutionTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+						Trace.info("Remaining time budget: " + remaining + "ms");
+					}
+					// Pass the trace context with the attempt as parent, and time the SDK phases of the attempt
+					if (trace != null) {
+						invokeRequest.setRequestMetricCollector(new SdkV1SpanCollector(trace, attemptSpanId));
+					}
+					if (invocation.hasDeadline() || trace != null) {
+						invokeRequest.setClientContext(buildClientContext(invocation, remaining, 
+							trace != null ? trace.traceparent(attemptSpanId) : null));
+					}
+					
+					Trace.info("InvokeRequest created successfully");
+					Trace.info("Payload bytes: " + invocation.getPayload().length + " bytes");
+					
+					// Invoke Lambda function
+					Trace.info("=== Invoking Lambda Function ===");
+					T response = call.call(targetRegion, invokeRequest);
+					InvokeResult invokeResult = outcome.apply(response);
+					Trace.info("Lambda function invoked successfully");
+					long elapsed = System.nanoTime() - attemptStart;
+					if (regionRouter != null) {
+						regionRouter.recordSuccess(targetRegion, elapsed);
+					}
+					if (qualifierTarget != null) {
+						boolean failed = invokeResult.getFunctionError() != null || 
+							(invokeResult.getStatusCode() != null && invokeResult.getStatusCode() >= 400);
+						qualifierSplitter.record(qualifierTarget, invokeResult.getExecutedVersion(), elapsed, failed);
+					}
+					invocation.getAttributes().put("aws.lambda.region", targetRegion);
+					if (trace != null) {
+						LambdaSpan span = trace.span(attemptSpanId, trace.getRootSpanId(), "lambda.invoke", LambdaSpan.KIND_CLIENT, attemptStart, System.nanoTime())
+							.attribute("faas.invoked_name", invocation.getFunctionName())
+							.attribute("aws.region", targetRegion)
+							.attribute("attempt", attempts)
+							.attribute("http.status_code", invokeResult.getStatusCode())
+							.attribute("faas.executed_version", invokeResult.getExecutedVersion());
+						if (invokeResult.getFunctionError() != null) {
+							span.error(invokeResult.getFunctionError());
+						}
+					}
+					return response;
+					
+				} catch (Exception e) {
+					lastException = e;
+					if (trace != null) {
+						trace.span(attemptSpanId, trace.getRootSpanId(), "lambda.invoke", LambdaSpan.KIND_CLIENT, attemptStart, System.nanoTime())
+							.attribute("faas.invoked_name", invocation.getFunctionName())
+							.attribute("aws.region", targetRegion)
+							.attribute("attempt", attempts)
+							.error(String.valueOf(e.getMessage()));
+					}
+					if (regionRouter != null) {
+						regionRouter.recordFailure(targetRegion, System.nanoTime() - attemptStart);
+					}
+					if (qualifierTarget != null) {
+						qualifierSplitter.record(qualifierTarget, null, System.nanoTime() - attemptStart, true);
+					}
+					String errorMessage = String.valueOf(e.getMessage());
+					Trace.error("Attempt " + attempt + " failed: " + errorMessage);
+					
+					// Debug the specific error for IRSA issues
+					if (errorMessage.contains("AccessDeniedException")) {
+						Trace.error("=== Access Denied Debug ===");
+						Trace.error("Error message: " + errorMessage);
+						
+						// Check if it's still using node group role
+						if (errorMessage.contains("axway-first-ng-role")) {
+							Trace.error("❌ Still using node group role instead of ServiceAccount");
+							Trace.error("This indicates IRSA is not properly configured");
+						} else if (errorMessage.contains("axway-lambda-role")) {
+							Trace.error("✅ Using ServiceAccount role but permission denied");
+							Trace.error("This indicates IRSA is working but role lacks permissions");
+						}
+					}
+					
+					// Runtime overrides changed while in flight apply from the next attempt
+					settings = tuning.current();
+					maxRetriesValue = settings.get(LambdaTuning.MAX_RETRIES, invocation.getMaxRetries());
+					retryDelayValue = settings.get(LambdaTuning.RETRY_DELAY, invocation.getRetryDelay());
+					
+					// If not the last attempt, wait before retrying (unless the deadline can't be met)
+					if (attempt < maxRetriesValue) {
+						long left = invocation.getRemainingMillis();
+						if (left - retryDelayValue < MIN_ATTEMPT_MILLIS) {
+							Trace.error("Skipping retries in " + targetRegion + ": " + left + "ms left, retry delay is " + retryDelayValue + "ms");
+							deadlineReached = true;
+							continue regions;
+						}
+						Trace.info("Waiting " + retryDelayValue + "ms before next attempt...");
 						Thread.sleep(retryDelayValue);
-					} catch (InterruptedException ie) {
-						Thread.currentThread().interrupt();
-						Trace.error("Thread interrupted during retry");
-						return false;
 					}
 				}
 			}
 		}
 		
-		// If reached here, all attempts failed
-		Trace.error("All " + maxRetriesValue + " attempts failed");
-		msg.put("aws.lambda.error", "Failure after " + maxRetriesValue + " attempts: " + 
-			(lastException != null ? lastException.getMessage() : "Unknown error"));
-		return false;
+		// If reached here, all attempts failed or the deadline was reached
+		if (deadlineReached) {
+			invocation.getAttributes().put("aws.lambda.deadline.exceeded", true);
+			throw new LambdaInvocationException("Deadline exceeded after " + attempts + " attempt(s): " + 
+				(lastException != null ? lastException.getMessage() : "no time left to invoke"), lastException);
+		}
+		Trace.error("All " + maxRetriesValue + " attempts failed" + (regionAttempts > 1 ? " in " + regionAttempts + " regions" : ""));
+		if (regionRouter != null) {
+			Trace.debug("Region statistics: " + regionRouter);
+		}
+		throw new LambdaInvocationException("Failure after " + maxRetriesValue + " attempts" + (regionAttempts > 1 ? " in " + regionAttempts + " regions" : "") + ": " + 
+			(lastException != null ? lastException.getMessage() : "Unknown error"), lastException);
 	}
 	
 	/**
 	 * Processes the result of the Lambda invocation
 	 */
-	private boolean processInvokeResult(InvokeResult invokeResult, Message msg, Integer memorySizeValue) {
+	protected boolean processInvokeResult(InvokeResult invokeResult, Message msg, String functionNameValue, Integer memorySizeValue) {
 		try {
-			String response = new String(invokeResult.getPayload().array(), "UTF-8");
+			// Proxy mapping only applies to successful synchronous responses (Event returns no payload)
+			boolean proxy = RESPONSE_MODE_PROXY.equals(responseMode) && invokeResult.getFunctionError() == null &&
+				invokeResult.getPayload() != null && invokeResult.getPayload().hasRemaining();
 			int statusCode = invokeResult.getStatusCode();
 			
 			// === Lambda Response ===
 			Trace.info("=== Lambda Response ===");
 			Trace.info("Status Code: " + statusCode);
-			Trace.info("Response: " + response);
+			if (!proxy && responseSpill != null) {
+				int responseSize = invokeResult.getPayload() != null ? invokeResult.getPayload().remaining() : 0;
+				msg.put("aws.lambda.response.size", responseSize);
+				if (!responseSpill.acquire(responseSize)) {
+					Trace.error("Response memory limit reached, rejecting response of " + responseSize + " bytes (" + 
+						responseSpill.getInFlightBytes() + " bytes in flight)");
+					msg.put("aws.lambda.error", "Response memory limit exceeded");
+					return false;
+				}
+				if (responseSpill.shouldSpill(responseSize)) {
+					// Large response: served from a memory-mapped file, bytes are released once the body is read
+					java.io.InputStream spilled;
+					try {
+						spilled = responseSpill.spill(invokeResult.getPayload());
+					} catch (Exception e) {
+						responseSpill.release(responseSize);
+						throw e;
+					}
+					com.vordel.mime.HeaderSet headers = new com.vordel.mime.HeaderSet();
+					headers.addHeader("Content-Type", "application/json");
+					msg.put("content.body", com.vordel.mime.Body.create(headers,
+						new com.vordel.mime.ContentType(com.vordel.mime.ContentType.Authority.MIME, "application/json"), spilled));
+					msg.put("aws.lambda.response.spilled", true);
+					Trace.info("Response of " + responseSize + " bytes spilled to a memory-mapped file, available in content.body");
+				} else {
+					try {
+						String response = new String(invokeResult.getPayload().array(), "UTF-8");
+						Trace.info("Response: " + forTrace(response));
+						msg.put("aws.lambda.response", response);
+						msg.put("aws.lambda.response.spilled", false);
+					} finally {
+						responseSpill.release(responseSize);
+					}
+				}
+			} else if (!proxy) {
+				String response = new String(invokeResult.getPayload().array(), "UTF-8");
+				Trace.info("Response: " + forTrace(response));
+				msg.put("aws.lambda.response", response);
+			}
 			Trace.info("Executed Version: " + invokeResult.getExecutedVersion());
 			
 			if (invokeResult.getLogResult() != null) {
@@ -488,12 +1507,27 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 			}
 			
 			// Store results
-			msg.put("aws.lambda.response", response);
 			msg.put("aws.lambda.http.status.code", statusCode);
 			msg.put("aws.lambda.executed.version", invokeResult.getExecutedVersion());
 			msg.put("aws.lambda.log.result", invokeResult.getLogResult());
 			msg.put("aws.lambda.memory.size", memorySizeValue);
 			
+			// Copy the configured response fields in one streaming pass
+			if (responseProjection != null && invokeResult.getPayload() != null && invokeResult.getPayload().hasRemaining()) {
+				try {
+					java.util.Map<String, Object> projected = responseProjection.project(invokeResult.getPayload());
+					msg.putAll(projected);
+					Trace.info("Projected " + projected.size() + " response fields: " + projected.keySet());
+				} catch (Exception e) {
+					Trace.error("Could not project Lambda response (not JSON?): " + e.getMessage());
+				}
+			}
+			
+			// Publish cold start, billing and memory telemetry from the REPORT line
+			if (invokeResult.getLogResult() != null) {
+				publishReportTelemetry(invokeResult.getLogResult(), msg, functionNameValue, memorySizeValue);
+			}
+			
 			// Check Lambda function error
 			if (invokeResult.getFunctionError() != null) {
 				Trace.error("Lambda function error: " + invokeResult.getFunctionError());
@@ -509,6 +1543,10 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 				return false;
 			}
 			
+			if (proxy) {
+				applyProxyResponse(LambdaProxyResponse.parse(invokeResult.getPayload()), msg);
+			}
+			
 			Trace.info("Lambda invocation successful");
 			return true;
 			
@@ -519,6 +1557,89 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 		}
 	}
 	
+	/**
+	 * Cuts a response to 64K characters for the trace, like the payload log
+	 */
+	private static String forTrace(String response) {
+		return response.length() > 64 * 1024 ? response.substring(0, 64 * 1024) + "... (truncated)" : response;
+	}
+	
+	/**
+	 * Sets the HTTP response of the message from an API Gateway proxy-format response:
+	 * http.response.status, http.headers and content.body
+	 */
+	private void applyProxyResponse(LambdaProxyResponse proxyResponse, Message msg) throws Exception {
+		com.vordel.mime.HeaderSet headers = new com.vordel.mime.HeaderSet();
+		for (java.util.Map.Entry<String, java.util.List<String>> header : proxyResponse.getHeaders().entrySet()) {
+			for (String value : header.getValue()) {
+				headers.addHeader(header.getKey(), value);
+			}
+		}
+		String contentType = proxyResponse.getHeader("Content-Type");
+		if (contentType == null) {
+			contentType = proxyResponse.isBase64Encoded() ? "application/octet-stream" : "application/json";
+			headers.addHeader("Content-Type", contentType);
+		}
+		
+		Trace.info("=== Lambda Proxy Response ===");
+		Trace.info("HTTP Status: " + proxyResponse.getStatusCode());
+		Trace.info("Headers: " + proxyResponse.getHeaders().keySet());
+		Trace.info("Body: " + proxyResponse.getBody().length + " bytes" + (proxyResponse.isBase64Encoded() ? " (base64 decoded)" : ""));
+		
+		msg.put("http.response.status", proxyResponse.getStatusCode());
+		msg.put("http.headers", headers);
+		msg.put("content.body", com.vordel.mime.Body.create(headers,
+			new com.vordel.mime.ContentType(com.vordel.mime.ContentType.Authority.MIME, contentType),
+			new java.io.ByteArrayInputStream(proxyResponse.getBody())));
+		msg.put("aws.lambda.proxy.status.code", proxyResponse.getStatusCode());
+	}
+	
+	/**
+	 * Decides whether this invocation requests the log tail, based on tailSampleRate (0-100)
+	 */
+	private boolean isTailSampled(Message msg) {
+		Integer rate = tailSampleRate != null ? tailSampleRate.substitute(msg) : null;
+		rate = tuning.current().get(LambdaTuning.TAIL_SAMPLE_RATE, rate != null ? rate : 100);
+		if (rate == null || rate >= 100) {
+			return true;
+		}
+		if (rate <= 0) {
+			return false;
+		}
+		return java.util.concurrent.ThreadLocalRandom.current().nextInt(100) < rate;
+	}
+	
+	/**
+	 * Parses the REPORT line of the log tail and publishes it as message attributes
+	 * and per-function histograms
+	 */
+	private void publishReportTelemetry(String logResult, Message msg, String functionNameValue, Integer memorySizeValue) {
+		LambdaTailLogParser.Report report = LambdaTailLogParser.parse(logResult);
+		if (report == null) {
+			Trace.debug("No REPORT line found in Lambda log tail");
+			return;
+		}
+		int headroom = report.memoryHeadroomMb(memorySizeValue != null ? memorySizeValue : -1);
+		
+		msg.put("aws.lambda.cold.start", report.isColdStart());
+		msg.put("aws.lambda.duration.ms", report.durationMs);
+		msg.put("aws.lambda.billed.duration.ms", report.billedDurationMs);
+		msg.put("aws.lambda.max.memory.used", report.maxMemoryUsedMb);
+		msg.put("aws.lambda.memory.headroom", headroom);
+		if (report.isColdStart()) {
+			msg.put("aws.lambda.init.duration.ms", report.initDurationMs);
+		}
+		
+		LambdaMetrics metrics = functionMetrics.forFunction(functionNameValue);
+		metrics.record(report, headroom);
+		
+		Trace.info("=== Lambda Report ===");
+		Trace.info("Cold Start: " + report.isColdStart() + (report.isColdStart() ? " (init " + report.initDurationMs + " ms)" : ""));
+		Trace.info("Duration: " + report.durationMs + " ms, Billed: " + report.billedDurationMs + " ms");
+		Trace.info("Max Memory Used: " + report.maxMemoryUsedMb + " MB, Headroom: " + headroom + " MB");
+		Trace.debug("Function telemetry: " + metrics);
+	}
+	
 	/**
 	 * Gets Content-Type from message headers
 	 */
@@ -583,10 +1704,18 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 	/**
 	 * Builds configurable Lambda payload based on field configuration
 	 * Only includes fields that have non-empty field names configured
+	 * Returns the UTF-8 JSON bytes of the payload
 	 */
-	private String buildConfigurablePayload(Message msg) {
+	protected byte[] buildConfigurablePayload(Message msg) {
 		try {
 			Trace.info("=== Starting buildConfigurablePayload ===");
+			
+			// A compiled template writes the payload directly, without the field mapping
+			if (payloadTemplate != null) {
+				byte[] rendered = payloadTemplate.render(msg);
+				Trace.info("Payload rendered from template (" + rendered.length + " bytes, " + payloadTemplate.getExpressionCount() + " expressions)");
+				return rendered;
+			}
 			java.util.Map<String, Object> payload = new java.util.HashMap<>();
 			
 			// Check if lambda.body exists and use it as initial payload base
@@ -598,9 +1727,8 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 				if (lambdaBodyStr != null && !lambdaBodyStr.trim().isEmpty()) {
 					Trace.debug("lambda.body preview: " + lambdaBodyStr.substring(0, Math.min(200, lambdaBodyStr.length())));
 					try {
-						com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-						@SuppressWarnings("unchecked")
-						java.util.Map<String, Object> lambdaBodyMap = mapper.readValue(lambdaBodyStr, java.util.Map.class);
+						// Cached documents are frozen: nested maps are copied by setNestedValue before being written
+						java.util.Map<String, Object> lambdaBodyMap = parseLambdaBody(lambdaBodyStr);
 						if (lambdaBodyMap != null && !lambdaBodyMap.isEmpty()) {
 							payload.putAll(lambdaBodyMap);
 							Trace.info("✅ Using lambda.body as initial payload base with " + lambdaBodyMap.size() + " entries");
@@ -680,8 +1808,22 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 					}
 				}
 				
-				String body = extractOriginalBody(msg);
-				if (body != null && !body.trim().isEmpty()) {
+				// Binary bodies are kept as bytes and base64-encoded during serialization
+				long extractStart = System.nanoTime();
+				byte[] binaryBody = isBase64Body(msg) ? extractOriginalBodyBytes(msg) : null;
+				String body = binaryBody == null ? extractOriginalBody(msg) : null;
+				Object trace = msg.get("aws.lambda.trace");
+				if (trace instanceof LambdaTraceContext) {
+					((LambdaTraceContext) trace).span("body.extract", extractStart, System.nanoTime())
+						.attribute("body.size", binaryBody != null ? binaryBody.length : body != null ? body.length() : 0);
+				}
+				if (binaryBody != null && binaryBody.length > 0) {
+					String bodyPath = bodyFieldName.trim();
+					int lastDot = bodyPath.lastIndexOf('.');
+					setNestedValue(payload, bodyPath, new LambdaBase64Body(binaryBody));
+					setNestedValue(payload, (lastDot >= 0 ? bodyPath.substring(0, lastDot + 1) : "") + "isBase64Encoded", Boolean.TRUE);
+					Trace.info("Body added as base64 (" + binaryBody.length + " bytes, isBase64Encoded=true)");
+				} else if (body != null && !body.trim().isEmpty()) {
 					Trace.info("Body extracted successfully");
 					Trace.info("Body length: " + body.length());
 					Trace.info("Body preview (first 500 chars): " + body.substring(0, Math.min(500, body.length())));
@@ -878,11 +2020,19 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 			
 			// Serialize to JSON
 			com.fasterxml.jackson.databind.ObjectMapper mapper = new com.fasterxml.jackson.databind.ObjectMapper();
-			String payloadJson = mapper.writeValueAsString(payload);
+			byte[] payloadBytes = mapper.writeValueAsBytes(payload);
 			
 			Trace.info("=== Payload Serialization ===");
 			Trace.info("✅ Configurable payload built successfully");
-			Trace.info("Payload JSON length: " + payloadJson.length() + " characters");
+			Trace.info("Payload JSON length: " + payloadBytes.length + " bytes");
+			
+			// Do not decode a base64 body back into a String for tracing
+			if (bodyFieldNameForCheck != null && getNestedValue(payload, bodyFieldNameForCheck.trim()) instanceof LambdaBase64Body) {
+				Trace.info("Payload contains a base64 body, showing first 2000 bytes:");
+				Trace.info(new String(payloadBytes, 0, Math.min(2000, payloadBytes.length), java.nio.charset.StandardCharsets.UTF_8));
+				return payloadBytes;
+			}
+			String payloadJson = new String(payloadBytes, java.nio.charset.StandardCharsets.UTF_8);
 			
 			// Show full JSON payload (important for debugging)
 			Trace.info("=== Complete Payload JSON (What will be sent to Lambda) ===");
@@ -906,11 +2056,11 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 				Trace.info(payloadJson.substring(0, Math.min(2000, payloadJson.length())));
 			}
 			
-			return payloadJson;
+			return payloadBytes;
 			
 		} catch (Exception e) {
 			Trace.error("Error building configurable payload: " + e.getMessage(), e);
-			return "{}";
+			return "{}".getBytes(java.nio.charset.StandardCharsets.UTF_8);
 		}
 	}
 	
@@ -973,6 +2123,51 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 		return queryMap;
 	}
 	
+	/**
+	 * Decides whether the request body is sent base64-encoded, based on payloadBodyEncoding
+	 * and, in auto mode, on the Content-Type of the request
+	 */
+	private boolean isBase64Body(Message msg) {
+		if (BODY_ENCODING_BASE64.equals(payloadBodyEncoding)) {
+			return true;
+		}
+		if (!BODY_ENCODING_AUTO.equals(payloadBodyEncoding)) {
+			return false;
+		}
+		Object bodyObj = msg.get("content.body");
+		if (bodyObj != null && bodyObj.getClass().getName().contains("JSONBody")) {
+			return false;
+		}
+		String contentType = getContentType(msg);
+		if (contentType == null) {
+			return false;
+		}
+		String type = contentType.toLowerCase();
+		return !(type.startsWith("text/") || type.contains("json") || type.contains("xml") ||
+			type.contains("javascript") || type.contains("x-www-form-urlencoded"));
+	}
+	
+	/**
+	 * Extracts the raw bytes of the request body, without character decoding.
+	 * Returns null if the body cannot be written.
+	 */
+	private byte[] extractOriginalBodyBytes(Message msg) {
+		Object bodyObj = msg.get("content.body");
+		if (bodyObj == null || !bodyObj.getClass().getName().contains("vordel.mime.Body")) {
+			Trace.debug("No content.body found or not a Body instance");
+			return null;
+		}
+		try {
+			java.io.ByteArrayOutputStream os = new java.io.ByteArrayOutputStream();
+			java.lang.reflect.Method writeMethod = bodyObj.getClass().getMethod("write", java.io.OutputStream.class, int.class);
+			writeMethod.invoke(bodyObj, os, 0);
+			return os.toByteArray();
+		} catch (Exception e) {
+			Trace.debug("Could not extract raw body bytes: " + e.getMessage());
+			return null;
+		}
+	}
+	
 	/**
 	 * Extracts original request body from message as string (following TraceProcessor pattern)
 	 */
@@ -1119,14 +2314,23 @@ msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not confi
 		java.util.Map<String, Object> currentMap = map;
 		
 		for (int i = 0; i < keys.length - 1; i++) {
-			String currentKey = keys[i];
-			if (!currentMap.containsKey(currentKey)) {
-				currentMap.put(currentKey, new java.util.HashMap<String, Object>());
-			}
-			currentMap = (java.util.Map<String, Object>) currentMap.get(currentKey);
+			// Maps merged from a cached lambda.body are copied on write
+			currentMap = LambdaDocumentCache.mutable(currentMap, keys[i]);
 		}
 		currentMap.put(keys[keys.length - 1], value);
 	}
+	
+	/**
+	 * Parses lambda.body into a map, through the document cache when enabled
+	 */
+	@SuppressWarnings("unchecked")
+	private java.util.Map<String, Object> parseLambdaBody(String lambdaBody) throws java.io.IOException {
+		LambdaDocumentCache cache = this.bodyCache;
+		if (cache != null) {
+			return cache.parse(lambdaBody);
+		}
+		return new com.fasterxml.jackson.databind.ObjectMapper().readValue(lambdaBody, java.util.Map.class);
+	}
 
 }
 
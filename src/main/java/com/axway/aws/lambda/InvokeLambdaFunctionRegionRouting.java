@@ -0,0 +1,20 @@
+package com.axway.aws.lambda;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Region routing modes of the Invoke Lambda Function
+ */
+public class InvokeLambdaFunctionRegionRouting {
+    
+    public static Map<String, String> regionRouting;
+    
+    static {
+        Map<String, String> init = new HashMap<>();
+        init.put(RegionRouter.MODE_LATENCY, "Lowest latency");
+        init.put(RegionRouter.MODE_ORDERED, "Ordered failover");
+        regionRouting = Collections.unmodifiableMap(init);
+    }
+}
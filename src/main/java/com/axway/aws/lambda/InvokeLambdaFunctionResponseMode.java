@@ -0,0 +1,21 @@
+package com.axway.aws.lambda;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Response modes of the Invoke Lambda Function
+ */
+public class InvokeLambdaFunctionResponseMode {
+    
+    public static Map<String, String> responseMode;
+    
+    static {
+        Map<String, String> init = new HashMap<>();
+        init.put(InvokeLambdaFunctionProcessor.RESPONSE_MODE_BUFFERED, "Buffered (aws.lambda.response)");
+        init.put(InvokeLambdaFunctionProcessor.RESPONSE_MODE_STREAM, "Streamed (content.body)");
+        init.put(InvokeLambdaFunctionProcessor.RESPONSE_MODE_PROXY, "API Gateway proxy (HTTP status, headers and body)");
+        responseMode = Collections.unmodifiableMap(init);
+    }
+}
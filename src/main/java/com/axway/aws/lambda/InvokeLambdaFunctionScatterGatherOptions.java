@@ -0,0 +1,27 @@
+package com.axway.aws.lambda;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Merge modes and failure policies of the Scatter-Gather Lambda filter
+ */
+public class InvokeLambdaFunctionScatterGatherOptions {
+    
+    public static Map<String, String> mergeMode;
+    public static Map<String, String> failurePolicy;
+    
+    static {
+        Map<String, String> modes = new HashMap<>();
+        modes.put(ScatterGatherLambdaProcessor.MERGE_DOCUMENT, "Single JSON document");
+        modes.put(ScatterGatherLambdaProcessor.MERGE_ATTRIBUTES, "Separate attributes");
+        mergeMode = Collections.unmodifiableMap(modes);
+        
+        Map<String, String> policies = new HashMap<>();
+        policies.put(ScatterGatherLambdaProcessor.POLICY_REQUIRE_ALL, "Fail if any target fails");
+        policies.put(ScatterGatherLambdaProcessor.POLICY_REQUIRE_ANY, "Fail only if all targets fail");
+        policies.put(ScatterGatherLambdaProcessor.POLICY_IGNORE_FAILURES, "Never fail");
+        failurePolicy = Collections.unmodifiableMap(policies);
+    }
+}
@@ -0,0 +1,22 @@
+package com.axway.aws.lambda;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Span exporters of the Invoke Lambda Function
+ */
+public class InvokeLambdaFunctionSpanExporter {
+    
+    public static Map<String, String> spanExporter;
+    
+    static {
+        Map<String, String> init = new HashMap<>();
+        init.put(LambdaSpanSink.NONE, "None");
+        init.put(LambdaSpanSink.TRACE, "Gateway trace");
+        init.put(LambdaSpanSink.FILE, "JSON lines file");
+        init.put(LambdaSpanSink.OTLP, "OpenTelemetry collector (OTLP/HTTP)");
+        spanExporter = Collections.unmodifiableMap(init);
+    }
+}
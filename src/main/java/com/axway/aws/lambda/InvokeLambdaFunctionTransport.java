@@ -0,0 +1,21 @@
+package com.axway.aws.lambda;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * HTTP transports of the Invoke Lambda Function
+ */
+public class InvokeLambdaFunctionTransport {
+    
+    public static Map<String, String> transport;
+    
+    static {
+        Map<String, String> init = new HashMap<>();
+        init.put(LambdaTransport.SDK_V1, "AWS SDK v1 (Apache HTTP, blocking)");
+        init.put(LambdaTransport.SDK_V2_NETTY, "AWS SDK v2 (Netty, async)");
+        init.put(LambdaTransport.FUNCTION_URL, "Function URL (SigV4, pooled HTTP)");
+        transport = Collections.unmodifiableMap(init);
+    }
+}
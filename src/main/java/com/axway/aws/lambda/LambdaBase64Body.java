@@ -0,0 +1,42 @@
+package com.axway.aws.lambda;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+/**
+ * Raw body bytes placed in the payload map. Serialized as a base64 string
+ * encoded by the JSON generator straight into its output buffer, so the
+ * encoded body never exists as a separate String.
+ */
+public final class LambdaBase64Body implements JsonSerializable {
+
+	private final byte[] data;
+
+	public LambdaBase64Body(byte[] data) {
+		this.data = data;
+	}
+
+	public int length() {
+		return data.length;
+	}
+
+	@Override
+	public void serialize(JsonGenerator gen, SerializerProvider serializers) throws IOException {
+		gen.writeBinary(Base64Variants.MIME_NO_LINEFEEDS, data, 0, data.length);
+	}
+
+	@Override
+	public void serializeWithType(JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer) throws IOException {
+		serialize(gen, serializers);
+	}
+
+	@Override
+	public String toString() {
+		return "<" + data.length + " bytes, base64>";
+	}
+}
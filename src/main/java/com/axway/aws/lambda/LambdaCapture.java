@@ -0,0 +1,742 @@
+package com.axway.aws.lambda;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.vordel.circuit.Message;
+import com.vordel.mime.HeaderSet;
+import com.vordel.mime.QueryStringHeaderSet;
+import com.vordel.trace.Trace;
+
+/**
+ * Records a sampled, redacted description of invocations for {@link LambdaReplay}.
+ *
+ * A record keeps the shape of the payload mapping inputs, not their content:
+ * header, query and path parameter names with the length of their values, the
+ * request URI with letters and digits masked, and JSON bodies with their field
+ * names and structure but string values reduced to their length and digits
+ * replaced. Other bodies, and JSON bodies above 64 KB, keep their content type
+ * and size only. Payload build and invoke timings, payload and response sizes
+ * and the status are added once the invocation is done.
+ *
+ * The message thread only takes the names, lengths and the body prefix; bodies
+ * are redacted by a daemon thread that appends the records to a binary log, in
+ * completion order. Records are dropped when the queue is full. Each time the
+ * log is opened, a header with the payload mapping of the filter is written
+ * first.
+ */
+public final class LambdaCapture {
+
+	static final int MAGIC = 0x4c434150; // "LCAP"
+	static final int VERSION = 1;
+	static final byte BLOCK_MAPPING = 'M';
+	static final byte BLOCK_RECORD = 'R';
+
+	static final byte BODY_NONE = 0;
+	static final byte BODY_JSON = 1;
+	static final byte BODY_OPAQUE = 2;
+
+	private static final JsonFactory JSON = new JsonFactory();
+	private static final int QUEUE_CAPACITY = 4096;
+	private static final int MAX_SHAPE_SIZE = 64 * 1024;
+
+	private final Path file;
+	private final int sampleRate;
+	private final Mapping mapping;
+	private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean closed;
+	private Thread worker;
+
+	private LambdaCapture(Path file, int sampleRate, Mapping mapping) {
+		this.file = file;
+		this.sampleRate = sampleRate;
+		this.mapping = mapping;
+	}
+
+	/**
+	 * Creates a capture writing to a file. Returns null if no file is configured or the rate is 0.
+	 *
+	 * @param sampleRate percentage of invocations recorded (0-100)
+	 */
+	public static LambdaCapture create(String file, int sampleRate, Mapping mapping) {
+		if (file == null || file.trim().isEmpty() || sampleRate <= 0) {
+			return null;
+		}
+		LambdaCapture capture = new LambdaCapture(Paths.get(file.trim()), Math.min(100, sampleRate), mapping);
+		capture.worker = LambdaExecutors.daemonThreadFactory("lambda-capture").newThread(capture::run);
+		capture.worker.start();
+		return capture;
+	}
+
+	/**
+	 * Returns a record of the message inputs if the invocation is sampled, null otherwise
+	 */
+	public Record sample(Message msg) {
+		if (closed || (sampleRate < 100 && ThreadLocalRandom.current().nextInt(100) >= sampleRate)) {
+			return null;
+		}
+		try {
+			return Record.capture(msg);
+		} catch (Exception e) {
+			Trace.debug("Invocation not captured: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Queues a completed record for writing
+	 */
+	public void submit(Record record) {
+		if (closed || !queue.offer(record)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	private void run() {
+		List<Record> batch = new ArrayList<>();
+		try (DataOutputStream out = open()) {
+			while (!closed || !queue.isEmpty()) {
+				Record first;
+				try {
+					first = queue.poll(1, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch);
+				for (Record record : batch) {
+					record.redact();
+					writeBlock(out, BLOCK_RECORD, record::write);
+				}
+				out.flush();
+				written.addAndGet(batch.size());
+				batch.clear();
+			}
+		} catch (IOException e) {
+			Trace.error("Lambda capture to " + file + " stopped: " + e.getMessage());
+			closed = true;
+		}
+	}
+
+	private DataOutputStream open() throws IOException {
+		boolean empty = !Files.exists(file) || Files.size(file) == 0;
+		if (file.getParent() != null) {
+			Files.createDirectories(file.getParent());
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+			Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE), 64 * 1024));
+		if (empty) {
+			out.writeInt(MAGIC);
+			out.writeShort(VERSION);
+		}
+		writeBlock(out, BLOCK_MAPPING, mapping::write);
+		out.flush();
+		return out;
+	}
+
+	private interface BlockWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	/**
+	 * Writes a length-prefixed block, so readers can skip blocks they do not know
+	 */
+	private static void writeBlock(DataOutputStream out, byte type, BlockWriter writer) throws IOException {
+		ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+		writer.write(new DataOutputStream(block));
+		out.writeByte(type);
+		writeVarInt(out, block.size());
+		block.writeTo(out);
+	}
+
+	public void close() {
+		closed = true;
+		if (worker != null) {
+			try {
+				worker.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Trace.info("Lambda capture " + file + ": " + written.get() + " invocations recorded, " + dropped.get() + " dropped");
+	}
+
+	@Override
+	public String toString() {
+		return file + " (" + sampleRate + "% of invocations)";
+	}
+
+	// === Encoding ===
+
+	static void writeVarInt(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarInt(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			writeVarInt(out, 0);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length + 1L);
+		out.write(bytes);
+	}
+
+	static String readString(DataInputStream in) throws IOException {
+		int length = (int) readVarInt(in);
+		if (length == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length - 1];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Masks letters and digits, keeping separators and the length
+	 */
+	static String mask(String value) {
+		if (value == null) {
+			return null;
+		}
+		char[] chars = value.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			if (Character.isLetter(chars[i])) {
+				chars[i] = 'x';
+			} else if (Character.isDigit(chars[i])) {
+				chars[i] = '0';
+			}
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Reduces a JSON document to its shape: strings become "" (their lengths are returned
+	 * in document order) and digits of numbers become 1. Returns null if the text is not JSON.
+	 */
+	static String redactJson(String json, List<Integer> stringLengths) {
+		StringWriter shape = new StringWriter(json.length() / 2);
+		try (JsonParser parser = JSON.createParser(json); JsonGenerator gen = JSON.createGenerator(shape)) {
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				switch (token) {
+					case VALUE_STRING:
+						stringLengths.add(parser.getTextLength());
+						gen.writeString("");
+						break;
+					case VALUE_NUMBER_INT:
+					case VALUE_NUMBER_FLOAT:
+						gen.writeNumber(parser.getText().replaceAll("[0-9]", "1"));
+						break;
+					default:
+						gen.copyCurrentEvent(parser);
+				}
+			}
+		} catch (IOException e) {
+			stringLengths.clear();
+			return null;
+		}
+		return shape.toString();
+	}
+
+	/**
+	 * Rebuilds a JSON document from its shape, with strings of 'x' of the recorded lengths
+	 */
+	static String restoreJson(String shape, int[] stringLengths) throws IOException {
+		StringWriter json = new StringWriter(shape.length() * 2);
+		int next = 0;
+		try (JsonParser parser = JSON.createParser(shape); JsonGenerator gen = JSON.createGenerator(json)) {
+			JsonToken token;
+			while ((token = parser.nextToken()) != null) {
+				if (token == JsonToken.VALUE_STRING) {
+					gen.writeString(filler(next < stringLengths.length ? stringLengths[next++] : 0));
+				} else {
+					gen.copyCurrentEvent(parser);
+				}
+			}
+		}
+		return json.toString();
+	}
+
+	static String filler(int length) {
+		char[] chars = new char[length];
+		java.util.Arrays.fill(chars, 'x');
+		return new String(chars);
+	}
+
+	/**
+	 * Payload mapping configuration of the capturing filter (selector literals)
+	 */
+	public static final class Mapping {
+		final String[] fields;
+		final String bodyEncoding;
+		final String template;
+
+		/**
+		 * @param fields method, headers, body, URI, query string and path parameter field names
+		 */
+		public Mapping(String[] fields, String bodyEncoding, String template) {
+			this.fields = fields;
+			this.bodyEncoding = bodyEncoding;
+			this.template = template;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			writeVarInt(out, fields.length);
+			for (String field : fields) {
+				writeString(out, field);
+			}
+			writeString(out, bodyEncoding);
+			writeString(out, template);
+		}
+
+		static Mapping read(DataInputStream in) throws IOException {
+			String[] fields = new String[(int) readVarInt(in)];
+			for (int i = 0; i < fields.length; i++) {
+				fields[i] = readString(in);
+			}
+			return new Mapping(fields, readString(in), readString(in));
+		}
+	}
+
+	/**
+	 * Redacted description of one invocation
+	 */
+	public static final class Record {
+		long timestamp;
+		String verb;
+		String uri;
+		String contentType;
+		final List<String> headerNames = new ArrayList<>();
+		final List<Integer> headerLengths = new ArrayList<>();
+		final List<String> queryNames = new ArrayList<>();
+		final List<int[]> queryLengths = new ArrayList<>();
+		final List<String> pathNames = new ArrayList<>();
+		final List<Integer> pathLengths = new ArrayList<>();
+		final Shape body = new Shape();
+		final Shape lambdaBody = new Shape();
+		Mapping mapping;
+
+		String functionName;
+		String invocationType;
+		long buildNanos;
+		long invokeNanos;
+		long totalNanos;
+		int payloadSize;
+		int responseSize;
+		int statusCode;
+
+		static Record capture(Message msg) throws IOException {
+			Record record = new Record();
+			record.timestamp = System.currentTimeMillis();
+			record.verb = msg.get("http.request.verb") != null ? msg.get("http.request.verb").toString() : null;
+			record.uri = msg.get("http.request.uri") != null ? mask(msg.get("http.request.uri").toString()) : null;
+
+			Object headers = msg.get("http.headers");
+			if (headers instanceof HeaderSet) {
+				HeaderSet headerSet = (HeaderSet) headers;
+				Iterator<String> names = headerSet.getHeaderNames();
+				while (names != null && names.hasNext()) {
+					String name = names.next();
+					String value = headerSet.getHeader(name);
+					if ("Content-Type".equalsIgnoreCase(name)) {
+						record.contentType = value;
+					}
+					record.headerNames.add(name);
+					record.headerLengths.add(value != null ? value.length() : 0);
+				}
+			}
+
+			Object query = msg.get("http.querystring");
+			if (query instanceof QueryStringHeaderSet) {
+				QueryStringHeaderSet queryParams = (QueryStringHeaderSet) query;
+				Iterator<String> names = queryParams.getHeaderNames();
+				while (names != null && names.hasNext()) {
+					String name = names.next();
+					Object value = queryParams.get(name);
+					List<?> values = value instanceof List ? (List<?>) value : java.util.Collections.singletonList(value);
+					int[] lengths = new int[values.size()];
+					for (int i = 0; i < lengths.length; i++) {
+						lengths[i] = values.get(i) != null ? values.get(i).toString().length() : 0;
+					}
+					record.queryNames.add(name);
+					record.queryLengths.add(lengths);
+				}
+			}
+
+			Object pathParams = msg.get("params.path");
+			if (pathParams instanceof Map) {
+				for (Map.Entry<?, ?> param : ((Map<?, ?>) pathParams).entrySet()) {
+					record.pathNames.add(String.valueOf(param.getKey()));
+					record.pathLengths.add(param.getValue() != null ? param.getValue().toString().length() : 0);
+				}
+			}
+
+			Object content = msg.get("content.body");
+			if (content instanceof com.vordel.mime.Body) {
+				PrefixOutputStream os = new PrefixOutputStream(MAX_SHAPE_SIZE);
+				((com.vordel.mime.Body) content).write(os, 0);
+				boolean json = content.getClass().getName().contains("JSONBody") ||
+					(record.contentType != null && record.contentType.toLowerCase().contains("json"));
+				record.body.hold(os.toByteArray(), os.getCount(), json);
+			}
+			Object lambdaBody = msg.get("lambda.body");
+			if (lambdaBody instanceof String) {
+				record.lambdaBody.hold((String) lambdaBody);
+			}
+			return record;
+		}
+
+		/**
+		 * Reduces the held bodies to their shape, on the writer thread
+		 */
+		void redact() {
+			body.redact();
+			lambdaBody.redact();
+		}
+
+		/**
+		 * Records the payload build of the invocation
+		 */
+		public void payloadBuilt(String functionName, String invocationType, long buildNanos, int payloadSize) {
+			this.functionName = functionName;
+			this.invocationType = invocationType;
+			this.buildNanos = buildNanos;
+			this.payloadSize = payloadSize;
+		}
+
+		/**
+		 * Records the invoke (retries included) of the invocation
+		 */
+		public void invoked(long invokeNanos, int responseSize) {
+			this.invokeNanos = invokeNanos;
+			this.responseSize = responseSize;
+		}
+
+		/**
+		 * Records the outcome, once the filter is done
+		 */
+		public void finished(long totalNanos, int statusCode) {
+			this.totalNanos = totalNanos;
+			this.statusCode = statusCode;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(timestamp);
+			writeString(out, functionName);
+			writeString(out, invocationType);
+			writeString(out, verb);
+			writeString(out, uri);
+			writeString(out, contentType);
+			writeVarInt(out, headerNames.size());
+			for (int i = 0; i < headerNames.size(); i++) {
+				writeString(out, headerNames.get(i));
+				writeVarInt(out, headerLengths.get(i));
+			}
+			writeVarInt(out, queryNames.size());
+			for (int i = 0; i < queryNames.size(); i++) {
+				writeString(out, queryNames.get(i));
+				int[] lengths = queryLengths.get(i);
+				writeVarInt(out, lengths.length);
+				for (int length : lengths) {
+					writeVarInt(out, length);
+				}
+			}
+			writeVarInt(out, pathNames.size());
+			for (int i = 0; i < pathNames.size(); i++) {
+				writeString(out, pathNames.get(i));
+				writeVarInt(out, pathLengths.get(i));
+			}
+			body.write(out);
+			lambdaBody.write(out);
+			writeVarInt(out, buildNanos);
+			writeVarInt(out, invokeNanos);
+			writeVarInt(out, totalNanos);
+			writeVarInt(out, payloadSize);
+			writeVarInt(out, responseSize);
+			writeVarInt(out, Math.max(0, statusCode));
+		}
+
+		static Record read(DataInputStream in) throws IOException {
+			Record record = new Record();
+			record.timestamp = in.readLong();
+			record.functionName = readString(in);
+			record.invocationType = readString(in);
+			record.verb = readString(in);
+			record.uri = readString(in);
+			record.contentType = readString(in);
+			for (int i = (int) readVarInt(in); i > 0; i--) {
+				record.headerNames.add(readString(in));
+				record.headerLengths.add((int) readVarInt(in));
+			}
+			for (int i = (int) readVarInt(in); i > 0; i--) {
+				record.queryNames.add(readString(in));
+				int[] lengths = new int[(int) readVarInt(in)];
+				for (int j = 0; j < lengths.length; j++) {
+					lengths[j] = (int) readVarInt(in);
+				}
+				record.queryLengths.add(lengths);
+			}
+			for (int i = (int) readVarInt(in); i > 0; i--) {
+				record.pathNames.add(readString(in));
+				record.pathLengths.add((int) readVarInt(in));
+			}
+			record.body.read(in);
+			record.lambdaBody.read(in);
+			record.buildNanos = readVarInt(in);
+			record.invokeNanos = readVarInt(in);
+			record.totalNanos = readVarInt(in);
+			record.payloadSize = (int) readVarInt(in);
+			record.responseSize = (int) readVarInt(in);
+			record.statusCode = (int) readVarInt(in);
+			return record;
+		}
+
+		@Override
+		public String toString() {
+			return verb + " " + uri + " -> " + functionName + " (payload " + payloadSize + " bytes, build " +
+				TimeUnit.NANOSECONDS.toMicros(buildNanos) + "us, invoke " + TimeUnit.NANOSECONDS.toMillis(invokeNanos) + "ms, status " + statusCode + ")";
+		}
+	}
+
+	/**
+	 * Keeps the first bytes written and counts the others
+	 */
+	static final class PrefixOutputStream extends ByteArrayOutputStream {
+		private final int limit;
+		private int count;
+
+		PrefixOutputStream(int limit) {
+			super(Math.min(limit, 4096));
+			this.limit = limit;
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			if (size() < limit) {
+				super.write(b);
+			}
+			count++;
+		}
+
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			int kept = Math.min(len, limit - size());
+			if (kept > 0) {
+				super.write(b, off, kept);
+			}
+			count += len;
+		}
+
+		/**
+		 * Number of bytes written, kept or not
+		 */
+		int getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * Redacted body: JSON shape and string lengths, or size only
+	 */
+	static final class Shape {
+		byte kind = BODY_NONE;
+		int size;
+		String json;
+		int[] stringLengths = new int[0];
+		private byte[] pendingContent;
+		private String pendingText;
+
+		/**
+		 * Holds a body until {@link #redact()}; only a complete JSON body is kept
+		 *
+		 * @param prefix the first bytes of the body
+		 * @param size the size of the body
+		 */
+		void hold(byte[] prefix, int size, boolean json) {
+			this.size = size;
+			this.kind = BODY_OPAQUE;
+			if (json && size > 0 && prefix.length == size) {
+				this.pendingContent = prefix;
+			}
+		}
+
+		/**
+		 * Holds a JSON document until {@link #redact()}
+		 */
+		void hold(String document) {
+			this.kind = BODY_OPAQUE;
+			this.pendingText = document;
+		}
+
+		void redact() {
+			String text = pendingText;
+			if (text != null) {
+				size = text.getBytes(StandardCharsets.UTF_8).length;
+				if (size > MAX_SHAPE_SIZE || size == 0) {
+					text = null;
+				}
+			} else if (pendingContent != null) {
+				text = new String(pendingContent, StandardCharsets.UTF_8);
+			}
+			pendingText = null;
+			pendingContent = null;
+			if (text != null) {
+				List<Integer> lengths = new ArrayList<>();
+				String shape = redactJson(text, lengths);
+				if (shape != null) {
+					this.kind = BODY_JSON;
+					this.json = shape;
+					this.stringLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+				}
+			}
+		}
+
+		/**
+		 * Synthetic content with the recorded shape and size
+		 */
+		String restore() throws IOException {
+			if (kind == BODY_JSON) {
+				return restoreJson(json, stringLengths);
+			}
+			return kind == BODY_OPAQUE ? filler(size) : null;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeByte(kind);
+			if (kind == BODY_NONE) {
+				return;
+			}
+			writeVarInt(out, size);
+			if (kind == BODY_JSON) {
+				writeString(out, json);
+				writeVarInt(out, stringLengths.length);
+				for (int length : stringLengths) {
+					writeVarInt(out, length);
+				}
+			}
+		}
+
+		void read(DataInputStream in) throws IOException {
+			kind = in.readByte();
+			if (kind == BODY_NONE) {
+				return;
+			}
+			size = (int) readVarInt(in);
+			if (kind == BODY_JSON) {
+				json = readString(in);
+				stringLengths = new int[(int) readVarInt(in)];
+				for (int i = 0; i < stringLengths.length; i++) {
+					stringLengths[i] = (int) readVarInt(in);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a capture log: the mapping blocks and the records, in completion order
+	 */
+	static final class Reader implements AutoCloseable {
+		private final DataInputStream in;
+		private Mapping mapping;
+
+		Reader(Path file) throws IOException {
+			this.in = new DataInputStream(new java.io.BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+			if (in.readInt() != MAGIC) {
+				in.close();
+				throw new IOException(file + " is not a Lambda capture log");
+			}
+			int version = in.readUnsignedShort();
+			if (version > VERSION) {
+				in.close();
+				throw new IOException("Unsupported capture log version " + version);
+			}
+		}
+
+		/**
+		 * Returns the next record, null at the end of the log
+		 */
+		Record next() throws IOException {
+			while (true) {
+				int type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					return null;
+				}
+				byte[] block = new byte[(int) readVarInt(in)];
+				in.readFully(block);
+				DataInputStream blockIn = new DataInputStream(new java.io.ByteArrayInputStream(block));
+				if (type == BLOCK_MAPPING) {
+					mapping = Mapping.read(blockIn);
+				} else if (type == BLOCK_RECORD) {
+					Record record = Record.read(blockIn);
+					record.mapping = mapping;
+					return record;
+				}
+			}
+		}
+
+		/**
+		 * Returns the remaining records ordered by their start time, each with its payload mapping
+		 */
+		List<Record> readStartOrdered() throws IOException {
+			List<Record> records = new ArrayList<>();
+			Record record;
+			while ((record = next()) != null) {
+				records.add(record);
+			}
+			records.sort(java.util.Comparator.comparingLong(r -> r.timestamp));
+			return records;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
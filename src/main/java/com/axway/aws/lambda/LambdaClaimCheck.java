@@ -0,0 +1,210 @@
+package com.axway.aws.lambda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3Object;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vordel.trace.Trace;
+
+/**
+ * Claim-check offload of large payloads to S3 (or an S3-compatible store).
+ *
+ * Payloads above the threshold are uploaded once, before the first attempt,
+ * and the function receives a small pointer instead:
+ *
+ *   {"claimCheck":{"bucket":"...","key":"...","size":1234,"contentType":"application/json"}}
+ *
+ * Functions may answer with the same pointer format for large responses; the
+ * object is then downloaded and used as the response payload. Objects are not
+ * deleted here (an Event invocation may read them later): use a lifecycle rule
+ * on the prefix to expire them.
+ */
+public final class LambdaClaimCheck {
+
+	/** Synchronous invoke payload limit */
+	public static final int REQUEST_RESPONSE_LIMIT = 6 * 1024 * 1024;
+	/** Asynchronous (Event) invoke payload limit */
+	public static final int EVENT_LIMIT = 256 * 1024;
+
+	// Room for the request envelope under the AWS limits
+	private static final int LIMIT_MARGIN = 1024;
+	// Pointers are small; larger responses are never parsed
+	private static final int MAX_POINTER_SIZE = 4096;
+	private static final byte[] POINTER_MARKER = "\"claimCheck\"".getBytes(StandardCharsets.US_ASCII);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final AmazonS3 s3;
+	private final String bucket;
+	private final String prefix;
+	private final int threshold;
+
+	private LambdaClaimCheck(AmazonS3 s3, String bucket, String prefix, int threshold) {
+		this.s3 = s3;
+		this.bucket = bucket;
+		this.prefix = prefix;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Creates the claim check. Returns null when no bucket is configured.
+	 *
+	 * @param threshold payload size in bytes above which payloads are offloaded (0 or less: only above the AWS limits)
+	 * @param endpoint optional endpoint of an S3-compatible store (path-style access is used)
+	 */
+	public static LambdaClaimCheck create(String bucket, String prefix, int threshold, String endpoint, String region,
+			AWSCredentialsProvider credentials, ClientConfiguration clientConfiguration) {
+		if (bucket == null || bucket.trim().isEmpty()) {
+			return null;
+		}
+		AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard().withCredentials(credentials);
+		if (clientConfiguration != null) {
+			builder.withClientConfiguration(clientConfiguration);
+		}
+		if (endpoint != null && !endpoint.trim().isEmpty()) {
+			builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint.trim(), region))
+				.withPathStyleAccessEnabled(true);
+		} else if (region != null && !region.trim().isEmpty()) {
+			builder.withRegion(region);
+		}
+		return new LambdaClaimCheck(builder.build(), bucket.trim(), prefix != null ? prefix : "", threshold);
+	}
+
+	/**
+	 * Effective threshold for an invocation type: the configured one, capped below the AWS limit
+	 */
+	public int thresholdFor(String invocationType) {
+		int limit = ("Event".equals(invocationType) ? EVENT_LIMIT : REQUEST_RESPONSE_LIMIT) - LIMIT_MARGIN;
+		return threshold > 0 ? Math.min(threshold, limit) : limit;
+	}
+
+	/**
+	 * Uploads the payload and replaces it with a pointer if it is above the threshold.
+	 * Returns true if the payload was offloaded.
+	 */
+	public boolean offload(LambdaInvocation invocation) throws IOException {
+		byte[] payload = invocation.getPayload();
+		if (payload == null || payload.length <= thresholdFor(invocation.getInvocationType())) {
+			return false;
+		}
+		String key = prefix + UUID.randomUUID();
+		ObjectMetadata metadata = new ObjectMetadata();
+		metadata.setContentLength(payload.length);
+		metadata.setContentType("application/json");
+		long start = System.nanoTime();
+		s3.putObject(bucket, key, new ByteArrayInputStream(payload), metadata);
+
+		invocation.withPayload(pointer(key, payload.length));
+		invocation.getAttributes().put("aws.lambda.claim.check.key", key);
+		invocation.getAttributes().put("aws.lambda.claim.check.size", payload.length);
+		Trace.info("Payload of " + payload.length + " bytes offloaded to s3://" + bucket + "/" + key + " in " +
+			(System.nanoTime() - start) / 1_000_000L + "ms");
+		return true;
+	}
+
+	/**
+	 * JSON pointer to an offloaded payload; bucket and key are escaped by the generator
+	 */
+	private byte[] pointer(String key, int size) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out)) {
+			generator.writeStartObject();
+			generator.writeObjectFieldStart("claimCheck");
+			generator.writeStringField("bucket", bucket);
+			generator.writeStringField("key", key);
+			generator.writeNumberField("size", size);
+			generator.writeStringField("contentType", "application/json");
+			generator.writeEndObject();
+			generator.writeEndObject();
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Replaces a pointer response with the referenced object. Other responses are returned unchanged.
+	 * Only objects of the configured bucket under the configured prefix are resolved: the response
+	 * may echo client input, and must not make the gateway read other objects with its credentials.
+	 *
+	 * @throws IOException if the pointer references another bucket or key
+	 */
+	public InvokeResult resolve(InvokeResult result) throws IOException {
+		ByteBuffer payload = result.getPayload();
+		if (payload == null || payload.remaining() > MAX_POINTER_SIZE || !contains(payload, POINTER_MARKER)) {
+			return result;
+		}
+		JsonNode pointer;
+		try {
+			pointer = MAPPER.readTree(StandardCharsets.UTF_8.decode(payload.duplicate()).toString()).get("claimCheck");
+		} catch (Exception e) {
+			return result;
+		}
+		if (pointer == null || !pointer.hasNonNull("key")) {
+			return result;
+		}
+		String objectBucket = pointer.hasNonNull("bucket") ? pointer.get("bucket").asText() : bucket;
+		String key = pointer.get("key").asText();
+		if (!bucket.equals(objectBucket) || !key.startsWith(prefix)) {
+			Trace.error("Claim-check response rejected: s3://" + objectBucket + "/" + key + " is not under s3://" + bucket + "/" + prefix);
+			throw new IOException("claim-check pointer outside s3://" + bucket + "/" + prefix);
+		}
+		long start = System.nanoTime();
+		try (S3Object object = s3.getObject(objectBucket, key)) {
+			byte[] content = readAll(object.getObjectContent(), object.getObjectMetadata().getContentLength());
+			Trace.info("Response of " + content.length + " bytes resolved from s3://" + objectBucket + "/" + key + " in " +
+				(System.nanoTime() - start) / 1_000_000L + "ms");
+			return result.withPayload(ByteBuffer.wrap(content));
+		}
+	}
+
+	private static byte[] readAll(InputStream in, long length) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE ? (int) length : 8192);
+		byte[] buffer = new byte[8192];
+		int n;
+		while ((n = in.read(buffer)) > 0) {
+			out.write(buffer, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static boolean contains(ByteBuffer data, byte[] token) {
+		int last = data.limit() - token.length;
+		outer:
+		for (int i = data.position(); i <= last; i++) {
+			for (int j = 0; j < token.length; j++) {
+				if (data.get(i + j) != token[j]) {
+					continue outer;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	public String getBucket() {
+		return bucket;
+	}
+
+	public void shutdown() {
+		s3.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return "s3://" + bucket + "/" + prefix + " (threshold " + thresholdFor("RequestResponse") + " bytes, Event " + thresholdFor("Event") + " bytes)";
+	}
+}
@@ -0,0 +1,324 @@
+package com.axway.aws.lambda;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.vordel.trace.Trace;
+
+/**
+ * Compressed envelope for large payloads.
+ *
+ * Payloads at or above the threshold are compressed (gzip, or zstd when the
+ * zstd-jni jar is installed) and sent base64-encoded in an envelope:
+ *
+ *   {"compressed":{"encoding":"gzip","size":1234,"data":"H4sI..."}}
+ *
+ * where size is the uncompressed size. The payload is compressed and encoded
+ * in one streaming pass into the envelope buffer. Payloads that do not get
+ * smaller are sent as is. Functions unwrap the envelope, and may answer with
+ * the same envelope: responses to compressed requests are decompressed before
+ * processing, up to their declared size and the maximum response size (a
+ * larger output fails the invocation). Envelopes of unknown or unavailable
+ * encodings are passed through.
+ */
+public final class LambdaCompression {
+
+	public static final String NONE = "none";
+	public static final String GZIP = "gzip";
+	public static final String ZSTD = "zstd";
+
+	private static final String ZSTD_OUTPUT_CLASS = "com.github.luben.zstd.ZstdOutputStream";
+	private static final String ZSTD_INPUT_CLASS = "com.github.luben.zstd.ZstdInputStream";
+	private static final byte[] ENVELOPE_START = "{\"compressed\":".getBytes(StandardCharsets.US_ASCII);
+
+	private static final JsonFactory JSON = new JsonFactory();
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+	private final String encoding;
+	private final int threshold;
+	private final long maxResponseSize;
+	private final Constructor<? extends OutputStream> zstdOutput;
+
+	private final LongAdder compressed = new LongAdder();
+	private final LongAdder notSmaller = new LongAdder();
+	private final LongAdder decompressed = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LatencyHistogram ratio = new LatencyHistogram();
+	private final LatencyHistogram compressCpu = new LatencyHistogram();
+	private final LatencyHistogram decompressCpu = new LatencyHistogram();
+
+	private LambdaCompression(String encoding, int threshold, long maxResponseSize, Constructor<? extends OutputStream> zstdOutput) {
+		this.encoding = encoding;
+		this.threshold = threshold;
+		this.maxResponseSize = maxResponseSize;
+		this.zstdOutput = zstdOutput;
+	}
+
+	/**
+	 * Creates the compression. Returns null when disabled.
+	 *
+	 * @param threshold payload size in bytes from which payloads are compressed
+	 * @param maxResponseSize largest decompressed response, in bytes
+	 */
+	public static LambdaCompression create(String encoding, int threshold, long maxResponseSize) {
+		if (encoding == null || encoding.trim().isEmpty() || NONE.equalsIgnoreCase(encoding.trim())) {
+			return null;
+		}
+		encoding = encoding.trim().toLowerCase();
+		Constructor<? extends OutputStream> zstdOutput = null;
+		if (ZSTD.equals(encoding)) {
+			try {
+				zstdOutput = Class.forName(ZSTD_OUTPUT_CLASS).asSubclass(OutputStream.class).getConstructor(OutputStream.class);
+			} catch (LinkageError | ReflectiveOperationException e) {
+				Trace.error("zstd compression not available (" + e + "), using gzip. Add the zstd-jni jar to the gateway ext/lib folder.");
+				encoding = GZIP;
+			}
+		} else if (!GZIP.equals(encoding)) {
+			Trace.error("Unknown payload compression " + encoding + ", using gzip");
+			encoding = GZIP;
+		}
+		return new LambdaCompression(encoding, Math.max(0, threshold), Math.min(Math.max(1, maxResponseSize), Integer.MAX_VALUE - 8), zstdOutput);
+	}
+
+	/**
+	 * Wraps the payload of an invocation in a compressed envelope if it is at or above the threshold
+	 */
+	public void compress(LambdaInvocation invocation) throws IOException {
+		byte[] payload = invocation.getPayload();
+		if (payload == null || payload.length < threshold) {
+			return;
+		}
+		long cpuStart = cpuTime();
+		String prefix = "{\"compressed\":{\"encoding\":\"" + encoding + "\",\"size\":" + payload.length + ",\"data\":\"";
+		ByteArrayOutputStream envelope = new ByteArrayOutputStream(prefix.length() + payload.length / 4 + 64);
+		envelope.write(prefix.getBytes(StandardCharsets.US_ASCII));
+		// Closing the compressor closes the base64 encoder, which writes the padding
+		try (OutputStream out = compressor(Base64.getEncoder().wrap(new NonClosingOutputStream(envelope)))) {
+			out.write(payload);
+		}
+		envelope.write("\"}}".getBytes(StandardCharsets.US_ASCII));
+		long cpu = cpuTime() - cpuStart;
+		compressCpu.record(cpu / 1000);
+
+		if (envelope.size() >= payload.length) {
+			notSmaller.increment();
+			Trace.debug("Payload of " + payload.length + " bytes not compressed (" + envelope.size() + " bytes compressed)");
+			return;
+		}
+		compressed.increment();
+		bytesIn.add(payload.length);
+		bytesOut.add(envelope.size());
+		int percent = (int) (envelope.size() * 100L / payload.length);
+		ratio.record(percent);
+		invocation.withPayload(envelope.toByteArray());
+		invocation.getAttributes().put("aws.lambda.compression.size", envelope.size());
+		invocation.getAttributes().put("aws.lambda.compression.ratio", percent);
+		Trace.info("Payload of " + payload.length + " bytes compressed to " + envelope.size() + " bytes (" + encoding + ", " +
+			percent + "%) in " + cpu / 1000 + "us CPU");
+	}
+
+	private OutputStream compressor(OutputStream out) throws IOException {
+		if (zstdOutput != null) {
+			try {
+				return zstdOutput.newInstance(out);
+			} catch (ReflectiveOperationException e) {
+				throw new IOException("zstd compressor failed: " + e.getMessage(), e);
+			}
+		}
+		return new GZIPOutputStream(out, 64 * 1024);
+	}
+
+	/**
+	 * Replaces an envelope response with its decompressed content. Other responses, and
+	 * envelopes of unknown or unavailable encodings, are returned unchanged.
+	 *
+	 * @throws IOException if the content is invalid or larger than its declared size or the maximum
+	 */
+	public InvokeResult decompress(InvokeResult result) throws IOException {
+		ByteBuffer payload = result.getPayload();
+		if (payload == null || !startsWithEnvelope(payload)) {
+			return result;
+		}
+		String responseEncoding = null;
+		String data = null;
+		long size = -1;
+		try (JsonParser parser = JSON.createParser(new ByteBufferInputStream(payload.duplicate()))) {
+			if (parser.nextToken() != JsonToken.START_OBJECT || parser.nextToken() != JsonToken.FIELD_NAME ||
+					parser.nextToken() != JsonToken.START_OBJECT) {
+				return result;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if ("encoding".equals(field)) {
+					responseEncoding = parser.getText();
+				} else if ("data".equals(field)) {
+					data = parser.getText();
+				} else if ("size".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+					size = parser.getLongValue();
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+		if (data == null || responseEncoding == null) {
+			return result;
+		}
+
+		if (size > maxResponseSize) {
+			throw new IOException("Compressed response declares " + size + " bytes, above the maximum of " + maxResponseSize + " bytes");
+		}
+		long limit = size >= 0 ? size : maxResponseSize;
+
+		long cpuStart = cpuTime();
+		byte[] content;
+		InputStream decompressor = decompressor(responseEncoding, new ByteArrayInputStream(Base64.getDecoder().decode(data)));
+		if (decompressor == null) {
+			return result;
+		}
+		try (InputStream in = decompressor) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(limit, Math.max(data.length() * 2L, 8192)));
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				// Stop a decompression bomb before it fills the heap
+				if (out.size() + (long) n > limit) {
+					throw new IOException("Compressed response expands beyond " + limit + " bytes" + (size >= 0 ? " (declared size)" : ""));
+				}
+				out.write(buffer, 0, n);
+			}
+			content = out.toByteArray();
+		}
+		decompressed.increment();
+		decompressCpu.record((cpuTime() - cpuStart) / 1000);
+		Trace.info("Response of " + payload.remaining() + " bytes decompressed to " + content.length + " bytes (" + responseEncoding + ")");
+		return result.withPayload(ByteBuffer.wrap(content));
+	}
+
+	/**
+	 * Returns the decompressing stream, or null for an unknown or unavailable encoding
+	 */
+	private static InputStream decompressor(String encoding, InputStream in) throws IOException {
+		if (ZSTD.equalsIgnoreCase(encoding)) {
+			try {
+				return Class.forName(ZSTD_INPUT_CLASS).asSubclass(InputStream.class).getConstructor(InputStream.class).newInstance(in);
+			} catch (LinkageError | ReflectiveOperationException e) {
+				Trace.error("zstd response passed through: zstd-jni is not installed (" + e + ")");
+				return null;
+			}
+		}
+		if (GZIP.equalsIgnoreCase(encoding)) {
+			return new GZIPInputStream(in, 64 * 1024);
+		}
+		Trace.debug("Response envelope of unknown encoding " + encoding + " passed through");
+		return null;
+	}
+
+	private static boolean startsWithEnvelope(ByteBuffer payload) {
+		int position = payload.position();
+		while (position < payload.limit() && Character.isWhitespace(payload.get(position))) {
+			position++;
+		}
+		if (payload.limit() - position < ENVELOPE_START.length) {
+			return false;
+		}
+		for (int i = 0; i < ENVELOPE_START.length; i++) {
+			if (payload.get(position + i) != ENVELOPE_START[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * CPU time of the current thread, or wall time where the JVM does not measure it
+	 */
+	private static long cpuTime() {
+		return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+	}
+
+	public String getEncoding() {
+		return encoding;
+	}
+
+	/**
+	 * Compressed size as a percentage of the original size
+	 */
+	public LatencyHistogram getRatio() {
+		return ratio;
+	}
+
+	/**
+	 * CPU time of each compression, in microseconds
+	 */
+	public LatencyHistogram getCompressCpu() {
+		return compressCpu;
+	}
+
+	public LatencyHistogram getDecompressCpu() {
+		return decompressCpu;
+	}
+
+	@Override
+	public String toString() {
+		return encoding + " from " + threshold + " bytes, responses up to " + maxResponseSize + " bytes: compressed=" + compressed.sum() + ", notSmaller=" + notSmaller.sum() +
+			", decompressed=" + decompressed.sum() + ", bytes " + bytesIn.sum() + " -> " + bytesOut.sum() +
+			"\n  ratio(%) " + ratio + "\n  compress cpu(us) " + compressCpu + "\n  decompress cpu(us) " + decompressCpu;
+	}
+
+	private static final class NonClosingOutputStream extends java.io.FilterOutputStream {
+		NonClosingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+package com.axway.aws.lambda;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suppresses repeated invocations with the same idempotency key within a time window.
+ *
+ * Keys are reduced to a SHA-256 digest. The most recent keys are kept exactly
+ * in a bounded LRU map with the time they were seen; a key whose invocation
+ * fails is removed again, so the caller's retry goes through. Every delivered
+ * key also goes into a ring of BUCKETS time-bucketed Bloom filters (window /
+ * BUCKETS wide each), so keys evicted from the LRU are still recognised until
+ * their bucket is BUCKETS buckets old, with a false positive rate of about
+ * FALSE_POSITIVE_RATE: a key is never suppressed longer than the window, but
+ * once evicted from the LRU it may be forgotten up to one bucket early. A
+ * bucket that received more than maxEntries keys is no longer consulted, as
+ * its false positive rate would grow. Memory is fixed by maxEntries, whatever
+ * the traffic.
+ *
+ * The window can be changed in place ({@link #setWindowMillis(long)}), so the
+ * invocations in flight complete their reservations in the deduplicator used
+ * by the next ones.
+ */
+public final class LambdaDeduplicator {
+
+	private static final int BUCKETS = 4;
+	private static final double FALSE_POSITIVE_RATE = 0.0001;
+
+	private long windowMillis;
+	private long bucketMillis;
+	private final int maxEntries;
+	private final int bits;
+	private final int hashes;
+
+	// Ring of BUCKETS Bloom filters; index = bucket number modulo the ring size
+	private final BitSet[] filters = new BitSet[BUCKETS];
+	private final long[] filterBuckets = new long[BUCKETS];
+	private final int[] filterCounts = new int[BUCKETS];
+	private final LinkedHashMap<Key, Long> recent;
+
+	private final AtomicLong checked = new AtomicLong();
+	private final AtomicLong suppressed = new AtomicLong();
+	private final AtomicLong suppressedProbable = new AtomicLong();
+
+	/**
+	 * @param windowMillis deduplication window
+	 * @param maxEntries keys kept exactly, and expected keys per bucket for the Bloom filter sizing
+	 */
+	public LambdaDeduplicator(long windowMillis, int maxEntries) {
+		this.windowMillis = windowMillis;
+		this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+		this.maxEntries = Math.max(1, maxEntries);
+		double ln2 = Math.log(2);
+		this.bits = (int) Math.ceil(-this.maxEntries * Math.log(FALSE_POSITIVE_RATE) / (ln2 * ln2));
+		this.hashes = Math.max(1, (int) Math.round((double) bits / this.maxEntries * ln2));
+		for (int i = 0; i < filters.length; i++) {
+			filters[i] = new BitSet(bits);
+			filterBuckets[i] = -1;
+		}
+		this.recent = new LinkedHashMap<Key, Long>(Math.min(this.maxEntries, 1024), 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+				return size() > LambdaDeduplicator.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Digest of an idempotency key, or of the payload when no key is configured, within a
+	 * scope (the function invoked): the same key sent to two functions is not a duplicate
+	 */
+	public static byte[] digest(String scope, byte[] data) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			if (scope != null) {
+				digest.update(scope.getBytes(StandardCharsets.UTF_8));
+			}
+			digest.update((byte) 0);
+			return digest.digest(data);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	/**
+	 * Returns true if the key was already seen within the window. Otherwise the key is
+	 * reserved in the exact map, so concurrent duplicates are suppressed while it is
+	 * invoked; call {@link #confirm(byte[])} once the invocation succeeded, or
+	 * {@link #forget(byte[])} if it failed so that a retry is not suppressed.
+	 */
+	public synchronized boolean isDuplicate(byte[] digest) {
+		long now = System.currentTimeMillis();
+		long bucket = now / bucketMillis;
+		checked.incrementAndGet();
+
+		Key key = new Key(digest);
+		Long seen = recent.get(key);
+		if (seen != null && now - seen < windowMillis) {
+			suppressed.incrementAndGet();
+			return true;
+		}
+
+		ByteBuffer hash = ByteBuffer.wrap(digest);
+		long h1 = hash.getLong(0);
+		long h2 = hash.getLong(8) | 1;
+		boolean probable = seen == null && mightContain(h1, h2, bucket);
+
+		if (probable) {
+			suppressed.incrementAndGet();
+			suppressedProbable.incrementAndGet();
+			return true;
+		}
+		// Reserve in the exact map; the Bloom filter only gets delivered keys
+		recent.put(key, now);
+		return false;
+	}
+
+	/**
+	 * Records a key whose invocation succeeded in the current bucket
+	 */
+	public synchronized void confirm(byte[] digest) {
+		long bucket = System.currentTimeMillis() / bucketMillis;
+		ByteBuffer hash = ByteBuffer.wrap(digest);
+		long h1 = hash.getLong(0);
+		long h2 = hash.getLong(8) | 1;
+		BitSet current = filterFor(bucket);
+		for (int i = 0; i < hashes; i++) {
+			current.set(index(h1, h2, i));
+		}
+		filterCounts[(int) (bucket % filters.length)]++;
+	}
+
+	/**
+	 * Releases the reservation of a key whose invocation failed
+	 */
+	public synchronized void forget(byte[] digest) {
+		recent.remove(new Key(digest));
+	}
+
+	private boolean mightContain(long h1, long h2, long bucket) {
+		filters:
+		for (int f = 0; f < filters.length; f++) {
+			// Only buckets inside the window and within their capacity
+			if (filterBuckets[f] < 0 || bucket - filterBuckets[f] >= BUCKETS || filterCounts[f] > maxEntries) {
+				continue;
+			}
+			for (int i = 0; i < hashes; i++) {
+				if (!filters[f].get(index(h1, h2, i))) {
+					continue filters;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private BitSet filterFor(long bucket) {
+		int slot = (int) (bucket % filters.length);
+		if (filterBuckets[slot] != bucket) {
+			// Slot held an expired bucket: reuse it
+			filters[slot].clear();
+			filterBuckets[slot] = bucket;
+			filterCounts[slot] = 0;
+		}
+		return filters[slot];
+	}
+
+	private int index(long h1, long h2, int i) {
+		return (int) (((h1 + i * h2) & Long.MAX_VALUE) % bits);
+	}
+
+	public synchronized long getWindowMillis() {
+		return windowMillis;
+	}
+
+	/**
+	 * Changes the window. The exact keys are kept and compared with the new window; the
+	 * Bloom filters, bucketed for the old window, are cleared.
+	 */
+	public synchronized void setWindowMillis(long windowMillis) {
+		if (windowMillis == this.windowMillis) {
+			return;
+		}
+		this.windowMillis = windowMillis;
+		this.bucketMillis = Math.max(1, windowMillis / BUCKETS);
+		for (int i = 0; i < filters.length; i++) {
+			filters[i].clear();
+			filterBuckets[i] = -1;
+			filterCounts[i] = 0;
+		}
+	}
+
+	public long getCheckedCount() {
+		return checked.get();
+	}
+
+	/**
+	 * Suppressed invocations, including probable duplicates
+	 */
+	public long getSuppressedCount() {
+		return suppressed.get();
+	}
+
+	/**
+	 * Invocations suppressed on a Bloom filter match only (key no longer in the LRU, or a false positive)
+	 */
+	public long getProbableSuppressedCount() {
+		return suppressedProbable.get();
+	}
+
+	@Override
+	public synchronized String toString() {
+		return windowMillis + "ms window, " + maxEntries + " exact keys, " + filters.length + " x " + (bits / 8 / 1024) + "KB Bloom filters (" + hashes + " hashes)";
+	}
+
+	/**
+	 * Digest wrapper usable as a map key
+	 */
+	private static final class Key {
+		private final byte[] digest;
+		private final int hash;
+
+		Key(byte[] digest) {
+			this.digest = digest;
+			this.hash = java.util.Arrays.hashCode(digest);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && java.util.Arrays.equals(digest, ((Key) other).digest);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package com.axway.aws.lambda;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Bounded cache of parsed lambda.body documents, keyed by their content.
+ *
+ * lambda.body is usually one of a few constant JSON fragments set by a Set
+ * Attribute filter, so the same text is parsed on every message. Documents are
+ * parsed once and kept frozen (unmodifiable maps and lists) in an LRU map of at
+ * most maxEntries documents of at most maxLength characters each. Callers merge
+ * a frozen document into their payload and copy a nested map only when they
+ * write into it ({@link #mutable(Map, String)}), so the cached entry is never
+ * changed by the field overlays.
+ */
+public final class LambdaDocumentCache {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final Class<?> FROZEN_MAP = Collections.unmodifiableMap(new LinkedHashMap<>()).getClass();
+
+	private final int maxEntries;
+	private final int maxLength;
+	private final LinkedHashMap<String, Map<String, Object>> documents;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder uncached = new LongAdder();
+
+	/**
+	 * @param maxEntries documents kept
+	 * @param maxLength longest document cached, in characters; longer documents are parsed every time
+	 */
+	public LambdaDocumentCache(int maxEntries, int maxLength) {
+		this.maxEntries = Math.max(1, maxEntries);
+		this.maxLength = maxLength;
+		this.documents = new LinkedHashMap<String, Map<String, Object>>(Math.min(this.maxEntries, 1024), 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+				return size() > LambdaDocumentCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Returns the parsed JSON object of a document, frozen if it comes from the cache.
+	 *
+	 * @throws IOException if the document is not a JSON object
+	 */
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> parse(String document) throws IOException {
+		if (document.length() > maxLength) {
+			uncached.increment();
+			return MAPPER.readValue(document, Map.class);
+		}
+		Map<String, Object> parsed;
+		synchronized (documents) {
+			parsed = documents.get(document);
+		}
+		if (parsed != null) {
+			hits.increment();
+			return parsed;
+		}
+		misses.increment();
+		parsed = (Map<String, Object>) freeze(MAPPER.readValue(document, Map.class));
+		synchronized (documents) {
+			documents.put(document, parsed);
+		}
+		return parsed;
+	}
+
+	/**
+	 * Returns the map to write into under a key of a parent map: a frozen map is
+	 * replaced in the parent by a mutable copy, a missing one by a new map.
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> mutable(Map<String, Object> parent, String key) {
+		Object child = parent.get(key);
+		if (child instanceof Map && child.getClass() != FROZEN_MAP) {
+			return (Map<String, Object>) child;
+		}
+		Map<String, Object> copy = child != null && child.getClass() == FROZEN_MAP ?
+			new LinkedHashMap<>((Map<String, Object>) child) : new java.util.HashMap<>();
+		parent.put(key, copy);
+		return copy;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object freeze(Object value) {
+		if (value instanceof Map) {
+			Map<String, Object> map = (Map<String, Object>) value;
+			for (Map.Entry<String, Object> entry : map.entrySet()) {
+				entry.setValue(freeze(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(map);
+		}
+		if (value instanceof List) {
+			List<Object> list = new ArrayList<>((List<Object>) value);
+			list.replaceAll(LambdaDocumentCache::freeze);
+			return Collections.unmodifiableList(list);
+		}
+		return value;
+	}
+
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	@Override
+	public String toString() {
+		int size;
+		synchronized (documents) {
+			size = documents.size();
+		}
+		return size + "/" + maxEntries + " documents up to " + maxLength + " chars, hits=" + hits.sum() + ", misses=" + misses.sum() +
+			", uncached=" + uncached.sum();
+	}
+}
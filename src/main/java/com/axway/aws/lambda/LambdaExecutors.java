@@ -0,0 +1,56 @@
+package com.axway.aws.lambda;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used to run Lambda invocations off the message thread.
+ *
+ * This is the Java 8 implementation, backed by platform threads. The jar also
+ * carries a Java 21 version of this class (src/main/java21, loaded from
+ * META-INF/versions/21) that runs invocations on virtual threads.
+ */
+public final class LambdaExecutors {
+
+	private LambdaExecutors() {
+	}
+
+	/**
+	 * Returns true if invocations run on virtual threads
+	 */
+	public static boolean usesVirtualThreads() {
+		return false;
+	}
+
+	/**
+	 * Creates a bounded pool of daemon threads. Idle threads are released after 60 seconds.
+	 */
+	public static ExecutorService newInvocationExecutor(String name, int maxThreads) {
+		return newInvocationExecutor(name, maxThreads, 0);
+	}
+
+	/**
+	 * Creates a bounded pool of daemon threads with at most maxQueued waiting tasks (0 or less
+	 * means no limit); tasks above it are rejected with a RejectedExecutionException.
+	 */
+	public static ExecutorService newInvocationExecutor(String name, int maxThreads, int maxQueued) {
+		int threads = Math.max(1, maxThreads);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(maxQueued > 0 ? maxQueued : Integer.MAX_VALUE), daemonThreadFactory(name));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	static ThreadFactory daemonThreadFactory(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,228 @@
+package com.axway.aws.lambda;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolved parameters of one Lambda invocation.
+ *
+ * Instances are built on the message thread from the filter selectors and can
+ * then be executed on any thread: they hold no reference to the message.
+ * Attributes describing how the invocation went (region used, failovers, ...)
+ * are collected in {@link #getAttributes()} and copied to the message by the
+ * caller.
+ */
+public class LambdaInvocation {
+
+	private String functionName;
+	private String qualifier;
+	private QualifierSplitter.Target qualifierTarget;
+	private String invocationType = "RequestResponse";
+	private String logType = "None";
+	private byte[] payload;
+	private List<String> regions;
+	private int maxRetries = 3;
+	private int retryDelay = 1000;
+	private int crossRegionRetries;
+	private long deadlineNanos;
+	private long deadlineEpochMillis;
+	private LambdaTraceContext trace;
+	private LambdaLanes.Lane lane;
+	private LambdaDeduplicator deduplicator;
+	private byte[] dedupDigest;
+	private final Map<String, Object> attributes = new HashMap<>();
+
+	public LambdaInvocation withFunctionName(String functionName) {
+		this.functionName = functionName;
+		return this;
+	}
+
+	public LambdaInvocation withQualifier(String qualifier) {
+		this.qualifier = qualifier;
+		return this;
+	}
+
+	public LambdaInvocation withQualifierTarget(QualifierSplitter.Target qualifierTarget) {
+		this.qualifierTarget = qualifierTarget;
+		return this;
+	}
+
+	public LambdaInvocation withInvocationType(String invocationType) {
+		this.invocationType = invocationType;
+		return this;
+	}
+
+	public LambdaInvocation withLogType(String logType) {
+		this.logType = logType;
+		return this;
+	}
+
+	public LambdaInvocation withPayload(byte[] payload) {
+		this.payload = payload;
+		return this;
+	}
+
+	public LambdaInvocation withRegions(List<String> regions) {
+		this.regions = regions;
+		return this;
+	}
+
+	public LambdaInvocation withMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+		return this;
+	}
+
+	public LambdaInvocation withRetryDelay(int retryDelay) {
+		this.retryDelay = retryDelay;
+		return this;
+	}
+
+	public LambdaInvocation withCrossRegionRetries(int crossRegionRetries) {
+		this.crossRegionRetries = crossRegionRetries;
+		return this;
+	}
+
+	/**
+	 * Sets the overall time budget of the invocation, counted from now (0 or less means no deadline)
+	 */
+	public LambdaInvocation withTimeBudget(long millis) {
+		if (millis > 0) {
+			this.deadlineNanos = System.nanoTime() + millis * 1_000_000L;
+			this.deadlineEpochMillis = System.currentTimeMillis() + millis;
+		} else {
+			this.deadlineNanos = 0;
+			this.deadlineEpochMillis = 0;
+		}
+		return this;
+	}
+
+	/**
+	 * Sets a deadline that has already passed: the invocation fails without any attempt
+	 */
+	public LambdaInvocation withExpiredDeadline() {
+		this.deadlineNanos = System.nanoTime() - 1_000_000L;
+		this.deadlineEpochMillis = Math.max(1, System.currentTimeMillis() - 1);
+		return this;
+	}
+
+	/**
+	 * Sets the trace the invocation records its spans into (null when tracing is disabled)
+	 */
+	public LambdaInvocation withTrace(LambdaTraceContext trace) {
+		this.trace = trace;
+		return this;
+	}
+
+	/**
+	 * Sets the priority lane running the invocation (null to run it on the calling thread)
+	 */
+	public LambdaInvocation withLane(LambdaLanes.Lane lane) {
+		this.lane = lane;
+		return this;
+	}
+
+	/**
+	 * Records the deduplication key reserved for the invocation
+	 */
+	public LambdaInvocation withDedupReservation(LambdaDeduplicator deduplicator, byte[] digest) {
+		this.deduplicator = deduplicator;
+		this.dedupDigest = digest;
+		return this;
+	}
+
+	/**
+	 * Ends the deduplication reservation, if any: the key is kept if the invocation was
+	 * delivered, released otherwise
+	 */
+	public void completeDeduplication(boolean delivered) {
+		LambdaDeduplicator deduplicator = this.deduplicator;
+		byte[] digest = this.dedupDigest;
+		this.deduplicator = null;
+		this.dedupDigest = null;
+		if (deduplicator == null || digest == null) {
+			return;
+		}
+		if (delivered) {
+			deduplicator.confirm(digest);
+		} else {
+			deduplicator.forget(digest);
+		}
+	}
+
+	public String getFunctionName() {
+		return functionName;
+	}
+
+	public String getQualifier() {
+		return qualifier;
+	}
+
+	public QualifierSplitter.Target getQualifierTarget() {
+		return qualifierTarget;
+	}
+
+	public String getInvocationType() {
+		return invocationType;
+	}
+
+	public String getLogType() {
+		return logType;
+	}
+
+	public byte[] getPayload() {
+		return payload;
+	}
+
+	public List<String> getRegions() {
+		return regions;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public int getRetryDelay() {
+		return retryDelay;
+	}
+
+	public int getCrossRegionRetries() {
+		return crossRegionRetries;
+	}
+
+	public boolean hasDeadline() {
+		return deadlineEpochMillis > 0;
+	}
+
+	/**
+	 * Wall-clock deadline in epoch milliseconds, 0 if there is none
+	 */
+	public long getDeadlineEpochMillis() {
+		return deadlineEpochMillis;
+	}
+
+	/**
+	 * Milliseconds left before the deadline (negative once it has passed), or Long.MAX_VALUE without deadline
+	 */
+	public long getRemainingMillis() {
+		if (!hasDeadline()) {
+			return Long.MAX_VALUE;
+		}
+		return (deadlineNanos - System.nanoTime()) / 1_000_000L;
+	}
+
+	public LambdaTraceContext getTrace() {
+		return trace;
+	}
+
+	public LambdaLanes.Lane getLane() {
+		return lane;
+	}
+
+	/**
+	 * Outcome attributes to be copied to the message (e.g. aws.lambda.region)
+	 */
+	public Map<String, Object> getAttributes() {
+		return attributes;
+	}
+}
@@ -0,0 +1,133 @@
+package com.axway.aws.lambda;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.vordel.circuit.Message;
+import com.vordel.trace.Trace;
+
+/**
+ * Invocation logic of the Invoke Lambda Function filter, for scripts and custom filters.
+ *
+ * An engine holds a transport with one cached client per region, and runs
+ * invocations with the filter's retry loop, deadline handling and response
+ * processing (same message attributes as the filter). It is safe for
+ * concurrent use: build it once and share it between messages, e.g. with
+ * {@link #shared(String, Supplier)} from a Groovy script filter:
+ *
+ *   def engine = LambdaInvocationEngine.shared("lambda-script", { new DefaultAWSCredentialsProviderChain() })
+ *   def invocation = new LambdaInvocation()
+ *       .withFunctionName("my-function")
+ *       .withRegions(["us-east-1"])
+ *       .withPayload(payload.getBytes("UTF-8"))
+ *   return engine.invoke(msg, invocation)
+ */
+public final class LambdaInvocationEngine {
+
+	public static final String DEFAULT_ENGINE = "default";
+
+	private static final Map<String, LambdaInvocationEngine> SHARED = new ConcurrentHashMap<>();
+
+	private final String name;
+	private final InvokeLambdaFunctionProcessor processor = new InvokeLambdaFunctionProcessor();
+	private final LambdaTransport transport;
+
+	private LambdaInvocationEngine(String name, AWSCredentialsProvider credentials, ClientConfiguration config, String transportName) {
+		this.name = name;
+		AWSLambdaClientBuilder builder = AWSLambdaClientBuilder.standard().withCredentials(credentials);
+		if (config != null) {
+			builder.withClientConfiguration(config);
+		}
+		this.transport = LambdaTransports.create(transportName, builder, credentials, config);
+		processor.configureEngine(builder, transport);
+	}
+
+	/**
+	 * Creates an engine owned by the caller, who must close it
+	 *
+	 * @param config client configuration, null for the SDK defaults
+	 * @param transportName {@link LambdaTransport#SDK_V1} or {@link LambdaTransport#SDK_V2_NETTY}, null for SDK v1
+	 */
+	public static LambdaInvocationEngine create(AWSCredentialsProvider credentials, ClientConfiguration config, String transportName) {
+		return new LambdaInvocationEngine(null, credentials, config, transportName);
+	}
+
+	/**
+	 * Returns the shared engine using the default credentials provider chain
+	 */
+	public static LambdaInvocationEngine shared() {
+		return shared(DEFAULT_ENGINE, DefaultAWSCredentialsProviderChain::getInstance);
+	}
+
+	/**
+	 * Returns the engine shared under a name, creating it with the given credentials on first use.
+	 * Shared engines live until they are closed, normally for the life of the gateway.
+	 */
+	public static LambdaInvocationEngine shared(String name, Supplier<AWSCredentialsProvider> credentials) {
+		LambdaInvocationEngine engine = SHARED.get(name);
+		if (engine != null) {
+			return engine;
+		}
+		return SHARED.computeIfAbsent(name, key -> {
+			Trace.info("Creating shared Lambda invocation engine: " + key);
+			return new LambdaInvocationEngine(key, credentials.get(), null, LambdaTransport.SDK_V1);
+		});
+	}
+
+	/**
+	 * Runs an invocation (retries, region failover and deadline included) without touching any message.
+	 * Outcome attributes are added to the invocation.
+	 */
+	public InvokeResult execute(LambdaInvocation invocation) throws LambdaInvocationException, InterruptedException {
+		return processor.executeInvocation(invocation);
+	}
+
+	/**
+	 * Runs an invocation for a message and sets the aws.lambda.* result attributes like the filter does.
+	 * Returns false if the invocation or the function failed (aws.lambda.error is then set).
+	 */
+	public boolean invoke(Message msg, LambdaInvocation invocation) {
+		if (invocation.getRegions() == null) {
+			invocation.withRegions(java.util.Collections.singletonList(System.getenv("AWS_DEFAULT_REGION")));
+		}
+		try {
+			InvokeResult invokeResult = execute(invocation);
+			msg.putAll(invocation.getAttributes());
+			return processor.processInvokeResult(invokeResult, msg, invocation.getFunctionName(), null);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			Trace.error("Thread interrupted during retry");
+			msg.putAll(invocation.getAttributes());
+			return false;
+		} catch (LambdaInvocationException e) {
+			msg.putAll(invocation.getAttributes());
+			msg.put("aws.lambda.error", e.getMessage());
+			return false;
+		}
+	}
+
+	public LambdaTransport getTransport() {
+		return transport;
+	}
+
+	/**
+	 * Closes the clients of the engine (and unregisters it if it is shared)
+	 */
+	public void close() {
+		if (name != null) {
+			SHARED.remove(name, this);
+		}
+		transport.close();
+	}
+
+	@Override
+	public String toString() {
+		return (name != null ? name : "private") + " engine, " + transport.getName() + " transport";
+	}
+}
@@ -0,0 +1,13 @@
+package com.axway.aws.lambda;
+
+/**
+ * Thrown when a Lambda invocation failed after all retries and region failovers
+ */
+public class LambdaInvocationException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public LambdaInvocationException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,60 @@
+package com.axway.aws.lambda;
+
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.lambda.model.InvokeResult;
+
+/**
+ * Handle of an invocation started by the Start Lambda Invocation filter.
+ *
+ * It is stored on the message and consumed by the Await Lambda Result filter,
+ * which waits on the future and publishes the result with the processor that
+ * started the invocation.
+ */
+public final class LambdaInvocationHandle {
+
+	private final Future<InvokeResult> future;
+	private final LambdaInvocation invocation;
+	private final InvokeLambdaFunctionProcessor processor;
+	private final Integer memorySize;
+	private final long startNanos = System.nanoTime();
+
+	LambdaInvocationHandle(Future<InvokeResult> future, LambdaInvocation invocation, InvokeLambdaFunctionProcessor processor, Integer memorySize) {
+		this.future = future;
+		this.invocation = invocation;
+		this.processor = processor;
+		this.memorySize = memorySize;
+	}
+
+	public Future<InvokeResult> getFuture() {
+		return future;
+	}
+
+	public LambdaInvocation getInvocation() {
+		return invocation;
+	}
+
+	InvokeLambdaFunctionProcessor getProcessor() {
+		return processor;
+	}
+
+	public Integer getMemorySize() {
+		return memorySize;
+	}
+
+	public boolean isDone() {
+		return future.isDone();
+	}
+
+	/**
+	 * Milliseconds since the invocation was submitted
+	 */
+	public long getElapsedMillis() {
+		return (System.nanoTime() - startNanos) / 1_000_000L;
+	}
+
+	@Override
+	public String toString() {
+		return "LambdaInvocationHandle[" + invocation.getFunctionName() + (isDone() ? ", done" : ", running") + ", " + getElapsedMillis() + "ms]";
+	}
+}
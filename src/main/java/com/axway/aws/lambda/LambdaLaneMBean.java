@@ -0,0 +1,46 @@
+package com.axway.aws.lambda;
+
+/**
+ * Management interface of a priority lane of a Lambda filter.
+ *
+ * Wait times are measured from submission to the start of the invocation on a
+ * lane thread, in microseconds.
+ */
+public interface LambdaLaneMBean {
+
+	int getThreads();
+
+	int getQueueCapacity();
+
+	int getConnections();
+
+	long getMaxWaitMillis();
+
+	/**
+	 * Invocations waiting for a lane thread
+	 */
+	int getQueueDepth();
+
+	/**
+	 * Invocations running on lane threads
+	 */
+	int getActiveCount();
+
+	long getSubmittedCount();
+
+	/**
+	 * Invocations refused because the queue was full
+	 */
+	long getRejectedCount();
+
+	/**
+	 * Invocations dropped because they waited longer than the maximum wait
+	 */
+	long getExpiredCount();
+
+	long getWaitP50();
+
+	long getWaitP99();
+
+	long getWaitMax();
+}
@@ -0,0 +1,336 @@
+package com.axway.aws.lambda;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.vordel.trace.Trace;
+
+/**
+ * Priority lanes of a Lambda filter: each lane runs its invocations on its own
+ * bounded executor, with its own transport (and connection pool), so a backlog
+ * in one lane does not take threads or connections from the others.
+ *
+ * Lanes are configured one per line as
+ *
+ *   name [threads=N] [queue=N] [connections=N] [maxWait=ms]
+ *
+ * threads defaults to 16, queue to a quarter of the threads (at least 1),
+ * connections to the threads, and maxWait to 0 (no limit). An invocation is
+ * refused when the lane queue is full, or when maxWait cannot be met: the
+ * queued invocations ahead of it, at the median service time of the lane,
+ * would keep it waiting longer. It is dropped if it still waited more than
+ * maxWait for a thread.
+ *
+ * The gateway thread submitting an invocation waits for its result, so a
+ * saturated lane still holds up to threads + queue gateway threads; the other
+ * lanes and the gateway threads beyond that are not affected. Keep the queue
+ * small to keep that number close to the lane threads.
+ *
+ * Invocations naming no known lane go to the lane called "default", or to the
+ * first lane. Each lane is registered as an MBean
+ * (com.axway.aws.lambda:type=LambdaLane,filter=<filter>,name=<lane>).
+ */
+public final class LambdaLanes {
+
+	public static final String DEFAULT_LANE = "default";
+
+	private final Map<String, Lane> lanes = new LinkedHashMap<>();
+	private final Lane defaultLane;
+	private final List<ObjectName> registered = new ArrayList<>();
+
+	private LambdaLanes(List<Lane> lanes) {
+		for (Lane lane : lanes) {
+			this.lanes.put(lane.name, lane);
+		}
+		this.defaultLane = this.lanes.containsKey(DEFAULT_LANE) ? this.lanes.get(DEFAULT_LANE) : lanes.get(0);
+	}
+
+	/**
+	 * Parses the lanes. Returns null if none is configured.
+	 *
+	 * @param transports creates the transport of a lane for a number of connections
+	 */
+	public static LambdaLanes parse(String spec, IntFunction<LambdaTransport> transports) {
+		if (spec == null) {
+			return null;
+		}
+		List<Lane> lanes = new ArrayList<>();
+		for (String line : spec.split("\\r?\\n")) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] tokens = line.split("\\s+");
+			int threads = 16;
+			int queue = -1;
+			int connections = -1;
+			long maxWait = 0;
+			for (int i = 1; i < tokens.length; i++) {
+				int eq = tokens[i].indexOf('=');
+				try {
+					String key = eq > 0 ? tokens[i].substring(0, eq) : tokens[i];
+					long value = Long.parseLong(tokens[i].substring(eq + 1));
+					switch (key) {
+						case "threads":
+							threads = (int) Math.max(1, value);
+							break;
+						case "queue":
+							queue = (int) Math.max(1, value);
+							break;
+						case "connections":
+							connections = (int) Math.max(1, value);
+							break;
+						case "maxWait":
+							maxWait = Math.max(0, value);
+							break;
+						default:
+							Trace.error("Unknown priority lane setting " + key + ": " + line);
+					}
+				} catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+					Trace.error("Invalid priority lane setting " + tokens[i] + ": " + line);
+				}
+			}
+			connections = connections > 0 ? connections : threads;
+			lanes.add(new Lane(tokens[0], threads, queue > 0 ? queue : Math.max(1, threads / 4), connections, maxWait, transports.apply(connections)));
+		}
+		return lanes.isEmpty() ? null : new LambdaLanes(lanes);
+	}
+
+	/**
+	 * Returns the lane with the given name, or the default lane
+	 */
+	public Lane get(String name) {
+		Lane lane = name != null ? lanes.get(name.trim()) : null;
+		return lane != null ? lane : defaultLane;
+	}
+
+	public java.util.Collection<Lane> getLanes() {
+		return lanes.values();
+	}
+
+	/**
+	 * Registers the MBeans of the lanes
+	 */
+	public synchronized void register(String filterName) {
+		for (Lane lane : lanes.values()) {
+			try {
+				ObjectName objectName = new ObjectName("com.axway.aws.lambda:type=LambdaLane,filter=" + ObjectName.quote(filterName) +
+					",name=" + ObjectName.quote(lane.name) + ",instance=" + System.identityHashCode(this));
+				registered.add(ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(lane, LambdaLaneMBean.class), objectName).getObjectName());
+			} catch (Exception e) {
+				Trace.error("Could not register the MBean of priority lane " + lane.name + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Unregisters the MBeans, stops the lane threads and closes the lane transports
+	 */
+	public synchronized void close() {
+		for (ObjectName objectName : registered) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			} catch (Exception e) {
+				Trace.error("Could not unregister " + objectName + ": " + e.getMessage());
+			}
+		}
+		registered.clear();
+		for (Lane lane : lanes.values()) {
+			Trace.info("Priority lane closed: " + lane);
+			lane.executor.shutdownNow();
+			lane.transport.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for (Lane lane : lanes.values()) {
+			result.append(result.length() > 0 ? "; " : "").append(lane.name).append(" (threads=").append(lane.threads)
+				.append(", queue=").append(lane.queueCapacity).append(", connections=").append(lane.connections)
+				.append(lane.maxWaitMillis > 0 ? ", maxWait=" + lane.maxWaitMillis + "ms" : "").append(')');
+		}
+		return result.append(", default lane ").append(defaultLane.name).toString();
+	}
+
+	/**
+	 * A lane: bounded executor and transport
+	 */
+	public static final class Lane implements LambdaLaneMBean {
+		private final String name;
+		private final int threads;
+		private final int queueCapacity;
+		private final int connections;
+		private final long maxWaitMillis;
+		private final LambdaTransport transport;
+		private final ThreadPoolExecutor executor;
+		private final LatencyHistogram wait = new LatencyHistogram();
+		private final LatencyHistogram service = new LatencyHistogram();
+		private final LongAdder submitted = new LongAdder();
+		private final LongAdder rejected = new LongAdder();
+		private final LongAdder expired = new LongAdder();
+
+		Lane(String name, int threads, int queueCapacity, int connections, long maxWaitMillis, LambdaTransport transport) {
+			this.name = name;
+			this.threads = threads;
+			this.queueCapacity = queueCapacity;
+			this.connections = connections;
+			this.maxWaitMillis = maxWaitMillis;
+			this.transport = transport;
+			this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), LambdaExecutors.daemonThreadFactory("lambda-lane-" + name));
+			executor.allowCoreThreadTimeOut(true);
+		}
+
+		/**
+		 * Runs a task on a lane thread and waits for its result. The time spent in the
+		 * queue (ms) and the queue depth at submission are added to the attributes.
+		 *
+		 * @throws LambdaInvocationException if the lane is saturated or the task fails with it
+		 */
+		public <T> T execute(Callable<T> task, Map<String, Object> attributes) throws LambdaInvocationException, InterruptedException {
+			long submittedAt = System.nanoTime();
+			int depth = executor.getQueue().size();
+			attributes.put("aws.lambda.lane", name);
+			attributes.put("aws.lambda.lane.queue.depth", depth);
+			// Refuse before queuing when the invocations ahead would exceed maxWait
+			if (maxWaitMillis > 0 && depth > 0 && service.getCount() > 0) {
+				long expectedMicros = (depth / threads + 1L) * service.valueAtPercentile(50);
+				if (expectedMicros > TimeUnit.MILLISECONDS.toMicros(maxWaitMillis)) {
+					expired.increment();
+					attributes.put("aws.lambda.lane.rejected", true);
+					throw new LambdaInvocationException("Priority lane " + name + " saturated: " + depth + " invocations queued, expected wait " +
+						TimeUnit.MICROSECONDS.toMillis(expectedMicros) + "ms (max " + maxWaitMillis + "ms)", null);
+				}
+			}
+			Future<T> future;
+			try {
+				future = executor.submit(() -> {
+					long waited = System.nanoTime() - submittedAt;
+					wait.record(TimeUnit.NANOSECONDS.toMicros(waited));
+					attributes.put("aws.lambda.lane.wait.ms", TimeUnit.NANOSECONDS.toMillis(waited));
+					if (maxWaitMillis > 0 && waited > TimeUnit.MILLISECONDS.toNanos(maxWaitMillis)) {
+						expired.increment();
+						throw new LambdaInvocationException("Priority lane " + name + " saturated: waited " +
+							TimeUnit.NANOSECONDS.toMillis(waited) + "ms for a thread (max " + maxWaitMillis + "ms)", null);
+					}
+					long started = System.nanoTime();
+					try {
+						return task.call();
+					} finally {
+						service.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+					}
+				});
+				submitted.increment();
+			} catch (RejectedExecutionException e) {
+				rejected.increment();
+				attributes.put("aws.lambda.lane.rejected", true);
+				throw new LambdaInvocationException("Priority lane " + name + " saturated: " + queueCapacity + " invocations queued", e);
+			}
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				throw e;
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof LambdaInvocationException) {
+					throw (LambdaInvocationException) cause;
+				}
+				if (cause instanceof InterruptedException) {
+					throw new LambdaInvocationException("Invocation interrupted in priority lane " + name, cause);
+				}
+				throw new LambdaInvocationException(String.valueOf(cause.getMessage()), cause);
+			}
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public LambdaTransport getTransport() {
+			return transport;
+		}
+
+		@Override
+		public int getThreads() {
+			return threads;
+		}
+
+		@Override
+		public int getQueueCapacity() {
+			return queueCapacity;
+		}
+
+		@Override
+		public int getConnections() {
+			return connections;
+		}
+
+		@Override
+		public long getMaxWaitMillis() {
+			return maxWaitMillis;
+		}
+
+		@Override
+		public int getQueueDepth() {
+			return executor.getQueue().size();
+		}
+
+		@Override
+		public int getActiveCount() {
+			return executor.getActiveCount();
+		}
+
+		@Override
+		public long getSubmittedCount() {
+			return submitted.sum();
+		}
+
+		@Override
+		public long getRejectedCount() {
+			return rejected.sum();
+		}
+
+		@Override
+		public long getExpiredCount() {
+			return expired.sum();
+		}
+
+		@Override
+		public long getWaitP50() {
+			return wait.valueAtPercentile(50);
+		}
+
+		@Override
+		public long getWaitP99() {
+			return wait.valueAtPercentile(99);
+		}
+
+		@Override
+		public long getWaitMax() {
+			return wait.getMax();
+		}
+
+		@Override
+		public String toString() {
+			return name + ": submitted=" + getSubmittedCount() + ", rejected=" + getRejectedCount() + ", expired=" + getExpiredCount() +
+				", queued=" + getQueueDepth() + ", active=" + getActiveCount() + "\n  wait(us) " + wait + "\n  service(us) " + service;
+		}
+	}
+}
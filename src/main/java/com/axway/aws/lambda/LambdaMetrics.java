@@ -0,0 +1,128 @@
+package com.axway.aws.lambda;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-function invocation telemetry collected from Lambda REPORT lines.
+ *
+ * Each filter keeps its functions in a {@link Registry} bounded to a number of
+ * functions, as function names may come from the message. The registry is
+ * published by the filter's tuning MBean (FunctionMetrics). Durations are
+ * recorded in microseconds, memory in MB.
+ */
+public final class LambdaMetrics {
+
+	private final String functionName;
+	private final LongAdder reports = new LongAdder();
+	private final LongAdder coldStarts = new LongAdder();
+	private final LatencyHistogram duration = new LatencyHistogram();
+	private final LatencyHistogram billedDuration = new LatencyHistogram();
+	private final LatencyHistogram initDuration = new LatencyHistogram();
+	private final LatencyHistogram memoryHeadroom = new LatencyHistogram();
+
+	private LambdaMetrics(String functionName) {
+		this.functionName = functionName;
+	}
+
+	/**
+	 * Records a parsed REPORT line
+	 */
+	public void record(LambdaTailLogParser.Report report, int headroomMb) {
+		reports.increment();
+		if (report.durationMs >= 0) {
+			duration.record(Math.round(report.durationMs * 1000));
+		}
+		if (report.billedDurationMs >= 0) {
+			billedDuration.record(report.billedDurationMs * 1000);
+		}
+		if (report.isColdStart()) {
+			coldStarts.increment();
+			initDuration.record(Math.round(report.initDurationMs * 1000));
+		}
+		if (headroomMb >= 0) {
+			memoryHeadroom.record(headroomMb);
+		}
+	}
+
+	public String getFunctionName() {
+		return functionName;
+	}
+
+	public long getReportCount() {
+		return reports.sum();
+	}
+
+	public long getColdStartCount() {
+		return coldStarts.sum();
+	}
+
+	public LatencyHistogram getDuration() {
+		return duration;
+	}
+
+	public LatencyHistogram getBilledDuration() {
+		return billedDuration;
+	}
+
+	public LatencyHistogram getInitDuration() {
+		return initDuration;
+	}
+
+	public LatencyHistogram getMemoryHeadroom() {
+		return memoryHeadroom;
+	}
+
+	@Override
+	public String toString() {
+		return functionName + ": reports=" + getReportCount() + ", coldStarts=" + getColdStartCount() +
+			"\n  duration(us) " + duration +
+			"\n  billed(us) " + billedDuration +
+			"\n  init(us) " + initDuration +
+			"\n  headroom(MB) " + memoryHeadroom;
+	}
+
+	/**
+	 * Metrics of the functions invoked by one filter. Beyond maxFunctions, the function
+	 * reported least recently is dropped.
+	 */
+	public static final class Registry {
+		private final int maxFunctions;
+		private final LinkedHashMap<String, LambdaMetrics> functions;
+
+		public Registry(int maxFunctions) {
+			this.maxFunctions = Math.max(1, maxFunctions);
+			this.functions = new LinkedHashMap<String, LambdaMetrics>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, LambdaMetrics> eldest) {
+					return size() > Registry.this.maxFunctions;
+				}
+			};
+		}
+
+		/**
+		 * Returns the metrics for a function, creating them on first use
+		 */
+		public synchronized LambdaMetrics forFunction(String functionName) {
+			return functions.computeIfAbsent(functionName != null ? functionName : "", LambdaMetrics::new);
+		}
+
+		@Override
+		public String toString() {
+			List<LambdaMetrics> snapshot;
+			synchronized (this) {
+				snapshot = new ArrayList<>(functions.values());
+			}
+			StringBuilder result = new StringBuilder();
+			for (LambdaMetrics metrics : snapshot) {
+				result.append(result.length() > 0 ? "\n" : "").append(metrics);
+			}
+			return result.toString();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.axway.aws.lambda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vordel.circuit.Message;
+import com.vordel.el.Selector;
+import com.vordel.mime.HeaderSet;
+
+/**
+ * JSON payload template compiled once into a render plan.
+ *
+ * String values holding selector expressions are the dynamic parts of the
+ * template. A value that is a single expression ("${http.request.verb}") is
+ * written with the JSON type of its result: maps and lists as objects and
+ * arrays, HeaderSet as an object, a JSON body embedded as is, other bodies as
+ * a string. A value mixing text and expressions ("${a}-${b}") is written as a
+ * string. Everything else is serialized at compile time, so rendering only
+ * copies literal bytes and writes the expression results:
+ *
+ *   {"method":"${http.request.verb}","path":"${http.request.path}","body":"${content.body}","source":"gateway"}
+ */
+public final class LambdaPayloadTemplate {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final JsonFactory JSON = MAPPER.getFactory();
+	private static final Pattern SINGLE_EXPRESSION = Pattern.compile("\\$\\{[^{}]+\\}");
+
+	private final List<Object> segments;
+	private final int expressions;
+	private volatile int sizeHint = 256;
+
+	private LambdaPayloadTemplate(List<Object> segments, int expressions) {
+		this.segments = segments;
+		this.expressions = expressions;
+	}
+
+	/**
+	 * Compiles a JSON template. Returns null for an empty template.
+	 *
+	 * @throws IOException if the template is not valid JSON
+	 */
+	public static LambdaPayloadTemplate compile(String template) throws IOException {
+		if (template == null || template.trim().isEmpty()) {
+			return null;
+		}
+		JsonNode root = MAPPER.readTree(template);
+		List<Object> segments = new ArrayList<>();
+		ByteArrayOutputStream literal = new ByteArrayOutputStream();
+		int expressions;
+		try (JsonGenerator gen = JSON.createGenerator(literal)) {
+			expressions = compile(root, gen, literal, segments);
+			gen.flush();
+		}
+		if (literal.size() > 0) {
+			segments.add(literal.toByteArray());
+		}
+		return new LambdaPayloadTemplate(segments, expressions);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static int compile(JsonNode node, JsonGenerator gen, ByteArrayOutputStream literal, List<Object> segments) throws IOException {
+		int expressions = 0;
+		if (node.isObject()) {
+			gen.writeStartObject();
+			Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				gen.writeFieldName(field.getKey());
+				expressions += compile(field.getValue(), gen, literal, segments);
+			}
+			gen.writeEndObject();
+		} else if (node.isArray()) {
+			gen.writeStartArray();
+			for (JsonNode element : node) {
+				expressions += compile(element, gen, literal, segments);
+			}
+			gen.writeEndArray();
+		} else if (node.isTextual() && node.textValue().contains("${")) {
+			// Close the literal here; the generator keeps track of separators
+			gen.writeRawValue("");
+			gen.flush();
+			if (literal.size() > 0) {
+				segments.add(literal.toByteArray());
+				literal.reset();
+			}
+			String text = node.textValue();
+			if (SINGLE_EXPRESSION.matcher(text).matches()) {
+				segments.add(new Selector(text, Object.class));
+			} else {
+				segments.add(new Expression(new Selector<>(text, String.class)));
+			}
+			expressions++;
+		} else {
+			gen.writeTree(node);
+		}
+		return expressions;
+	}
+
+	/**
+	 * Renders the template for a message into UTF-8 JSON bytes
+	 */
+	@SuppressWarnings("rawtypes")
+	public byte[] render(Message msg) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint);
+		try (JsonGenerator gen = JSON.createGenerator(out)) {
+			gen.setRootValueSeparator(null);
+			for (Object segment : segments) {
+				if (segment instanceof byte[]) {
+					out.write((byte[]) segment);
+				} else if (segment instanceof Expression) {
+					String value = ((Expression) segment).selector.substitute(msg);
+					if (value == null) {
+						gen.writeNull();
+					} else {
+						gen.writeString(value);
+					}
+					gen.flush();
+				} else {
+					writeValue(gen, ((Selector) segment).substitute(msg));
+					gen.flush();
+				}
+			}
+		}
+		byte[] payload = out.toByteArray();
+		sizeHint = Math.max(256, payload.length);
+		return payload;
+	}
+
+	private static void writeValue(JsonGenerator gen, Object value) throws IOException {
+		if (value == null) {
+			gen.writeNull();
+		} else if (value instanceof String) {
+			gen.writeString((String) value);
+		} else if (value instanceof Number || value instanceof Boolean || value instanceof Map || value instanceof Collection) {
+			MAPPER.writeValue(gen, value);
+		} else if (value instanceof byte[]) {
+			gen.writeBinary((byte[]) value);
+		} else if (value instanceof HeaderSet) {
+			HeaderSet headers = (HeaderSet) value;
+			gen.writeStartObject();
+			Iterator<String> names = headers.getHeaderNames();
+			while (names.hasNext()) {
+				String name = names.next();
+				gen.writeStringField(name, headers.getHeader(name));
+			}
+			gen.writeEndObject();
+		} else if (value.getClass().getName().contains("vordel.mime.Body")) {
+			writeBody(gen, value);
+		} else {
+			gen.writeString(value.toString());
+		}
+	}
+
+	/**
+	 * Writes a message body: JSON bodies are embedded as is, other bodies as a string
+	 */
+	private static void writeBody(JsonGenerator gen, Object body) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		try {
+			body.getClass().getMethod("write", java.io.OutputStream.class, int.class).invoke(body, os, 0);
+		} catch (Exception e) {
+			throw new IOException("Could not write message body: " + e.getMessage(), e);
+		}
+		String content = new String(os.toByteArray(), StandardCharsets.UTF_8);
+		if (body.getClass().getName().contains("JSONBody") && !content.trim().isEmpty()) {
+			gen.writeRawValue(content);
+		} else {
+			gen.writeString(content);
+		}
+	}
+
+	/**
+	 * Number of selector expressions evaluated per render
+	 */
+	public int getExpressionCount() {
+		return expressions;
+	}
+
+	@Override
+	public String toString() {
+		return segments.size() + " segments, " + expressions + " expressions";
+	}
+
+	/**
+	 * Value mixing text and expressions, always written as a string
+	 */
+	private static final class Expression {
+		final Selector<String> selector;
+
+		Expression(Selector<String> selector) {
+			this.selector = selector;
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package com.axway.aws.lambda;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * API Gateway proxy-format response returned by a function:
+ *
+ *   {"statusCode":200,"headers":{...},"multiValueHeaders":{...},"cookies":[...],"body":"...","isBase64Encoded":false}
+ *
+ * Parsed in one pass with the streaming parser, without building a tree. When
+ * isBase64Encoded precedes the body, the body is decoded straight from the
+ * parser into bytes.
+ */
+public final class LambdaProxyResponse {
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private int statusCode = 200;
+	private final Map<String, List<String>> headers = new LinkedHashMap<>();
+	private byte[] body = new byte[0];
+	private boolean base64Encoded;
+
+	private LambdaProxyResponse() {
+	}
+
+	/**
+	 * Parses a proxy response. Throws IOException if the payload is not a JSON object.
+	 */
+	public static LambdaProxyResponse parse(ByteBuffer payload) throws IOException {
+		LambdaProxyResponse response = new LambdaProxyResponse();
+		ByteBuffer data = payload.duplicate();
+		byte[] bytes;
+		int offset;
+		if (data.hasArray()) {
+			bytes = data.array();
+			offset = data.arrayOffset() + data.position();
+		} else {
+			bytes = new byte[data.remaining()];
+			data.get(bytes);
+			offset = 0;
+		}
+
+		String textBody = null;
+		try (JsonParser parser = JSON.createParser(bytes, offset, payload.remaining())) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("Lambda response is not a proxy response object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+				if ("statusCode".equals(field) && value.isNumeric()) {
+					response.statusCode = parser.getIntValue();
+				} else if ("statusCode".equals(field) && value == JsonToken.VALUE_STRING) {
+					response.statusCode = Integer.parseInt(parser.getText().trim());
+				} else if ("headers".equals(field) && value == JsonToken.START_OBJECT) {
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String name = parser.getCurrentName();
+						if (parser.nextToken().isStructStart()) {
+							// not a header value, skip the nested structure
+							parser.skipChildren();
+						} else {
+							response.addHeader(name, parser.getValueAsString());
+						}
+					}
+				} else if ("multiValueHeaders".equals(field) && value == JsonToken.START_OBJECT) {
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String name = parser.getCurrentName();
+						if (parser.nextToken() == JsonToken.START_ARRAY) {
+							// multiValueHeaders replaces the single value of the same header
+							response.headers.remove(name);
+							while (parser.nextToken() != JsonToken.END_ARRAY) {
+								if (parser.currentToken().isStructStart()) {
+									parser.skipChildren();
+								} else {
+									response.addHeader(name, parser.getValueAsString());
+								}
+							}
+						} else {
+							parser.skipChildren();
+						}
+					}
+				} else if ("cookies".equals(field) && value == JsonToken.START_ARRAY) {
+					while (parser.nextToken() != JsonToken.END_ARRAY) {
+						if (parser.currentToken().isStructStart()) {
+							parser.skipChildren();
+						} else {
+							response.addHeader("Set-Cookie", parser.getValueAsString());
+						}
+					}
+				} else if ("isBase64Encoded".equals(field)) {
+					response.base64Encoded = value == JsonToken.VALUE_TRUE ||
+						(value == JsonToken.VALUE_STRING && "true".equalsIgnoreCase(parser.getText()));
+				} else if ("body".equals(field) && value == JsonToken.VALUE_STRING) {
+					if (response.base64Encoded) {
+						response.body = parser.getBinaryValue(Base64Variants.MIME_NO_LINEFEEDS);
+					} else {
+						textBody = parser.getText();
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+
+		// Body seen before the isBase64Encoded flag
+		if (textBody != null) {
+			response.body = response.base64Encoded ? java.util.Base64.getMimeDecoder().decode(textBody) : textBody.getBytes(StandardCharsets.UTF_8);
+		}
+		return response;
+	}
+
+	private void addHeader(String name, String value) {
+		if (name != null && value != null) {
+			headers.computeIfAbsent(name, k -> new ArrayList<>(1)).add(value);
+		}
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Headers in response order, including Set-Cookie headers from the cookies list
+	 */
+	public Map<String, List<String>> getHeaders() {
+		return headers;
+	}
+
+	/**
+	 * Returns the first value of a header, ignoring case
+	 */
+	public String getHeader(String name) {
+		for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+			if (entry.getKey().equalsIgnoreCase(name) && !entry.getValue().isEmpty()) {
+				return entry.getValue().get(0);
+			}
+		}
+		return null;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	public boolean isBase64Encoded() {
+		return base64Encoded;
+	}
+}
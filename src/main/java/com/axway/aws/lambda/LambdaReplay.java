@@ -0,0 +1,274 @@
+package com.axway.aws.lambda;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.vordel.circuit.Message;
+import com.vordel.el.Selector;
+import com.vordel.mime.ContentType;
+import com.vordel.mime.HeaderSet;
+import com.vordel.mime.QueryStringHeaderSet;
+
+/**
+ * Replays a capture log ({@link LambdaCapture}) against a local Lambda endpoint.
+ *
+ * Each record is turned back into a message with synthetic values of the
+ * recorded sizes and shapes, then run through the filter: payload build with
+ * the recorded field mapping, and invoke with the filter's retry loop. The log
+ * is written in completion order, so records are sorted by their start time and
+ * started at their offsets from the first one divided by the speed-up factor; a
+ * record that cannot get a worker in time starts late and is counted as such.
+ * The invoke phase (retries included) is timed as it was when recording.
+ *
+ * Usage: java -cp <filter jar and gateway libraries> com.axway.aws.lambda.LambdaReplay
+ *     <capture file> <endpoint URL> [speed-up factor, 1] [concurrency, 16] [region, us-east-1] [function name override]
+ */
+public final class LambdaReplay {
+
+	static final String FUNCTION_ATTRIBUTE = "aws.lambda.replay.function";
+	static final String INVOCATION_TYPE_ATTRIBUTE = "aws.lambda.replay.invocation.type";
+
+	private final AWSLambdaClientBuilder builder;
+	private final EndpointTransport transport;
+	private final String region;
+	private final String functionOverride;
+	private final LatencyHistogram replayed = new LatencyHistogram();
+	private final LatencyHistogram recorded = new LatencyHistogram();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong statusMismatches = new AtomicLong();
+
+	LambdaReplay(String endpoint, String region, String functionOverride) {
+		this.region = region;
+		this.functionOverride = functionOverride;
+		this.builder = AWSLambdaClientBuilder.standard()
+			.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("replay", "replay")))
+			.withEndpointConfiguration(new EndpointConfiguration(endpoint, region));
+		this.transport = new EndpointTransport(builder.build(), endpoint);
+	}
+
+	/**
+	 * Creates a processor with the payload mapping of the capturing filter. Every
+	 * mapping gets its own processor, fully configured before any worker uses it,
+	 * and all of them share the endpoint transport.
+	 */
+	private InvokeLambdaFunctionProcessor newProcessor(LambdaCapture.Mapping mapping) throws Exception {
+		InvokeLambdaFunctionProcessor processor = new InvokeLambdaFunctionProcessor();
+		processor.configureEngine(builder, transport);
+		processor.functionName = new Selector<>("${" + FUNCTION_ATTRIBUTE + "}", String.class);
+		processor.invocationType = new Selector<>("${" + INVOCATION_TYPE_ATTRIBUTE + "}", String.class);
+		processor.awsRegion = new Selector<>(region, String.class);
+		processor.logType = new Selector<>("None", String.class);
+		processor.qualifier = new Selector<>("", String.class);
+		processor.retryDelay = new Selector<>("100", Integer.class);
+		processor.memorySize = new Selector<>("128", Integer.class);
+		processor.credentialType = new Selector<>("local", String.class);
+		processor.useIAMRole = new Selector<>("false", Boolean.class);
+		processor.credentialsFilePath = new Selector<>("", String.class);
+		processor.tailSampleRate = new Selector<>("0", Integer.class);
+		processor.crossRegionRetries = new Selector<>("1", Integer.class);
+		processor.invocationTimeout = new Selector<>("0", Integer.class);
+		String[] fields = mapping.fields;
+		processor.payloadMethodField = new Selector<>(fields[0], String.class);
+		processor.payloadHeadersField = new Selector<>(fields[1], String.class);
+		processor.payloadBodyField = new Selector<>(fields[2], String.class);
+		processor.payloadUriField = new Selector<>(fields[3], String.class);
+		processor.payloadQueryStringField = new Selector<>(fields[4], String.class);
+		processor.payloadParamsPathField = new Selector<>(fields[5], String.class);
+		processor.payloadBodyEncoding = mapping.bodyEncoding != null ? mapping.bodyEncoding : InvokeLambdaFunctionProcessor.BODY_ENCODING_TEXT;
+		processor.payloadTemplate = LambdaPayloadTemplate.compile(mapping.template);
+		return processor;
+	}
+
+	/**
+	 * Rebuilds a message with the recorded shape of the mapping inputs
+	 */
+	Message toMessage(LambdaCapture.Record record) throws Exception {
+		Message msg = new Message();
+		msg.put(FUNCTION_ATTRIBUTE, functionOverride != null ? functionOverride : record.functionName);
+		msg.put(INVOCATION_TYPE_ATTRIBUTE, record.invocationType);
+		if (record.verb != null) {
+			msg.put("http.request.verb", record.verb);
+		}
+		if (record.uri != null) {
+			msg.put("http.request.uri", record.uri);
+		}
+		HeaderSet headers = new HeaderSet();
+		for (int i = 0; i < record.headerNames.size(); i++) {
+			String name = record.headerNames.get(i);
+			headers.addHeader(name, "Content-Type".equalsIgnoreCase(name) && record.contentType != null ?
+				record.contentType : LambdaCapture.filler(record.headerLengths.get(i)));
+		}
+		msg.put("http.headers", headers);
+		if (!record.queryNames.isEmpty()) {
+			QueryStringHeaderSet query = new QueryStringHeaderSet();
+			for (int i = 0; i < record.queryNames.size(); i++) {
+				for (int length : record.queryLengths.get(i)) {
+					query.addHeader(record.queryNames.get(i), LambdaCapture.filler(length));
+				}
+			}
+			msg.put("http.querystring", query);
+		}
+		if (!record.pathNames.isEmpty()) {
+			Map<String, String> pathParams = new HashMap<>();
+			for (int i = 0; i < record.pathNames.size(); i++) {
+				pathParams.put(record.pathNames.get(i), LambdaCapture.filler(record.pathLengths.get(i)));
+			}
+			msg.put("params.path", pathParams);
+		}
+		String body = record.body.restore();
+		if (body != null) {
+			String contentType = record.contentType != null ? record.contentType :
+				record.body.kind == LambdaCapture.BODY_JSON ? "application/json" : "application/octet-stream";
+			HeaderSet bodyHeaders = new HeaderSet();
+			bodyHeaders.addHeader("Content-Type", contentType);
+			msg.put("content.body", com.vordel.mime.Body.create(bodyHeaders, new ContentType(ContentType.Authority.MIME, contentType),
+				new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))));
+		}
+		String lambdaBody = record.lambdaBody.restore();
+		if (lambdaBody != null) {
+			msg.put("lambda.body", lambdaBody);
+		}
+		return msg;
+	}
+
+	/**
+	 * Replays every record of the log; returns the number of records replayed
+	 */
+	long replay(String file, double speedUp, int concurrency) throws Exception {
+		ExecutorService workers = LambdaExecutors.newInvocationExecutor("lambda-replay", concurrency);
+		Semaphore slots = new Semaphore(concurrency);
+		long count = 0;
+		long late = 0;
+		long firstTimestamp = -1;
+		List<LambdaCapture.Record> records;
+		try (LambdaCapture.Reader reader = new LambdaCapture.Reader(Paths.get(file))) {
+			records = reader.readStartOrdered();
+		}
+		// Records of one capture block share their mapping instance
+		Map<LambdaCapture.Mapping, InvokeLambdaFunctionProcessor> processors = new IdentityHashMap<>();
+		for (LambdaCapture.Record record : records) {
+			if (!processors.containsKey(record.mapping)) {
+				processors.put(record.mapping, newProcessor(record.mapping));
+			}
+		}
+		long started = System.nanoTime();
+		try {
+			for (LambdaCapture.Record record : records) {
+				if (firstTimestamp < 0) {
+					firstTimestamp = record.timestamp;
+				}
+				long due = started + (long) (TimeUnit.MILLISECONDS.toNanos(record.timestamp - firstTimestamp) / speedUp);
+				long wait = due - System.nanoTime();
+				if (wait > 0) {
+					TimeUnit.NANOSECONDS.sleep(wait);
+				}
+				if (!slots.tryAcquire()) {
+					late++;
+					slots.acquire();
+				}
+				Message msg = toMessage(record);
+				LambdaCapture.Record source = record;
+				InvokeLambdaFunctionProcessor processor = processors.get(record.mapping);
+				workers.execute(() -> {
+					try {
+						run(processor, msg, source);
+					} finally {
+						slots.release();
+					}
+				});
+				count++;
+			}
+		} finally {
+			workers.shutdown();
+			workers.awaitTermination(5, TimeUnit.MINUTES);
+			transport.close();
+		}
+		System.out.println("Replayed " + count + " invocations in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) +
+			"ms (speed-up " + speedUp + "), " + late + " started late, " + failed.get() + " failed, " + statusMismatches.get() + " with another status");
+		System.out.println("Replay invoke latency (ms): " + replayed);
+		System.out.println("Recorded invoke latency (ms): " + recorded);
+		return count;
+	}
+
+	private void run(InvokeLambdaFunctionProcessor processor, Message msg, LambdaCapture.Record record) {
+		// The filter times the invoke phase into the record found on the message
+		LambdaCapture.Record probe = new LambdaCapture.Record();
+		msg.put("aws.lambda.capture", probe);
+		boolean result;
+		try {
+			result = processor.invoke(null, msg);
+		} catch (Exception e) {
+			result = false;
+		}
+		if (probe.invokeNanos > 0 && record.invokeNanos > 0) {
+			replayed.record(TimeUnit.NANOSECONDS.toMillis(probe.invokeNanos));
+			recorded.record(TimeUnit.NANOSECONDS.toMillis(record.invokeNanos));
+		}
+		if (!result) {
+			failed.incrementAndGet();
+		}
+		Object status = msg.get("aws.lambda.http.status.code");
+		if (record.statusCode != 0 && !Integer.valueOf(record.statusCode).equals(status)) {
+			statusMismatches.incrementAndGet();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: LambdaReplay <capture file> <endpoint URL> [speed-up factor] [concurrency] [region] [function name]");
+			System.exit(2);
+		}
+		double speedUp = args.length > 2 ? Double.parseDouble(args[2]) : 1.0;
+		int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 16;
+		String region = args.length > 4 ? args[4] : "us-east-1";
+		String function = args.length > 5 ? args[5] : null;
+		if (speedUp <= 0) {
+			throw new IllegalArgumentException("The speed-up factor must be positive");
+		}
+		new LambdaReplay(args[1], region, function).replay(args[0], speedUp, Math.max(1, concurrency));
+	}
+
+	/**
+	 * Sends every region to the configured endpoint
+	 */
+	private static final class EndpointTransport implements LambdaTransport {
+		private final AWSLambda client;
+		private final String endpoint;
+
+		EndpointTransport(AWSLambda client, String endpoint) {
+			this.client = client;
+			this.endpoint = endpoint;
+		}
+
+		@Override
+		public InvokeResult invoke(String region, InvokeRequest request) {
+			return client.invoke(request);
+		}
+
+		@Override
+		public String getName() {
+			return "replay " + endpoint;
+		}
+
+		@Override
+		public void close() {
+			client.shutdown();
+		}
+	}
+}
@@ -0,0 +1,213 @@
+package com.axway.aws.lambda;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.vordel.trace.Trace;
+
+/**
+ * Projects fields of a JSON response into message attributes in one streaming pass.
+ *
+ * Mappings are configured one per line as "attribute=path", where path is a
+ * JSON Pointer (/order/id) or a simple JSONPath ($.order.items[0].sku). The
+ * response is read with the streaming parser: subtrees that cannot contain a
+ * requested path are skipped, and parsing stops once every path is found.
+ * Scalars are stored with their Java type; objects and arrays as JSON strings.
+ */
+public final class LambdaResponseProjection {
+
+	private static final JsonFactory JSON = new JsonFactory();
+	private static final Pattern JSON_PATH_SEGMENT = Pattern.compile("\\.([^.\\[]+)|\\[(\\d+)\\]|\\['([^']*)'\\]|\\[\"([^\"]*)\"\\]");
+
+	// Pointer -> attributes it is stored in
+	private final Map<String, List<String>> attributes = new LinkedHashMap<>();
+	// Pointers of the containers leading to a requested path
+	private final Set<String> prefixes = new HashSet<>();
+
+	private LambdaResponseProjection() {
+	}
+
+	/**
+	 * Parses the mappings. Returns null if none is configured.
+	 */
+	public static LambdaResponseProjection parse(String spec) {
+		if (spec == null) {
+			return null;
+		}
+		LambdaResponseProjection projection = new LambdaResponseProjection();
+		for (String line : spec.split("\\r?\\n")) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int eq = line.indexOf('=');
+			if (eq <= 0 || eq == line.length() - 1) {
+				Trace.error("Invalid response projection (expected attribute=path): " + line);
+				continue;
+			}
+			String attribute = line.substring(0, eq).trim();
+			String pointer = toPointer(line.substring(eq + 1).trim());
+			if (pointer == null) {
+				Trace.error("Invalid response projection path: " + line);
+				continue;
+			}
+			projection.attributes.computeIfAbsent(pointer, k -> new ArrayList<>(1)).add(attribute);
+			for (int slash = pointer.lastIndexOf('/'); slash >= 0; slash = pointer.lastIndexOf('/', slash - 1)) {
+				projection.prefixes.add(pointer.substring(0, slash));
+				if (slash == 0) {
+					break;
+				}
+			}
+		}
+		return projection.attributes.isEmpty() ? null : projection;
+	}
+
+	/**
+	 * Converts a JSON Pointer or simple JSONPath to a JSON Pointer. Returns null if invalid.
+	 */
+	static String toPointer(String path) {
+		if (path.isEmpty() || path.startsWith("/")) {
+			return path;
+		}
+		if (!path.startsWith("$")) {
+			return null;
+		}
+		StringBuilder pointer = new StringBuilder();
+		Matcher matcher = JSON_PATH_SEGMENT.matcher(path);
+		int position = 1;
+		while (position < path.length()) {
+			if (!matcher.find(position) || matcher.start() != position) {
+				return null;
+			}
+			String segment = matcher.group(1) != null ? matcher.group(1) :
+				matcher.group(2) != null ? matcher.group(2) :
+				matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+			pointer.append('/').append(escape(segment));
+			position = matcher.end();
+		}
+		return pointer.toString();
+	}
+
+	private static String escape(String name) {
+		return name.indexOf('~') < 0 && name.indexOf('/') < 0 ? name : name.replace("~", "~0").replace("/", "~1");
+	}
+
+	/**
+	 * Evaluates the mappings over a JSON payload. Paths not found are absent from the result.
+	 */
+	public Map<String, Object> project(ByteBuffer payload) throws IOException {
+		Map<String, Object> result = new HashMap<>();
+		ByteBuffer data = payload.duplicate();
+		byte[] bytes;
+		int offset;
+		if (data.hasArray()) {
+			bytes = data.array();
+			offset = data.arrayOffset() + data.position();
+		} else {
+			bytes = new byte[data.remaining()];
+			data.get(bytes);
+			offset = 0;
+		}
+		try (JsonParser parser = JSON.createParser(bytes, offset, data.remaining())) {
+			if (parser.nextToken() != null) {
+				visit(parser, "", new int[] { attributes.size() }, result);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Visits the value at the current token. Returns false once every path is found.
+	 */
+	private boolean visit(JsonParser parser, String pointer, int[] remaining, Map<String, Object> result) throws IOException {
+		List<String> targets = attributes.get(pointer);
+		if (targets != null) {
+			boolean container = parser.currentToken().isStructStart();
+			Object value = readValue(parser);
+			for (String attribute : targets) {
+				result.put(attribute, value);
+			}
+			if (--remaining[0] == 0) {
+				return false;
+			}
+			// Paths below a projected container are read from its copy
+			if (container && prefixes.contains(pointer)) {
+				try (JsonParser copy = JSON.createParser((String) value)) {
+					copy.nextToken();
+					return descend(copy, pointer, remaining, result);
+				}
+			}
+			return true;
+		}
+		if (!parser.currentToken().isStructStart()) {
+			return true;
+		}
+		if (!prefixes.contains(pointer)) {
+			parser.skipChildren();
+			return true;
+		}
+		return descend(parser, pointer, remaining, result);
+	}
+
+	private boolean descend(JsonParser parser, String pointer, int[] remaining, Map<String, Object> result) throws IOException {
+		if (parser.currentToken() == JsonToken.START_OBJECT) {
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String child = pointer + "/" + escape(parser.getCurrentName());
+				parser.nextToken();
+				if (!visit(parser, child, remaining, result)) {
+					return false;
+				}
+			}
+		} else {
+			int index = 0;
+			while (parser.nextToken() != JsonToken.END_ARRAY) {
+				if (!visit(parser, pointer + "/" + index++, remaining, result)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static Object readValue(JsonParser parser) throws IOException {
+		switch (parser.currentToken()) {
+			case VALUE_STRING:
+				return parser.getText();
+			case VALUE_NUMBER_INT:
+			case VALUE_NUMBER_FLOAT:
+				return parser.getNumberValue();
+			case VALUE_TRUE:
+				return Boolean.TRUE;
+			case VALUE_FALSE:
+				return Boolean.FALSE;
+			case VALUE_NULL:
+				return null;
+			default:
+				// Object or array: copy the subtree as JSON text
+				StringWriter json = new StringWriter();
+				try (JsonGenerator gen = JSON.createGenerator(json)) {
+					gen.copyCurrentStructure(parser);
+				}
+				return json.toString();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return attributes.toString();
+	}
+}
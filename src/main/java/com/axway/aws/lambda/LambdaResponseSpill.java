@@ -0,0 +1,249 @@
+package com.axway.aws.lambda;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vordel.trace.Trace;
+
+/**
+ * Response size policy of a filter.
+ *
+ * Responses up to the spill threshold stay on the heap. Larger responses are
+ * written to a temporary file and exposed as a stream over a memory-mapped
+ * view of it, so they live in the page cache instead of the heap. The memory
+ * limit caps the bytes held by the filter at any time: heap responses while
+ * they are processed, spilled responses until their stream is read or closed.
+ * Above the limit, responses are rejected.
+ *
+ * A policy may never read content.body, or replace it. A spilled response is
+ * therefore also released, and its file deleted, once its stream is garbage
+ * collected (phantom reference) or after MAX_HOLD_MILLIS, whichever comes
+ * first. The mapping stays readable after its file is deleted.
+ */
+public final class LambdaResponseSpill {
+
+	/** Longest time a spilled response is held against the memory limit */
+	static final long MAX_HOLD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+	private static final ReferenceQueue<MappedStream> COLLECTED = new ReferenceQueue<>();
+	private static final Set<Lease> LEASES = ConcurrentHashMap.newKeySet();
+	private static final AtomicBoolean REAPER_STARTED = new AtomicBoolean();
+
+	private final long threshold;
+	private final long memoryLimit;
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong spilled = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * @param threshold response size in bytes above which responses are spilled (0 or less: never)
+	 * @param memoryLimit maximum bytes of responses held by the filter (0 or less: no limit)
+	 */
+	public LambdaResponseSpill(long threshold, long memoryLimit) {
+		this.threshold = threshold;
+		this.memoryLimit = memoryLimit;
+	}
+
+	public boolean shouldSpill(long size) {
+		return threshold > 0 && size > threshold;
+	}
+
+	/**
+	 * Reserves response bytes against the memory limit. Returns false if the limit would be exceeded.
+	 */
+	public boolean acquire(long size) {
+		if (memoryLimit <= 0) {
+			inFlight.addAndGet(size);
+			return true;
+		}
+		while (true) {
+			long current = inFlight.get();
+			if (current + size > memoryLimit) {
+				rejected.incrementAndGet();
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + size)) {
+				return true;
+			}
+		}
+	}
+
+	public void release(long size) {
+		inFlight.addAndGet(-size);
+	}
+
+	/**
+	 * Writes the payload to a temporary file and returns a stream over its mapping.
+	 * The bytes must have been acquired; they are released when the stream ends or is closed.
+	 */
+	public InputStream spill(ByteBuffer payload) throws IOException {
+		int size = payload.remaining();
+		Path file = Files.createTempFile("lambda-response-", ".json");
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer data = payload.duplicate();
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			spilled.incrementAndGet();
+			startReaper();
+			MappedStream stream = new MappedStream(mapped);
+			stream.lease = new Lease(stream, this, file, size);
+			LEASES.add(stream.lease);
+			return stream;
+		} catch (IOException | RuntimeException e) {
+			Files.deleteIfExists(file);
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the spilled responses of this policy still held (filter detached)
+	 */
+	public void close() {
+		for (Lease lease : LEASES) {
+			if (lease.owner == this) {
+				lease.finish();
+			}
+		}
+	}
+
+	/**
+	 * Starts the daemon thread releasing collected and expired spilled responses
+	 */
+	private static void startReaper() {
+		if (!REAPER_STARTED.compareAndSet(false, true)) {
+			return;
+		}
+		LambdaExecutors.daemonThreadFactory("lambda-spill-reaper").newThread(() -> {
+			while (true) {
+				try {
+					Reference<? extends MappedStream> collected = COLLECTED.remove(1000);
+					while (collected != null) {
+						((Lease) collected).finish();
+						collected = COLLECTED.poll();
+					}
+					long now = System.currentTimeMillis();
+					for (Lease lease : LEASES) {
+						if (now > lease.deadline) {
+							Trace.info("Spilled Lambda response of " + lease.size + " bytes not read within " + MAX_HOLD_MILLIS + "ms, released");
+							lease.finish();
+						}
+					}
+				} catch (InterruptedException e) {
+					return;
+				} catch (RuntimeException e) {
+					Trace.error("Spilled Lambda response reaper: " + e.getMessage());
+				}
+			}
+		}).start();
+	}
+
+	public long getInFlightBytes() {
+		return inFlight.get();
+	}
+
+	public long getSpilledCount() {
+		return spilled.get();
+	}
+
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	@Override
+	public String toString() {
+		return "spill above " + (threshold > 0 ? threshold + " bytes" : "never") + ", memory limit " + (memoryLimit > 0 ? memoryLimit + " bytes" : "none");
+	}
+
+	/**
+	 * Bytes and file of a spilled response, released once: at the end of the stream, when
+	 * it is closed or collected, or when it was held too long. Holds no reference to the stream.
+	 */
+	private static final class Lease extends PhantomReference<MappedStream> {
+		private final LambdaResponseSpill owner;
+		private final Path file;
+		private final int size;
+		private final long deadline = System.currentTimeMillis() + MAX_HOLD_MILLIS;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		Lease(MappedStream stream, LambdaResponseSpill owner, Path file, int size) {
+			super(stream, COLLECTED);
+			this.owner = owner;
+			this.file = file;
+			this.size = size;
+		}
+
+		void finish() {
+			if (released.compareAndSet(false, true)) {
+				LEASES.remove(this);
+				owner.release(size);
+				try {
+					// The mapping stays valid until collected; the file name goes now
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					Trace.error("Could not delete spilled Lambda response " + file + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stream over a spilled response. The file is deleted and the bytes released once it is exhausted or closed.
+	 */
+	private static final class MappedStream extends InputStream {
+		private final MappedByteBuffer buffer;
+		private Lease lease;
+
+		MappedStream(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			if (!buffer.hasRemaining()) {
+				lease.finish();
+				return -1;
+			}
+			return buffer.get() & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				lease.finish();
+				return -1;
+			}
+			int n = Math.min(len, buffer.remaining());
+			buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+
+		@Override
+		public void close() {
+			lease.finish();
+		}
+	}
+}
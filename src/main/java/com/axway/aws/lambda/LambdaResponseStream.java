@@ -0,0 +1,251 @@
+package com.axway.aws.lambda;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Response of a streamed Lambda invocation, read by the gateway as the body of the response.
+ *
+ * The transport pushes payload chunks as they arrive. At most bufferChunks
+ * chunks are requested ahead of the reader: each chunk taken by the reader
+ * requests one more, so a slow client slows down the stream instead of
+ * growing the buffer. The completion listener runs on the reading thread once
+ * the end of the stream is reached.
+ */
+public class LambdaResponseStream extends InputStream {
+
+	private static final byte[] END = new byte[0];
+
+	private final int bufferChunks;
+	private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+	private final CountDownLatch started = new CountDownLatch(1);
+	private final AtomicBoolean finished = new AtomicBoolean();
+
+	private volatile Integer statusCode;
+	private volatile String executedVersion;
+	private volatile String contentType;
+	private volatile String errorCode;
+	private volatile String errorDetails;
+	private volatile String logResult;
+	private volatile Throwable failure;
+	private volatile LongConsumer demand;
+	private volatile Runnable cancel;
+
+	// Reader state, only used by the reading thread
+	private byte[] current;
+	private int position;
+	private long bytesRead;
+	private boolean eof;
+	private Consumer<LambdaResponseStream> completionListener;
+
+	public LambdaResponseStream(int bufferChunks) {
+		this.bufferChunks = Math.max(1, bufferChunks);
+	}
+
+	// Producer side (transport)
+
+	/**
+	 * Number of chunks to request when the stream is subscribed
+	 */
+	public int getBufferChunks() {
+		return bufferChunks;
+	}
+
+	public void onDemand(LongConsumer demand) {
+		this.demand = demand;
+	}
+
+	public void onCancel(Runnable cancel) {
+		this.cancel = cancel;
+	}
+
+	/**
+	 * Called when the initial response (status and headers) is received
+	 */
+	public void start(Integer statusCode, String executedVersion, String contentType) {
+		this.statusCode = statusCode;
+		this.executedVersion = executedVersion;
+		this.contentType = contentType;
+		started.countDown();
+	}
+
+	public void chunk(byte[] chunk) {
+		if (chunk != null && chunk.length > 0 && !finished.get()) {
+			chunks.add(chunk);
+		}
+	}
+
+	/**
+	 * Called when the stream ends. errorCode is set if the function failed while streaming.
+	 */
+	public void complete(String errorCode, String errorDetails, String logResult) {
+		if (finished.compareAndSet(false, true)) {
+			this.errorCode = errorCode;
+			this.errorDetails = errorDetails;
+			this.logResult = logResult;
+			chunks.add(END);
+		}
+	}
+
+	public void fail(Throwable failure) {
+		if (finished.compareAndSet(false, true)) {
+			this.failure = failure;
+			chunks.add(END);
+		}
+		started.countDown();
+	}
+
+	/**
+	 * Waits for the initial response. Throws the failure if the invocation failed before it.
+	 *
+	 * @param timeoutMillis maximum wait, 0 or less to wait until the transport gives up
+	 */
+	public void awaitStart(long timeoutMillis) throws Exception {
+		if (timeoutMillis > 0) {
+			if (!started.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+				throw new TimeoutException("No Lambda response after " + timeoutMillis + "ms");
+			}
+		} else {
+			started.await();
+		}
+		Throwable error = failure;
+		if (statusCode == null && error != null) {
+			throw error instanceof Exception ? (Exception) error : new Exception(error);
+		}
+	}
+
+	// Consumer side (gateway)
+
+	/**
+	 * Sets the callback run on the reading thread when the end of the stream is reached
+	 */
+	public void setCompletionListener(Consumer<LambdaResponseStream> completionListener) {
+		this.completionListener = completionListener;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!fill()) {
+			return -1;
+		}
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() {
+		return current != null ? current.length - position : 0;
+	}
+
+	private boolean fill() throws IOException {
+		while (current == null || position >= current.length) {
+			if (eof) {
+				return false;
+			}
+			byte[] next;
+			try {
+				next = chunks.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while reading Lambda response stream");
+			}
+			if (next == END) {
+				eof = true;
+				current = null;
+				notifyCompletion();
+				if (failure != null) {
+					throw new IOException("Lambda response stream failed: " + failure.getMessage(), failure);
+				}
+				if (errorCode != null) {
+					throw new IOException("Lambda function error while streaming: " + errorCode + (errorDetails != null ? ": " + errorDetails : ""));
+				}
+				return false;
+			}
+			current = next;
+			position = 0;
+			bytesRead += next.length;
+			LongConsumer request = demand;
+			if (request != null) {
+				request.accept(1);
+			}
+		}
+		return true;
+	}
+
+	private void notifyCompletion() {
+		Consumer<LambdaResponseStream> listener = completionListener;
+		completionListener = null;
+		if (listener != null) {
+			listener.accept(this);
+		}
+	}
+
+	@Override
+	public void close() {
+		if (!eof) {
+			eof = true;
+			// The reader gave up (e.g. client disconnected): stop the transfer
+			Runnable stop = cancel;
+			if (stop != null) {
+				stop.run();
+			}
+			fail(new IOException("Response stream closed by the reader"));
+			notifyCompletion();
+		}
+		chunks.clear();
+	}
+
+	public Integer getStatusCode() {
+		return statusCode;
+	}
+
+	public String getExecutedVersion() {
+		return executedVersion;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	public String getErrorDetails() {
+		return errorDetails;
+	}
+
+	public String getLogResult() {
+		return logResult;
+	}
+
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	public long getBytesRead() {
+		return bytesRead;
+	}
+}
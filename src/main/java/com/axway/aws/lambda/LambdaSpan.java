@@ -0,0 +1,108 @@
+package com.axway.aws.lambda;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One timed phase of a filter invocation.
+ *
+ * Start and end are epoch nanoseconds computed from System.nanoTime() readings
+ * (see {@link LambdaTraceContext#epochNanos(long)}), so durations come from the
+ * monotonic clock. Ids are lowercase hex, as in W3C trace context.
+ */
+public final class LambdaSpan {
+
+	public static final String KIND_INTERNAL = "INTERNAL";
+	public static final String KIND_CLIENT = "CLIENT";
+	public static final String KIND_SERVER = "SERVER";
+
+	private final String traceId;
+	private final String spanId;
+	private final String parentSpanId;
+	private final String name;
+	private final String kind;
+	private final long startEpochNanos;
+	private final long endEpochNanos;
+	private final Map<String, Object> attributes = new LinkedHashMap<>(4);
+	private String errorMessage;
+
+	LambdaSpan(String traceId, String spanId, String parentSpanId, String name, String kind, long startEpochNanos, long endEpochNanos) {
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.parentSpanId = parentSpanId;
+		this.name = name;
+		this.kind = kind;
+		this.startEpochNanos = startEpochNanos;
+		this.endEpochNanos = endEpochNanos;
+	}
+
+	/**
+	 * Adds an attribute (ignored when the value is null)
+	 */
+	public LambdaSpan attribute(String key, Object value) {
+		if (value != null) {
+			attributes.put(key, value);
+		}
+		return this;
+	}
+
+	/**
+	 * Marks the span as failed
+	 */
+	public LambdaSpan error(String message) {
+		this.errorMessage = message != null ? message : "error";
+		return this;
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public String getSpanId() {
+		return spanId;
+	}
+
+	/**
+	 * Parent span id, null for a root span
+	 */
+	public String getParentSpanId() {
+		return parentSpanId;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getKind() {
+		return kind;
+	}
+
+	public long getStartEpochNanos() {
+		return startEpochNanos;
+	}
+
+	public long getEndEpochNanos() {
+		return endEpochNanos;
+	}
+
+	public long getDurationNanos() {
+		return endEpochNanos - startEpochNanos;
+	}
+
+	public Map<String, Object> getAttributes() {
+		return attributes;
+	}
+
+	public boolean isError() {
+		return errorMessage != null;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	@Override
+	public String toString() {
+		return name + " " + (getDurationNanos() / 1000) + "us" + (attributes.isEmpty() ? "" : " " + attributes) + (isError() ? " error: " + errorMessage : "");
+	}
+}
@@ -0,0 +1,29 @@
+package com.axway.aws.lambda;
+
+import java.util.List;
+
+/**
+ * Receives the spans of each traced filter invocation.
+ *
+ * Export is called on the message thread once the filter is done with the
+ * message, so implementations must not block: sinks writing to files or the
+ * network queue the spans and write them in the background. They must be safe
+ * for concurrent use.
+ */
+public interface LambdaSpanSink {
+
+	String NONE = "none";
+	String TRACE = "trace";
+	String FILE = "file";
+	String OTLP = "otlp";
+
+	/**
+	 * Exports the spans of one invocation
+	 */
+	void export(List<LambdaSpan> spans);
+
+	/**
+	 * Flushes queued spans and releases the sink
+	 */
+	void close();
+}
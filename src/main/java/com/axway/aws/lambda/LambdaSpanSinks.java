@@ -0,0 +1,392 @@
+package com.axway.aws.lambda;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.vordel.trace.Trace;
+
+/**
+ * Creates the span sink selected in the filter configuration.
+ *
+ *   trace - one trace line per span, written on the message thread
+ *   file  - JSON lines appended to a file (endpoint = file path)
+ *   otlp  - OTLP/HTTP JSON export to a collector (endpoint = traces URL)
+ *
+ * The file and OTLP sinks queue spans in a bounded queue drained by a daemon
+ * thread in batches; spans are dropped, and counted, when the queue is full.
+ */
+public final class LambdaSpanSinks {
+
+	public static final String DEFAULT_OTLP_ENDPOINT = "http://localhost:4318/v1/traces";
+	public static final String DEFAULT_FILE = "lambda-spans.jsonl";
+
+	private static final JsonFactory JSON = new JsonFactory();
+	private static final String SERVICE_NAME = "axway-api-gateway";
+	private static final String SCOPE_NAME = "com.axway.aws.lambda";
+
+	private LambdaSpanSinks() {
+	}
+
+	/**
+	 * Creates a sink. Returns null for "none", an empty or an unknown type.
+	 */
+	public static LambdaSpanSink create(String type, String endpoint) {
+		String target = endpoint != null ? endpoint.trim() : "";
+		if (LambdaSpanSink.TRACE.equalsIgnoreCase(type)) {
+			return new TraceSink();
+		}
+		if (LambdaSpanSink.FILE.equalsIgnoreCase(type)) {
+			return new FileSink(Paths.get(target.isEmpty() ? DEFAULT_FILE : target)).start();
+		}
+		if (LambdaSpanSink.OTLP.equalsIgnoreCase(type)) {
+			try {
+				return new OtlpSink(new URL(target.isEmpty() ? DEFAULT_OTLP_ENDPOINT : target)).start();
+			} catch (IOException e) {
+				Trace.error("Invalid OTLP endpoint " + target + ", spans are not exported: " + e.getMessage());
+				return null;
+			}
+		}
+		if (type != null && !type.isEmpty() && !LambdaSpanSink.NONE.equalsIgnoreCase(type)) {
+			Trace.error("Unknown span exporter: " + type);
+		}
+		return null;
+	}
+
+	/**
+	 * Writes spans to the gateway trace
+	 */
+	static final class TraceSink implements LambdaSpanSink {
+
+		@Override
+		public void export(List<LambdaSpan> spans) {
+			if (spans.isEmpty()) {
+				return;
+			}
+			Trace.info("=== Lambda Spans (trace " + spans.get(0).getTraceId() + ") ===");
+			for (LambdaSpan span : spans) {
+				Trace.info(span.toString());
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public String toString() {
+			return TRACE;
+		}
+	}
+
+	/**
+	 * Queues spans and writes them in batches from a daemon thread
+	 */
+	abstract static class BatchingSink implements LambdaSpanSink, Runnable {
+		private static final int QUEUE_CAPACITY = 8192;
+		private static final int BATCH_SIZE = 512;
+		private static final long FLUSH_MILLIS = 1000;
+
+		private final BlockingQueue<LambdaSpan> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		private final AtomicLong exported = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private final String name;
+		private volatile boolean closed;
+		private Thread worker;
+
+		BatchingSink(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Starts the writer thread, once the sink is fully constructed
+		 */
+		LambdaSpanSink start() {
+			worker = LambdaExecutors.daemonThreadFactory(name).newThread(this);
+			worker.start();
+			return this;
+		}
+
+		@Override
+		public void export(List<LambdaSpan> spans) {
+			for (LambdaSpan span : spans) {
+				if (closed || !queue.offer(span)) {
+					dropped.incrementAndGet();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			List<LambdaSpan> batch = new ArrayList<>(BATCH_SIZE);
+			while (!closed || !queue.isEmpty()) {
+				try {
+					LambdaSpan first = queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+					if (first == null) {
+						continue;
+					}
+					batch.add(first);
+				} catch (InterruptedException e) {
+					// close() interrupts a stuck write: drain what is left without waiting
+					if (queue.isEmpty()) {
+						break;
+					}
+				}
+				queue.drainTo(batch, BATCH_SIZE - batch.size());
+				try {
+					write(batch);
+					exported.addAndGet(batch.size());
+				} catch (Exception e) {
+					dropped.addAndGet(batch.size());
+					Trace.error("Could not export " + batch.size() + " spans to " + this + ": " + e.getMessage());
+				}
+				batch.clear();
+			}
+			closeResources();
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			if (worker != null) {
+				try {
+					worker.join(TimeUnit.SECONDS.toMillis(5));
+					if (worker.isAlive()) {
+						worker.interrupt();
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (dropped.get() > 0) {
+				Trace.info("Span exporter " + this + ": " + exported.get() + " spans exported, " + dropped.get() + " dropped");
+			}
+		}
+
+		abstract void write(List<LambdaSpan> batch) throws IOException;
+
+		void closeResources() {
+		}
+	}
+
+	/**
+	 * Appends spans as JSON lines to a file
+	 */
+	static final class FileSink extends BatchingSink {
+		private final Path file;
+		private OutputStream out;
+
+		FileSink(Path file) {
+			super("lambda-span-file");
+			this.file = file;
+		}
+
+		@Override
+		void write(List<LambdaSpan> batch) throws IOException {
+			if (out == null) {
+				out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+			}
+			ByteArrayOutputStream lines = new ByteArrayOutputStream(batch.size() * 256);
+			for (LambdaSpan span : batch) {
+				try (JsonGenerator gen = JSON.createGenerator(lines, JsonEncoding.UTF8)) {
+					gen.writeStartObject();
+					gen.writeStringField("traceId", span.getTraceId());
+					gen.writeStringField("spanId", span.getSpanId());
+					if (span.getParentSpanId() != null) {
+						gen.writeStringField("parentSpanId", span.getParentSpanId());
+					}
+					gen.writeStringField("name", span.getName());
+					gen.writeStringField("kind", span.getKind());
+					gen.writeNumberField("startTimeUnixNano", span.getStartEpochNanos());
+					gen.writeNumberField("endTimeUnixNano", span.getEndEpochNanos());
+					gen.writeNumberField("durationNanos", span.getDurationNanos());
+					gen.writeObjectFieldStart("attributes");
+					for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+						gen.writeFieldName(attribute.getKey());
+						writeScalar(gen, attribute.getValue());
+					}
+					gen.writeEndObject();
+					if (span.isError()) {
+						gen.writeStringField("error", span.getErrorMessage());
+					}
+					gen.writeEndObject();
+				}
+				lines.write('\n');
+			}
+			try {
+				lines.writeTo(out);
+				out.flush();
+			} catch (IOException e) {
+				// Reopen on the next batch (file rotated or deleted)
+				closeResources();
+				throw e;
+			}
+		}
+
+		private static void writeScalar(JsonGenerator gen, Object value) throws IOException {
+			if (value instanceof Long || value instanceof Integer) {
+				gen.writeNumber(((Number) value).longValue());
+			} else if (value instanceof Number) {
+				gen.writeNumber(((Number) value).doubleValue());
+			} else if (value instanceof Boolean) {
+				gen.writeBoolean((Boolean) value);
+			} else {
+				gen.writeString(String.valueOf(value));
+			}
+		}
+
+		@Override
+		void closeResources() {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					Trace.error("Could not close span file " + file + ": " + e.getMessage());
+				}
+				out = null;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return FILE + " " + file;
+		}
+	}
+
+	/**
+	 * Posts spans to an OpenTelemetry collector with OTLP/HTTP in JSON encoding
+	 */
+	static final class OtlpSink extends BatchingSink {
+		private static final int TIMEOUT_MILLIS = 5000;
+
+		private final URL endpoint;
+
+		OtlpSink(URL endpoint) {
+			super("lambda-span-otlp");
+			this.endpoint = endpoint;
+		}
+
+		@Override
+		void write(List<LambdaSpan> batch) throws IOException {
+			ByteArrayOutputStream body = new ByteArrayOutputStream(batch.size() * 384);
+			try (JsonGenerator gen = JSON.createGenerator(body, JsonEncoding.UTF8)) {
+				gen.writeStartObject();
+				gen.writeArrayFieldStart("resourceSpans");
+				gen.writeStartObject();
+				gen.writeObjectFieldStart("resource");
+				gen.writeArrayFieldStart("attributes");
+				writeAttribute(gen, "service.name", SERVICE_NAME);
+				gen.writeEndArray();
+				gen.writeEndObject();
+				gen.writeArrayFieldStart("scopeSpans");
+				gen.writeStartObject();
+				gen.writeObjectFieldStart("scope");
+				gen.writeStringField("name", SCOPE_NAME);
+				gen.writeEndObject();
+				gen.writeArrayFieldStart("spans");
+				for (LambdaSpan span : batch) {
+					writeSpan(gen, span);
+				}
+				gen.writeEndArray();
+				gen.writeEndObject();
+				gen.writeEndArray();
+				gen.writeEndObject();
+				gen.writeEndArray();
+				gen.writeEndObject();
+			}
+
+			HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+			try {
+				connection.setRequestMethod("POST");
+				connection.setConnectTimeout(TIMEOUT_MILLIS);
+				connection.setReadTimeout(TIMEOUT_MILLIS);
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/json");
+				connection.setFixedLengthStreamingMode(body.size());
+				try (OutputStream out = connection.getOutputStream()) {
+					body.writeTo(out);
+				}
+				int status = connection.getResponseCode();
+				if (status >= 300) {
+					throw new IOException("collector returned HTTP " + status);
+				}
+			} finally {
+				connection.disconnect();
+			}
+		}
+
+		private static void writeSpan(JsonGenerator gen, LambdaSpan span) throws IOException {
+			gen.writeStartObject();
+			gen.writeStringField("traceId", span.getTraceId());
+			gen.writeStringField("spanId", span.getSpanId());
+			if (span.getParentSpanId() != null) {
+				gen.writeStringField("parentSpanId", span.getParentSpanId());
+			}
+			gen.writeStringField("name", span.getName());
+			gen.writeNumberField("kind", kind(span.getKind()));
+			// 64-bit integers are strings in the OTLP JSON encoding
+			gen.writeStringField("startTimeUnixNano", Long.toString(span.getStartEpochNanos()));
+			gen.writeStringField("endTimeUnixNano", Long.toString(span.getEndEpochNanos()));
+			gen.writeArrayFieldStart("attributes");
+			for (Map.Entry<String, Object> attribute : span.getAttributes().entrySet()) {
+				writeAttribute(gen, attribute.getKey(), attribute.getValue());
+			}
+			gen.writeEndArray();
+			if (span.isError()) {
+				gen.writeObjectFieldStart("status");
+				gen.writeNumberField("code", 2);
+				gen.writeStringField("message", span.getErrorMessage());
+				gen.writeEndObject();
+			}
+			gen.writeEndObject();
+		}
+
+		private static int kind(String kind) {
+			if (LambdaSpan.KIND_SERVER.equals(kind)) {
+				return 2;
+			}
+			if (LambdaSpan.KIND_CLIENT.equals(kind)) {
+				return 3;
+			}
+			return 1;
+		}
+
+		private static void writeAttribute(JsonGenerator gen, String key, Object value) throws IOException {
+			gen.writeStartObject();
+			gen.writeStringField("key", key);
+			gen.writeObjectFieldStart("value");
+			if (value instanceof Long || value instanceof Integer) {
+				gen.writeStringField("intValue", value.toString());
+			} else if (value instanceof Number) {
+				gen.writeNumberField("doubleValue", ((Number) value).doubleValue());
+			} else if (value instanceof Boolean) {
+				gen.writeBooleanField("boolValue", (Boolean) value);
+			} else {
+				gen.writeStringField("stringValue", String.valueOf(value));
+			}
+			gen.writeEndObject();
+			gen.writeEndObject();
+		}
+
+		@Override
+		public String toString() {
+			return OTLP + " " + endpoint;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package com.axway.aws.lambda;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Parses the REPORT line of a Lambda Tail log (the base64 LogResult of an invoke).
+ *
+ * The tail is decoded once into a byte array and scanned in place: labels are
+ * matched as raw bytes and numbers are parsed without creating intermediate
+ * strings, so a parse costs a single allocation for the decoded tail.
+ */
+public final class LambdaTailLogParser {
+
+	private static final byte[] REPORT = bytes("REPORT RequestId:");
+	private static final byte[] DURATION = bytes("\tDuration: ");
+	private static final byte[] BILLED_DURATION = bytes("Billed Duration: ");
+	private static final byte[] MEMORY_SIZE = bytes("Memory Size: ");
+	private static final byte[] MAX_MEMORY_USED = bytes("Max Memory Used: ");
+	private static final byte[] INIT_DURATION = bytes("Init Duration: ");
+
+	private LambdaTailLogParser() {
+	}
+
+	/**
+	 * Values extracted from a REPORT line. Missing values are -1.
+	 */
+	public static final class Report {
+		public final double durationMs;
+		public final long billedDurationMs;
+		public final int memorySizeMb;
+		public final int maxMemoryUsedMb;
+		public final double initDurationMs;
+
+		Report(double durationMs, long billedDurationMs, int memorySizeMb, int maxMemoryUsedMb, double initDurationMs) {
+			this.durationMs = durationMs;
+			this.billedDurationMs = billedDurationMs;
+			this.memorySizeMb = memorySizeMb;
+			this.maxMemoryUsedMb = maxMemoryUsedMb;
+			this.initDurationMs = initDurationMs;
+		}
+
+		/**
+		 * Lambda only reports Init Duration for the first invoke of an execution environment
+		 */
+		public boolean isColdStart() {
+			return initDurationMs >= 0;
+		}
+
+		/**
+		 * Unused memory in MB, using the reported memory size or the given fallback
+		 */
+		public int memoryHeadroomMb(int fallbackMemorySizeMb) {
+			int size = memorySizeMb > 0 ? memorySizeMb : fallbackMemorySizeMb;
+			if (size <= 0 || maxMemoryUsedMb < 0) {
+				return -1;
+			}
+			return size - maxMemoryUsedMb;
+		}
+	}
+
+	/**
+	 * Decodes a base64 LogResult and parses its last REPORT line.
+	 * Returns null if the tail is empty, not valid base64 or has no REPORT line.
+	 */
+	public static Report parse(String base64LogResult) {
+		if (base64LogResult == null || base64LogResult.isEmpty()) {
+			return null;
+		}
+		byte[] log;
+		try {
+			log = Base64.getDecoder().decode(base64LogResult);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return parse(log, 0, log.length);
+	}
+
+	/**
+	 * Parses the last REPORT line found in log[from, to)
+	 */
+	public static Report parse(byte[] log, int from, int to) {
+		int start = lastIndexOf(log, from, to, REPORT);
+		if (start < 0) {
+			return null;
+		}
+		int end = start;
+		while (end < to && log[end] != '\n') {
+			end++;
+		}
+		return new Report(
+			decimalAfter(log, start, end, DURATION),
+			(long) decimalAfter(log, start, end, BILLED_DURATION),
+			(int) decimalAfter(log, start, end, MEMORY_SIZE),
+			(int) decimalAfter(log, start, end, MAX_MEMORY_USED),
+			decimalAfter(log, start, end, INIT_DURATION));
+	}
+
+	private static double decimalAfter(byte[] data, int from, int to, byte[] label) {
+		int pos = indexOf(data, from, to, label);
+		if (pos < 0) {
+			return -1;
+		}
+		pos += label.length;
+		long integer = 0;
+		long fraction = 0;
+		long scale = 1;
+		boolean digits = false;
+		boolean inFraction = false;
+		for (; pos < to; pos++) {
+			byte b = data[pos];
+			if (b >= '0' && b <= '9') {
+				digits = true;
+				if (inFraction) {
+					if (scale < 1_000_000_000L) {
+						fraction = fraction * 10 + (b - '0');
+						scale *= 10;
+					}
+				} else {
+					integer = integer * 10 + (b - '0');
+				}
+			} else if (b == '.' && !inFraction) {
+				inFraction = true;
+			} else {
+				break;
+			}
+		}
+		return digits ? integer + (double) fraction / scale : -1;
+	}
+
+	private static int indexOf(byte[] data, int from, int to, byte[] token) {
+		int last = to - token.length;
+		outer:
+		for (int i = from; i <= last; i++) {
+			for (int j = 0; j < token.length; j++) {
+				if (data[i + j] != token[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf(byte[] data, int from, int to, byte[] token) {
+		outer:
+		for (int i = to - token.length; i >= from; i--) {
+			for (int j = 0; j < token.length; j++) {
+				if (data[i + j] != token[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,157 @@
+package com.axway.aws.lambda;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Trace of one filter invocation: the W3C trace context and the spans recorded so far.
+ *
+ * The trace continues the incoming traceparent header when there is a valid
+ * one, and starts a new trace otherwise. The filter itself is the root span;
+ * phases are recorded as its children. The wall clock is read once, when the
+ * trace starts: span times are that base plus System.nanoTime() offsets.
+ *
+ * Spans may be recorded from the invocation threads; the span list is synchronized.
+ */
+public final class LambdaTraceContext {
+
+	public static final String TRACEPARENT_HEADER = "traceparent";
+
+	private static final Pattern TRACEPARENT = Pattern.compile("([0-9a-f]{2})-([0-9a-f]{32})-([0-9a-f]{16})-([0-9a-f]{2})(-.*)?");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final String traceId;
+	private final String remoteParentSpanId;
+	private final String flags;
+	private final String rootSpanId;
+	private final long baseEpochNanos;
+	private final long baseNanos;
+	private final List<LambdaSpan> spans = Collections.synchronizedList(new ArrayList<>());
+
+	private LambdaTraceContext(String traceId, String remoteParentSpanId, String flags) {
+		this.traceId = traceId;
+		this.remoteParentSpanId = remoteParentSpanId;
+		this.flags = flags;
+		this.rootSpanId = newSpanId();
+		this.baseNanos = System.nanoTime();
+		this.baseEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+	}
+
+	/**
+	 * Starts the trace of an invocation, continuing the given traceparent header if it is valid
+	 */
+	public static LambdaTraceContext start(String traceparent) {
+		if (traceparent != null) {
+			Matcher matcher = TRACEPARENT.matcher(traceparent.trim());
+			// Version ff and all-zero ids are invalid; later versions may only add fields
+			if (matcher.matches() && !"ff".equals(matcher.group(1)) && (!"00".equals(matcher.group(1)) || matcher.group(5) == null) &&
+					!isZero(matcher.group(2)) && !isZero(matcher.group(3))) {
+				return new LambdaTraceContext(matcher.group(2), matcher.group(3), matcher.group(4));
+			}
+		}
+		return new LambdaTraceContext(hex(randomNonZero(), randomNonZero()), null, "01");
+	}
+
+	private static boolean isZero(String id) {
+		for (int i = 0; i < id.length(); i++) {
+			if (id.charAt(i) != '0') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long randomNonZero() {
+		long value;
+		do {
+			value = ThreadLocalRandom.current().nextLong();
+		} while (value == 0);
+		return value;
+	}
+
+	private static String hex(long... values) {
+		char[] chars = new char[values.length * 16];
+		int position = 0;
+		for (long value : values) {
+			for (int shift = 60; shift >= 0; shift -= 4) {
+				chars[position++] = HEX[(int) (value >>> shift) & 0xf];
+			}
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Generates a new random span id
+	 */
+	public String newSpanId() {
+		return hex(randomNonZero());
+	}
+
+	/**
+	 * Converts a System.nanoTime() reading to epoch nanoseconds
+	 */
+	public long epochNanos(long nanoTime) {
+		return baseEpochNanos + (nanoTime - baseNanos);
+	}
+
+	/**
+	 * Records a phase of the filter (child of the root span)
+	 */
+	public LambdaSpan span(String name, long startNanos, long endNanos) {
+		return span(newSpanId(), rootSpanId, name, LambdaSpan.KIND_INTERNAL, startNanos, endNanos);
+	}
+
+	/**
+	 * Records a span with explicit ids, for spans whose id is propagated before they end
+	 */
+	public LambdaSpan span(String spanId, String parentSpanId, String name, String kind, long startNanos, long endNanos) {
+		LambdaSpan span = new LambdaSpan(traceId, spanId, parentSpanId, name, kind, epochNanos(startNanos), epochNanos(endNanos));
+		spans.add(span);
+		return span;
+	}
+
+	/**
+	 * W3C traceparent header value identifying the given span of this trace
+	 */
+	public String traceparent(String spanId) {
+		return "00-" + traceId + "-" + spanId + "-" + flags;
+	}
+
+	/**
+	 * Records the root span, from the start of the trace to now, and returns every span of the trace
+	 */
+	public List<LambdaSpan> finish(String name, String kind) {
+		LambdaSpan root = new LambdaSpan(traceId, rootSpanId, remoteParentSpanId, name, kind, baseEpochNanos, epochNanos(System.nanoTime()));
+		synchronized (spans) {
+			spans.add(root);
+			return new ArrayList<>(spans);
+		}
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public String getRootSpanId() {
+		return rootSpanId;
+	}
+
+	/**
+	 * Span id of the caller, null when the trace was started by the filter
+	 */
+	public String getRemoteParentSpanId() {
+		return remoteParentSpanId;
+	}
+
+	/**
+	 * Returns true if the caller asked for the trace to be recorded (sampled flag)
+	 */
+	public boolean isSampled() {
+		return (Integer.parseInt(flags, 16) & 1) != 0;
+	}
+}
@@ -0,0 +1,61 @@
+package com.axway.aws.lambda;
+
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+
+/**
+ * Sends Lambda invoke requests for the processor.
+ *
+ * Requests and results use the SDK v1 model, which the rest of the filter is
+ * written against. Implementations translate them for their own client and
+ * keep one client per region. They must be safe for concurrent use.
+ */
+public interface LambdaTransport {
+
+	String SDK_V1 = "sdkv1";
+	String SDK_V2_NETTY = "sdkv2-netty";
+	String FUNCTION_URL = "function-url";
+
+	/**
+	 * Invokes the function in the given region. A null region uses the default region provider chain.
+	 */
+	InvokeResult invoke(String region, InvokeRequest request) throws Exception;
+
+	/**
+	 * Returns true if the transport supports InvokeWithResponseStream, so that
+	 * {@link #invokeStreaming(String, InvokeRequest, int)} returns the response as it arrives
+	 */
+	default boolean supportsStreaming() {
+		return false;
+	}
+
+	/**
+	 * Invokes the function with response streaming. Returns once the initial response
+	 * is received; the payload is then read from the returned stream.
+	 *
+	 * Transports without streaming support invoke the function with {@link #invoke(String, InvokeRequest)}
+	 * and return the whole response as a stream of one chunk.
+	 */
+	default LambdaResponseStream invokeStreaming(String region, InvokeRequest request, int bufferChunks) throws Exception {
+		InvokeResult result = invoke(region, request);
+		LambdaResponseStream stream = new LambdaResponseStream(bufferChunks);
+		stream.start(result.getStatusCode(), result.getExecutedVersion(), null);
+		if (result.getPayload() != null && result.getPayload().hasRemaining()) {
+			byte[] payload = new byte[result.getPayload().remaining()];
+			result.getPayload().duplicate().get(payload);
+			stream.chunk(payload);
+		}
+		stream.complete(result.getFunctionError(), null, result.getLogResult());
+		return stream;
+	}
+
+	/**
+	 * Name of the transport, for tracing
+	 */
+	String getName();
+
+	/**
+	 * Releases the clients and their connections
+	 */
+	void close();
+}
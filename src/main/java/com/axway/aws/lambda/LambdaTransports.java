@@ -0,0 +1,54 @@
+package com.axway.aws.lambda;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.vordel.trace.Trace;
+
+/**
+ * Creates the transport selected in the filter configuration.
+ *
+ * The SDK v2 transport is loaded reflectively so the filter keeps working on
+ * gateways without the SDK v2 jars: it falls back to the SDK v1 transport.
+ */
+public final class LambdaTransports {
+
+	private static final String SDK_V2_CLASS = "com.axway.aws.lambda.SdkV2LambdaTransport";
+
+	private LambdaTransports() {
+	}
+
+	public static LambdaTransport create(String name, AWSLambdaClientBuilder builder, AWSCredentialsProvider credentials, ClientConfiguration config) {
+		return create(name, builder, credentials, config, null);
+	}
+
+	/**
+	 * @param functionUrl URL of the function, required by the Function URL transport
+	 */
+	public static LambdaTransport create(String name, AWSLambdaClientBuilder builder, AWSCredentialsProvider credentials, ClientConfiguration config,
+			String functionUrl) {
+		if (LambdaTransport.FUNCTION_URL.equalsIgnoreCase(name)) {
+			if (functionUrl != null && !functionUrl.trim().isEmpty()) {
+				try {
+					return new FunctionUrlLambdaTransport(functionUrl, credentials, config);
+				} catch (IllegalArgumentException e) {
+					Trace.error(e.getMessage() + ", using SDK v1");
+				}
+			} else {
+				Trace.error("The Function URL transport requires a Function URL, using SDK v1");
+			}
+		}
+		if (LambdaTransport.SDK_V2_NETTY.equalsIgnoreCase(name)) {
+			try {
+				return (LambdaTransport) Class.forName(SDK_V2_CLASS)
+					.getConstructor(AWSCredentialsProvider.class, ClientConfiguration.class)
+					.newInstance(credentials, config);
+			} catch (LinkageError | ReflectiveOperationException e) {
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				Trace.error("SDK v2 transport not available (" + cause + "), using SDK v1. " +
+					"Add the SDK v2 lambda and netty-nio-client jars to the gateway ext/lib folder.");
+			}
+		}
+		return new SdkV1LambdaTransport(builder);
+	}
+}
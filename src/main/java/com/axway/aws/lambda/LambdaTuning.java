@@ -0,0 +1,387 @@
+package com.axway.aws.lambda;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.vordel.trace.Trace;
+
+/**
+ * Runtime settings of a Lambda filter, managed through JMX.
+ *
+ * Overrides are held in an immutable snapshot replaced on every change, so an
+ * invocation reading the snapshot sees either all of a change or none of it.
+ * The MBean is registered as com.axway.aws.lambda:type=LambdaFilter,name=<filter>,id=<id>
+ * while the filter is attached, where id is a digest of the filter's identity
+ * in the entity store (its key: policy path and name), so that filters of the
+ * same name in different policies are told apart, and keep their id across
+ * deployments. Saved overrides are kept in a properties file <filter>-<id> per
+ * filter, in the directory named by the aws.lambda.tuning.dir system property
+ * (default: conf/lambda-tuning of the instance), and loaded at deploy.
+ */
+public final class LambdaTuning implements LambdaTuningMBean {
+
+	public static final String MAX_RETRIES = "maxRetries";
+	public static final String RETRY_DELAY = "retryDelay";
+	public static final String INVOCATION_TIMEOUT = "invocationTimeout";
+	public static final String MAX_CONCURRENCY = "maxConcurrency";
+	public static final String TAIL_SAMPLE_RATE = "tailSampleRate";
+	public static final String DEDUP_WINDOW = "dedupWindow";
+
+	private static final String DOMAIN = "com.axway.aws.lambda";
+
+	// MBeans registered by this class, with the instance owning each name
+	private static final Map<ObjectName, LambdaTuning> REGISTERED = new ConcurrentHashMap<>();
+
+	private final String name;
+	private final String identity;
+	private final String id;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong rejected = new AtomicLong();
+	private volatile Settings settings = new Settings(Collections.emptyMap());
+	private volatile LongConsumer dedupWindowListener;
+	private volatile LambdaMetrics.Registry functionMetrics;
+	private ObjectName objectName;
+
+	/**
+	 * @param name filter name, used for the MBean and the saved overrides; null for a settings holder without JMX
+	 */
+	public LambdaTuning(String name) {
+		this(name, name);
+	}
+
+	/**
+	 * @param name filter name, shown in the MBean name and the saved overrides file name
+	 * @param identity stable identity of the filter (entity store key), from which the id is derived
+	 */
+	public LambdaTuning(String name, String identity) {
+		this.name = name;
+		this.identity = identity != null ? identity : name;
+		this.id = this.identity != null ? digest(this.identity) : null;
+	}
+
+	/**
+	 * First 12 hex digits of the SHA-256 of the identity
+	 */
+	private static String digest(String identity) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(identity.getBytes(StandardCharsets.UTF_8));
+			StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 6; i++) {
+				hex.append(String.format("%02x", hash[i]));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+	/**
+	 * Current settings snapshot: read it once per decision
+	 */
+	public Settings current() {
+		return settings;
+	}
+
+	/**
+	 * Reserves an invocation slot. Returns false if the concurrency override is reached.
+	 */
+	public boolean tryAcquire() {
+		long limit = settings.get(MAX_CONCURRENCY, Long.MAX_VALUE);
+		if (inFlight.incrementAndGet() > limit) {
+			inFlight.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	public void release() {
+		inFlight.decrementAndGet();
+	}
+
+	/**
+	 * Sets the callback applying a new deduplication window (the configured one on reset)
+	 */
+	public void onDedupWindowChange(LongConsumer listener) {
+		this.dedupWindowListener = listener;
+	}
+
+	/**
+	 * Sets the function metrics published by the MBean
+	 */
+	public void setFunctionMetrics(LambdaMetrics.Registry functionMetrics) {
+		this.functionMetrics = functionMetrics;
+	}
+
+	private synchronized void set(String key, long value) {
+		Map<String, Long> overrides = new TreeMap<>(settings.overrides);
+		if (value < 0) {
+			overrides.remove(key);
+		} else {
+			overrides.put(key, value);
+		}
+		settings = new Settings(overrides);
+		Trace.info("Lambda filter " + name + ": " + key + (value < 0 ? " reset to the configured value" : " set to " + value));
+		if (DEDUP_WINDOW.equals(key) && dedupWindowListener != null) {
+			dedupWindowListener.accept(value);
+		}
+	}
+
+	private int getInt(String key) {
+		return (int) settings.get(key, -1L);
+	}
+
+	@Override
+	public int getMaxRetries() {
+		return getInt(MAX_RETRIES);
+	}
+
+	@Override
+	public void setMaxRetries(int maxRetries) {
+		set(MAX_RETRIES, maxRetries == 0 ? 1 : maxRetries);
+	}
+
+	@Override
+	public int getRetryDelay() {
+		return getInt(RETRY_DELAY);
+	}
+
+	@Override
+	public void setRetryDelay(int retryDelayMillis) {
+		set(RETRY_DELAY, retryDelayMillis);
+	}
+
+	@Override
+	public int getInvocationTimeout() {
+		return getInt(INVOCATION_TIMEOUT);
+	}
+
+	@Override
+	public void setInvocationTimeout(int timeoutMillis) {
+		set(INVOCATION_TIMEOUT, timeoutMillis);
+	}
+
+	@Override
+	public int getMaxConcurrency() {
+		return getInt(MAX_CONCURRENCY);
+	}
+
+	@Override
+	public void setMaxConcurrency(int maxConcurrency) {
+		set(MAX_CONCURRENCY, maxConcurrency);
+	}
+
+	@Override
+	public int getTailSampleRate() {
+		return getInt(TAIL_SAMPLE_RATE);
+	}
+
+	@Override
+	public void setTailSampleRate(int percent) {
+		set(TAIL_SAMPLE_RATE, percent < 0 ? -1 : Math.min(100, percent));
+	}
+
+	@Override
+	public long getDedupWindow() {
+		return settings.get(DEDUP_WINDOW, -1L);
+	}
+
+	@Override
+	public void setDedupWindow(long windowMillis) {
+		set(DEDUP_WINDOW, windowMillis);
+	}
+
+	@Override
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	@Override
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+
+	@Override
+	public String getFunctionMetrics() {
+		LambdaMetrics.Registry metrics = functionMetrics;
+		return metrics != null ? metrics.toString() : "";
+	}
+
+	@Override
+	public String getIdentity() {
+		return identity;
+	}
+
+	@Override
+	public String getOverrides() {
+		return settings.overrides.toString();
+	}
+
+	@Override
+	public synchronized void save() {
+		Path file = getFile();
+		if (file == null) {
+			return;
+		}
+		Properties properties = new Properties();
+		for (Map.Entry<String, Long> override : settings.overrides.entrySet()) {
+			properties.setProperty(override.getKey(), override.getValue().toString());
+		}
+		try {
+			Files.createDirectories(file.getParent());
+			try (OutputStream out = Files.newOutputStream(file)) {
+				properties.store(out, "Runtime overrides of Lambda filter " + name);
+			}
+			Trace.info("Lambda filter " + name + ": overrides saved to " + file);
+		} catch (IOException e) {
+			Trace.error("Could not save the overrides of Lambda filter " + name + " to " + file + ": " + e.getMessage());
+			throw new IllegalStateException("Could not save overrides: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized void reset() {
+		boolean dedupOverridden = settings.overrides.containsKey(DEDUP_WINDOW);
+		settings = new Settings(Collections.emptyMap());
+		Path file = getFile();
+		try {
+			if (file != null) {
+				Files.deleteIfExists(file);
+			}
+		} catch (IOException e) {
+			Trace.error("Could not delete the saved overrides " + file + ": " + e.getMessage());
+		}
+		if (dedupOverridden && dedupWindowListener != null) {
+			dedupWindowListener.accept(-1);
+		}
+		Trace.info("Lambda filter " + name + ": overrides reset to the configuration");
+	}
+
+	/**
+	 * Loads the saved overrides, if any
+	 */
+	public synchronized void load() {
+		Path file = getFile();
+		if (file == null || !Files.isRegularFile(file)) {
+			return;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		} catch (IOException e) {
+			Trace.error("Could not load the saved overrides " + file + ": " + e.getMessage());
+			return;
+		}
+		Map<String, Long> overrides = new TreeMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			try {
+				overrides.put(key, Long.parseLong(properties.getProperty(key).trim()));
+			} catch (NumberFormatException e) {
+				Trace.error("Invalid saved override " + key + " in " + file);
+			}
+		}
+		settings = new Settings(overrides);
+		Trace.info("Lambda filter " + name + ": saved overrides loaded " + overrides);
+	}
+
+	private Path getFile() {
+		if (name == null) {
+			return null;
+		}
+		String directory = System.getProperty("aws.lambda.tuning.dir");
+		if (directory == null) {
+			String instance = System.getenv("VINSTDIR");
+			directory = (instance != null ? instance + "/" : "") + "conf/lambda-tuning";
+		}
+		return Paths.get(directory, name.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + id + ".properties");
+	}
+
+	/**
+	 * Registers the MBean. An MBean of the same identity still registered is the one of
+	 * the previous deployment of the filter: it is replaced.
+	 */
+	public synchronized void register() {
+		if (name == null || objectName != null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName target = new ObjectName(DOMAIN + ":type=LambdaFilter,name=" + ObjectName.quote(name) + ",id=" + id);
+			try {
+				objectName = server.registerMBean(this, target).getObjectName();
+			} catch (InstanceAlreadyExistsException e) {
+				server.unregisterMBean(target);
+				objectName = server.registerMBean(this, target).getObjectName();
+			}
+			REGISTERED.put(objectName, this);
+			Trace.info("Lambda filter MBean registered: " + objectName + " (" + identity + ")");
+		} catch (Exception e) {
+			Trace.error("Could not register the MBean of Lambda filter " + name + ": " + e.getMessage());
+		}
+	}
+
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		try {
+			// The new deployment of the filter may already have replaced this MBean
+			if (REGISTERED.remove(objectName, this)) {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			}
+		} catch (Exception e) {
+			Trace.error("Could not unregister " + objectName + ": " + e.getMessage());
+		}
+		objectName = null;
+	}
+
+	@Override
+	public String toString() {
+		return (objectName != null ? objectName.toString() : "not registered") + (settings.overrides.isEmpty() ? "" : ", overrides " + settings.overrides);
+	}
+
+	/**
+	 * Immutable set of overrides
+	 */
+	public static final class Settings {
+		private final Map<String, Long> overrides;
+
+		Settings(Map<String, Long> overrides) {
+			this.overrides = Collections.unmodifiableMap(overrides);
+		}
+
+		public long get(String key, long configured) {
+			Long value = overrides.get(key);
+			return value != null ? value : configured;
+		}
+
+		public int get(String key, int configured) {
+			Long value = overrides.get(key);
+			return value != null ? (int) Math.min(Integer.MAX_VALUE, value) : configured;
+		}
+
+		public boolean isOverridden(String key) {
+			return overrides.containsKey(key);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.axway.aws.lambda;
+
+/**
+ * Management interface of the runtime settings of a Lambda filter.
+ *
+ * Every setting is an override of the filter configuration: -1 (the default)
+ * means the configured value is used. Overrides apply to invocations in
+ * flight from their next attempt, and to new invocations. They are lost on
+ * the next deployment unless saved.
+ */
+public interface LambdaTuningMBean {
+
+	int getMaxRetries();
+
+	void setMaxRetries(int maxRetries);
+
+	int getRetryDelay();
+
+	void setRetryDelay(int retryDelayMillis);
+
+	int getInvocationTimeout();
+
+	void setInvocationTimeout(int timeoutMillis);
+
+	/**
+	 * Maximum invocations of the filter in flight; invocations above it are rejected
+	 */
+	int getMaxConcurrency();
+
+	void setMaxConcurrency(int maxConcurrency);
+
+	int getTailSampleRate();
+
+	void setTailSampleRate(int percent);
+
+	/**
+	 * Event deduplication window (ms); 0 disables deduplication. Changing it keeps the exact keys and clears the Bloom filters.
+	 */
+	long getDedupWindow();
+
+	void setDedupWindow(long windowMillis);
+
+	int getInFlight();
+
+	long getRejectedCount();
+
+	/**
+	 * REPORT telemetry of the functions invoked by the filter: reports, cold starts and the
+	 * duration, billed duration, init duration (us) and memory headroom (MB) histograms
+	 */
+	String getFunctionMetrics();
+
+	/**
+	 * Identity of the filter in the entity store, from which the id of the MBean name is derived
+	 */
+	String getIdentity();
+
+	/**
+	 * Current overrides, as saved
+	 */
+	String getOverrides();
+
+	/**
+	 * Saves the current overrides so that they survive deployments
+	 */
+	void save();
+
+	/**
+	 * Clears every override and the saved ones
+	 */
+	void reset();
+}
@@ -0,0 +1,261 @@
+package com.axway.aws.lambda;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.vordel.trace.Trace;
+
+/**
+ * Warms up a filter in the background.
+ *
+ * At deploy time, a number of concurrent DryRun invocations are sent to each
+ * region: they build the clients, fetch credentials, resolve DNS and open
+ * TLS connections into the pool, without running the function. Then, every
+ * interval, each keep-warm target receives as many concurrent ping
+ * invocations as the execution environments to keep warm. The ping payload is
+ *
+ *   {"warmer":true,"concurrency":N}
+ *
+ * and functions should return early (after a short sleep when N > 1, so that
+ * the pings land on distinct environments) when they receive it.
+ *
+ * Targets are configured one per line as "function[:qualifier][=concurrency]".
+ *
+ * A filter with priority lanes has one transport (and connection pool) per
+ * lane: each pool is pre-warmed with its own number of connections, and the
+ * pings are spread over the pools to keep their connections alive.
+ */
+public final class LambdaWarmer {
+
+	private final List<Pool> pools;
+	private final List<String> regions;
+	private final String dryRunFunction;
+	private final List<Target> targets;
+	private final long intervalMillis;
+
+	private final AtomicLong pings = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	private ScheduledExecutorService scheduler;
+	private ExecutorService workers;
+
+	/**
+	 * @param regions regions to warm, a null element being the default region
+	 * @param connections concurrent DryRun invocations per region at start
+	 * @param dryRunFunction function used for the DryRun invocations, null to skip them
+	 * @param intervalMillis keep-warm interval, 0 or less to disable the pings
+	 */
+	public LambdaWarmer(LambdaTransport transport, List<String> regions, int connections, String dryRunFunction,
+			List<Target> targets, long intervalMillis) {
+		this(java.util.Collections.singletonList(new Pool(transport, connections)), regions, dryRunFunction, targets, intervalMillis);
+	}
+
+	/**
+	 * @param pools transports to warm, each with its concurrent DryRun invocations per region at start
+	 */
+	public LambdaWarmer(List<Pool> pools, List<String> regions, String dryRunFunction, List<Target> targets, long intervalMillis) {
+		this.pools = pools;
+		this.regions = regions;
+		this.dryRunFunction = dryRunFunction;
+		this.targets = targets;
+		this.intervalMillis = intervalMillis;
+	}
+
+	/**
+	 * Parses keep-warm targets, one "function[:qualifier][=concurrency]" per line
+	 */
+	public static List<Target> parseTargets(String spec) {
+		List<Target> result = new ArrayList<>();
+		if (spec == null) {
+			return result;
+		}
+		for (String line : spec.split("\\r?\\n")) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			int concurrency = 1;
+			int eq = line.lastIndexOf('=');
+			if (eq > 0) {
+				try {
+					concurrency = Math.max(1, Integer.parseInt(line.substring(eq + 1).trim()));
+				} catch (NumberFormatException e) {
+					Trace.error("Invalid keep-warm concurrency: " + line);
+				}
+				line = line.substring(0, eq).trim();
+			}
+			// Function ARNs contain colons: the qualifier is what follows the last one, if any
+			String function = line;
+			String qualifier = null;
+			int colon = line.lastIndexOf(':');
+			if (colon > 0 && !line.startsWith("arn:")) {
+				function = line.substring(0, colon);
+				qualifier = line.substring(colon + 1);
+			}
+			result.add(new Target(function, qualifier, concurrency));
+		}
+		return result;
+	}
+
+	public boolean isEnabled() {
+		return (getConnections() > 0 && dryRunFunction != null) || (intervalMillis > 0 && !targets.isEmpty());
+	}
+
+	/**
+	 * DryRun invocations per region at start, over all the pools
+	 */
+	private int getConnections() {
+		int total = 0;
+		for (Pool pool : pools) {
+			total += pool.connections;
+		}
+		return total;
+	}
+
+	public synchronized void start() {
+		if (!isEnabled() || scheduler != null) {
+			return;
+		}
+		int connections = getConnections();
+		int parallelism = connections;
+		for (Target target : targets) {
+			parallelism = Math.max(parallelism, target.concurrency);
+		}
+		workers = LambdaExecutors.newInvocationExecutor("lambda-warmer", Math.max(1, parallelism) * Math.max(1, regions.size()));
+		scheduler = Executors.newSingleThreadScheduledExecutor(LambdaExecutors.daemonThreadFactory("lambda-warmer-scheduler"));
+		if (connections > 0 && dryRunFunction != null) {
+			scheduler.execute(this::prewarm);
+		}
+		if (intervalMillis > 0 && !targets.isEmpty()) {
+			scheduler.scheduleWithFixedDelay(this::ping, 0, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Opens the pooled connections with concurrent DryRun invocations
+	 */
+	private void prewarm() {
+		long start = System.nanoTime();
+		List<Future<?>> futures = new ArrayList<>();
+		for (Pool pool : pools) {
+			for (String region : regions) {
+				for (int i = 0; i < pool.connections; i++) {
+					futures.add(workers.submit(() -> pool.transport.invoke(region,
+						new InvokeRequest().withFunctionName(dryRunFunction).withInvocationType("DryRun"))));
+				}
+			}
+		}
+		int failed = await(futures);
+		Trace.info("Lambda pre-warm: " + getConnections() + " connections" + (pools.size() > 1 ? " in " + pools.size() + " pools" : "") + " to " + regions + " in " +
+			TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms" + (failed > 0 ? ", " + failed + " failed" : ""));
+	}
+
+	/**
+	 * Sends the keep-warm pings of every target to every region
+	 */
+	private void ping() {
+		List<Future<?>> futures = new ArrayList<>();
+		int next = 0;
+		for (Target target : targets) {
+			byte[] payload = ("{\"warmer\":true,\"concurrency\":" + target.concurrency + "}").getBytes(StandardCharsets.UTF_8);
+			for (String region : regions) {
+				for (int i = 0; i < target.concurrency; i++) {
+					InvokeRequest request = new InvokeRequest()
+						.withFunctionName(target.functionName)
+						.withInvocationType("RequestResponse")
+						.withPayload(ByteBuffer.wrap(payload));
+					if (target.qualifier != null && !target.qualifier.isEmpty()) {
+						request.setQualifier(target.qualifier);
+					}
+					LambdaTransport transport = pools.get(next++ % pools.size()).transport;
+					futures.add(workers.submit(() -> transport.invoke(region, request)));
+				}
+			}
+		}
+		int failed = await(futures);
+		pings.addAndGet(futures.size() - failed);
+		Trace.debug("Lambda keep-warm: " + (futures.size() - failed) + " pings sent" + (failed > 0 ? ", " + failed + " failed" : ""));
+	}
+
+	private int await(List<Future<?>> futures) {
+		int failed = 0;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return failed;
+			} catch (Exception e) {
+				failed++;
+				Trace.debug("Lambda warm-up invocation failed: " + (e.getCause() != null ? e.getCause().getMessage() : e.getMessage()));
+			}
+		}
+		failures.addAndGet(failed);
+		return failed;
+	}
+
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			workers.shutdownNow();
+			scheduler = null;
+			workers = null;
+		}
+	}
+
+	public long getPingCount() {
+		return pings.get();
+	}
+
+	public long getFailureCount() {
+		return failures.get();
+	}
+
+	@Override
+	public String toString() {
+		return (dryRunFunction != null ? getConnections() + " connections per region" + (pools.size() > 1 ? " in " + pools.size() + " pools" : "") : "no pre-warm") +
+			(intervalMillis > 0 ? ", keep-warm " + targets + " every " + intervalMillis + "ms" : "");
+	}
+
+	/**
+	 * Transport warmed with a number of connections
+	 */
+	public static final class Pool {
+		final LambdaTransport transport;
+		final int connections;
+
+		public Pool(LambdaTransport transport, int connections) {
+			this.transport = transport;
+			this.connections = Math.max(0, connections);
+		}
+	}
+
+	/**
+	 * Function kept warm
+	 */
+	public static final class Target {
+		final String functionName;
+		final String qualifier;
+		final int concurrency;
+
+		public Target(String functionName, String qualifier, int concurrency) {
+			this.functionName = functionName;
+			this.qualifier = qualifier;
+			this.concurrency = concurrency;
+		}
+
+		@Override
+		public String toString() {
+			return functionName + (qualifier != null ? ":" + qualifier : "") + "=" + concurrency;
+		}
+	}
+}
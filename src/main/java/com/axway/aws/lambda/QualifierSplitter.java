@@ -0,0 +1,291 @@
+package com.axway.aws.lambda;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vordel.trace.Trace;
+
+/**
+ * Client-side weighted traffic split across Lambda qualifiers.
+ *
+ * The split is configured as "qualifier:weight" entries, for example
+ * "live:95,canary:5". The first entry is the baseline, the others are
+ * canaries. Assignment is sticky when a key is supplied (the same key always
+ * lands on the same qualifier while weights are unchanged) and random
+ * otherwise.
+ *
+ * Latency and errors are recorded per executed version. Each canary is also
+ * compared with the baseline over a sliding window, and its weight is halved
+ * whenever its p99 latency or error rate regresses beyond the thresholds.
+ */
+public final class QualifierSplitter {
+
+	private static final int BUCKETS = 10_000;
+	private static final int MIN_WINDOW_SAMPLES = 50;
+	private static final int WINDOW_SAMPLES = 500;
+
+	private final List<Target> targets;
+	private final double maxLatencyRatio;
+	private final double maxErrorRate;
+	private final Map<String, VersionStats> versions = new ConcurrentHashMap<>();
+
+	private QualifierSplitter(List<Target> targets, double maxLatencyRatio, double maxErrorRate) {
+		this.targets = targets;
+		this.maxLatencyRatio = maxLatencyRatio;
+		this.maxErrorRate = maxErrorRate;
+	}
+
+	/**
+	 * Returns true if the qualifier literal is a weighted split rather than a single alias or version
+	 */
+	public static boolean isSplit(String qualifier) {
+		return qualifier != null && qualifier.indexOf(':') > 0;
+	}
+
+	/**
+	 * Parses a weighted split. Returns null if no valid target is found.
+	 *
+	 * @param maxLatencyRatio canary p99 / baseline p99 above which the canary is cut back (0 disables)
+	 * @param maxErrorRate canary error rate (0-1) above the baseline rate at which the canary is cut back (0 disables)
+	 */
+	public static QualifierSplitter parse(String spec, double maxLatencyRatio, double maxErrorRate) {
+		if (spec == null) {
+			return null;
+		}
+		List<Target> targets = new ArrayList<>();
+		for (String entry : spec.split("[,;\\s]+")) {
+			int colon = entry.indexOf(':');
+			if (colon <= 0) {
+				continue;
+			}
+			try {
+				int weight = Integer.parseInt(entry.substring(colon + 1).trim());
+				if (weight >= 0) {
+					targets.add(new Target(entry.substring(0, colon).trim(), weight, targets.isEmpty()));
+				}
+			} catch (NumberFormatException e) {
+				Trace.error("Invalid qualifier weight: " + entry);
+			}
+		}
+		if (targets.isEmpty()) {
+			return null;
+		}
+		return new QualifierSplitter(Collections.unmodifiableList(targets), maxLatencyRatio, maxErrorRate);
+	}
+
+	public List<Target> getTargets() {
+		return targets;
+	}
+
+	public Map<String, VersionStats> getVersions() {
+		return Collections.unmodifiableMap(versions);
+	}
+
+	/**
+	 * Picks the target for one invocation. A null or empty key gives a random assignment.
+	 */
+	public Target select(String stickyKey) {
+		int total = 0;
+		for (Target target : targets) {
+			total += target.weight.get();
+		}
+		if (total <= 0) {
+			return targets.get(0);
+		}
+		int bucket;
+		if (stickyKey != null && !stickyKey.isEmpty()) {
+			bucket = Math.floorMod(mix(stickyKey.hashCode()), BUCKETS);
+		} else {
+			bucket = ThreadLocalRandom.current().nextInt(BUCKETS);
+		}
+		long point = (long) bucket * total / BUCKETS;
+		int cumulative = 0;
+		for (Target target : targets) {
+			cumulative += target.weight.get();
+			if (point < cumulative) {
+				return target;
+			}
+		}
+		return targets.get(0);
+	}
+
+	/**
+	 * Records the outcome of an invocation of the given target
+	 *
+	 * @param executedVersion version reported by Lambda, or null if the invoke did not complete
+	 */
+	public void record(Target target, String executedVersion, long elapsedNanos, boolean failed) {
+		long micros = elapsedNanos / 1000;
+		String version = executedVersion != null ? executedVersion : target.name + " (not executed)";
+		versions.computeIfAbsent(version, VersionStats::new).record(micros, failed);
+		target.window.record(micros, failed);
+		if (!target.baseline) {
+			evaluate(target);
+		}
+	}
+
+	private void evaluate(Target canary) {
+		Target baseline = targets.get(0);
+		Window canaryWindow = canary.window;
+		Window baselineWindow = baseline.window;
+		if (canaryWindow.samples() < MIN_WINDOW_SAMPLES || baselineWindow.samples() < MIN_WINDOW_SAMPLES) {
+			return;
+		}
+		double canaryErrors = canaryWindow.errorRate();
+		double baselineErrors = baselineWindow.errorRate();
+		long canaryP99 = canaryWindow.latency.valueAtPercentile(99);
+		long baselineP99 = baselineWindow.latency.valueAtPercentile(99);
+
+		String reason = null;
+		if (maxErrorRate > 0 && canaryErrors - baselineErrors > maxErrorRate) {
+			reason = "error rate " + String.format("%.3f", canaryErrors) + " vs baseline " + String.format("%.3f", baselineErrors);
+		} else if (maxLatencyRatio > 0 && baselineP99 > 0 && canaryP99 > baselineP99 * maxLatencyRatio) {
+			reason = "p99 " + canaryP99 + "us vs baseline " + baselineP99 + "us";
+		}
+		if (reason != null && canaryWindow.tryReset()) {
+			int previous = canary.weight.get();
+			int reduced = previous / 2;
+			canary.weight.set(reduced);
+			baseline.weight.addAndGet(previous - reduced);
+			Trace.error("Canary qualifier " + canary.name + " regressed (" + reason + "), weight cut from " + previous + " to " + reduced);
+		} else if (canaryWindow.samples() >= WINDOW_SAMPLES) {
+			canaryWindow.tryReset();
+		}
+		if (baselineWindow.samples() >= WINDOW_SAMPLES * 4) {
+			baselineWindow.tryReset();
+		}
+	}
+
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (Target target : targets) {
+			sb.append(target.name).append(':').append(target.weight.get()).append(target.baseline ? " (baseline) " : " ");
+		}
+		for (VersionStats stats : versions.values()) {
+			sb.append("\n  ").append(stats);
+		}
+		return sb.toString().trim();
+	}
+
+	/**
+	 * A qualifier with its current (possibly reduced) weight
+	 */
+	public static final class Target {
+		private final String name;
+		private final AtomicInteger weight;
+		private final boolean baseline;
+		private final Window window = new Window();
+
+		Target(String name, int weight, boolean baseline) {
+			this.name = name;
+			this.weight = new AtomicInteger(weight);
+			this.baseline = baseline;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getWeight() {
+			return weight.get();
+		}
+
+		public boolean isBaseline() {
+			return baseline;
+		}
+	}
+
+	/**
+	 * Latency and error statistics of one executed version
+	 */
+	public static final class VersionStats {
+		private final String version;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+
+		VersionStats(String version) {
+			this.version = version;
+		}
+
+		void record(long micros, boolean failed) {
+			latency.record(micros);
+			if (failed) {
+				errors.increment();
+			}
+		}
+
+		public String getVersion() {
+			return version;
+		}
+
+		public LatencyHistogram getLatency() {
+			return latency;
+		}
+
+		public long getErrorCount() {
+			return errors.sum();
+		}
+
+		@Override
+		public String toString() {
+			return "version " + version + ": errors=" + errors.sum() + ", latency(us) " + latency;
+		}
+	}
+
+	/**
+	 * Sliding window used to compare a canary with the baseline
+	 */
+	private static final class Window {
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final LongAdder errors = new LongAdder();
+		private final AtomicInteger resetting = new AtomicInteger();
+
+		void record(long micros, boolean failed) {
+			latency.record(micros);
+			if (failed) {
+				errors.increment();
+			}
+		}
+
+		long samples() {
+			return latency.getCount();
+		}
+
+		double errorRate() {
+			long n = latency.getCount();
+			return n == 0 ? 0.0 : (double) errors.sum() / n;
+		}
+
+		/**
+		 * Starts a new window. Only one concurrent caller performs the reset.
+		 */
+		boolean tryReset() {
+			if (!resetting.compareAndSet(0, 1)) {
+				return false;
+			}
+			try {
+				latency.reset();
+				errors.reset();
+				return true;
+			} finally {
+				resetting.set(0);
+			}
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package com.axway.aws.lambda;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.vordel.trace.Trace;
+
+/**
+ * Routes invocations across a list of regions hosting the same function.
+ *
+ * The region list is configured as "region[:weight]" entries separated by
+ * commas, for example "us-east-1:3, eu-west-1:1". In "ordered" mode the
+ * configured order is the failover order. In "latency" mode regions are
+ * ranked per invocation by their moving average latency and error rate,
+ * divided by their weight. In both modes a region that fails repeatedly
+ * is ejected for a cool-down period and only used as a last resort.
+ */
+public final class RegionRouter {
+
+	public static final String MODE_ORDERED = "ordered";
+	public static final String MODE_LATENCY = "latency";
+
+	private static final double EWMA_ALPHA = 0.2;
+	private static final double ERROR_PENALTY = 10.0;
+	private static final int EJECT_AFTER_FAILURES = 3;
+	private static final long EJECT_MILLIS = 30_000L;
+	private static final int EXPLORE_ONE_IN = 20;
+
+	private final List<RegionStats> regions;
+	private final String mode;
+
+	private RegionRouter(List<RegionStats> regions, String mode) {
+		this.regions = regions;
+		this.mode = mode;
+	}
+
+	/**
+	 * Parses a region list. Returns null when the spec is empty.
+	 */
+	public static RegionRouter parse(String spec, String mode) {
+		if (spec == null || spec.trim().isEmpty()) {
+			return null;
+		}
+		List<RegionStats> regions = new ArrayList<>();
+		for (String entry : spec.split("[,;\\s]+")) {
+			if (entry.isEmpty()) {
+				continue;
+			}
+			String name = entry;
+			double weight = 1.0;
+			int colon = entry.indexOf(':');
+			if (colon > 0) {
+				name = entry.substring(0, colon);
+				try {
+					weight = Double.parseDouble(entry.substring(colon + 1));
+				} catch (NumberFormatException e) {
+					Trace.error("Invalid weight for region " + name + ": " + entry.substring(colon + 1) + ", using 1");
+				}
+				if (weight <= 0) {
+					weight = 1.0;
+				}
+			}
+			regions.add(new RegionStats(name, weight));
+		}
+		if (regions.isEmpty()) {
+			return null;
+		}
+		String routingMode = MODE_ORDERED.equalsIgnoreCase(mode) ? MODE_ORDERED : MODE_LATENCY;
+		return new RegionRouter(Collections.unmodifiableList(regions), routingMode);
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	public List<RegionStats> getRegions() {
+		return regions;
+	}
+
+	/**
+	 * Returns the regions to try for one invocation, best candidate first
+	 */
+	public List<String> candidates() {
+		long now = System.currentTimeMillis();
+		List<RegionStats> healthy = new ArrayList<>(regions.size());
+		List<RegionStats> ejected = new ArrayList<>();
+		for (RegionStats region : regions) {
+			if (region.isEjected(now)) {
+				ejected.add(region);
+			} else {
+				healthy.add(region);
+			}
+		}
+		if (MODE_LATENCY.equals(mode) && healthy.size() > 1) {
+			healthy.sort((a, b) -> Double.compare(a.score(), b.score()));
+			// Occasionally probe a slower region so its statistics stay current
+			if (ThreadLocalRandom.current().nextInt(EXPLORE_ONE_IN) == 0) {
+				int probe = 1 + ThreadLocalRandom.current().nextInt(healthy.size() - 1);
+				healthy.add(0, healthy.remove(probe));
+			}
+		}
+		ejected.sort((a, b) -> Long.compare(a.ejectedUntil.get(), b.ejectedUntil.get()));
+		List<String> result = new ArrayList<>(regions.size());
+		for (RegionStats region : healthy) {
+			result.add(region.name);
+		}
+		for (RegionStats region : ejected) {
+			result.add(region.name);
+		}
+		return result;
+	}
+
+	public void recordSuccess(String region, long elapsedNanos) {
+		RegionStats stats = find(region);
+		if (stats != null) {
+			stats.record(elapsedNanos, false);
+		}
+	}
+
+	public void recordFailure(String region, long elapsedNanos) {
+		RegionStats stats = find(region);
+		if (stats != null) {
+			stats.record(elapsedNanos, true);
+		}
+	}
+
+	private RegionStats find(String region) {
+		for (RegionStats stats : regions) {
+			if (stats.name.equals(region)) {
+				return stats;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("mode=").append(mode);
+		for (RegionStats region : regions) {
+			sb.append("\n  ").append(region);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Live statistics for one region
+	 */
+	public static final class RegionStats {
+		private final String name;
+		private final double weight;
+		private final AtomicLong latencyMicrosEwma = new AtomicLong(Double.doubleToLongBits(0.0));
+		private final AtomicLong errorRateEwma = new AtomicLong(Double.doubleToLongBits(0.0));
+		private final AtomicInteger consecutiveFailures = new AtomicInteger();
+		private final AtomicLong ejectedUntil = new AtomicLong();
+		private final AtomicLong samples = new AtomicLong();
+
+		RegionStats(String name, double weight) {
+			this.name = name;
+			this.weight = weight;
+		}
+
+		void record(long elapsedNanos, boolean failed) {
+			boolean first = samples.getAndIncrement() == 0;
+			update(latencyMicrosEwma, elapsedNanos / 1000.0, first);
+			update(errorRateEwma, failed ? 1.0 : 0.0, first);
+			if (failed) {
+				if (consecutiveFailures.incrementAndGet() >= EJECT_AFTER_FAILURES) {
+					ejectedUntil.set(System.currentTimeMillis() + EJECT_MILLIS);
+					consecutiveFailures.set(0);
+					Trace.error("Region " + name + " ejected for " + EJECT_MILLIS + "ms after " + EJECT_AFTER_FAILURES + " consecutive failures");
+				}
+			} else {
+				consecutiveFailures.set(0);
+				ejectedUntil.set(0);
+			}
+		}
+
+		private static void update(AtomicLong holder, double sample, boolean first) {
+			long current;
+			long next;
+			do {
+				current = holder.get();
+				double value = first ? sample : Double.longBitsToDouble(current) * (1 - EWMA_ALPHA) + sample * EWMA_ALPHA;
+				next = Double.doubleToLongBits(value);
+			} while (!holder.compareAndSet(current, next));
+		}
+
+		boolean isEjected(long now) {
+			return ejectedUntil.get() > now;
+		}
+
+		/**
+		 * Lower is better. Regions without samples score 0 so they are tried first.
+		 */
+		double score() {
+			return getLatencyMillis() * (1 + ERROR_PENALTY * getErrorRate()) / weight;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public double getLatencyMillis() {
+			return Double.longBitsToDouble(latencyMicrosEwma.get()) / 1000.0;
+		}
+
+		public double getErrorRate() {
+			return Double.longBitsToDouble(errorRateEwma.get());
+		}
+
+		@Override
+		public String toString() {
+			return name + " (weight " + weight + "): latency=" + String.format("%.1f", getLatencyMillis()) + "ms, errorRate=" +
+				String.format("%.3f", getErrorRate()) + ", samples=" + samples.get() + (isEjected(System.currentTimeMillis()) ? ", EJECTED" : "");
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.axway.aws.lambda;
+
+import org.eclipse.swt.widgets.Composite;
+
+import com.vordel.client.manager.wizard.VordelPage;
+
+public class ScatterGatherLambdaFilterPage extends VordelPage {
+
+	public ScatterGatherLambdaFilterPage() {
+		super("AWSLambdaScatterGatherPage");
+
+
+		setTitle(resolve("AWS_LAMBDA_SCATTER_GATHER_PAGE"));
+		setDescription(resolve("AWS_LAMBDA_SCATTER_GATHER_PAGE_DESCRIPTION"));
+		setPageComplete(true);
+	}
+
+	public String getHelpID() {
+		 return "com.vordel.rcp.policystudio.filter.help.send_to_s3_bucket_filter_help";
+	}
+
+	public boolean performFinish() {
+		return true;
+	}
+
+	public void createControl(Composite parent) {
+		Composite panel = render(parent, getClass().getResourceAsStream("scatter_gather_lambda.xml"));
+		setControl(panel);
+		setPageComplete(true);
+	}
+}
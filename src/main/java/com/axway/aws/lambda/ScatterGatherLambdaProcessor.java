@@ -0,0 +1,384 @@
+package com.axway.aws.lambda;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.vordel.circuit.CircuitAbortException;
+import com.vordel.circuit.Message;
+import com.vordel.config.Circuit;
+import com.vordel.config.ConfigContext;
+import com.vordel.el.Selector;
+import com.vordel.es.Entity;
+import com.vordel.es.EntityStoreException;
+import com.vordel.trace.Trace;
+
+/**
+ * Invokes several Lambda functions in parallel and merges their responses.
+ *
+ * Targets are configured one per line as "name=function" followed by optional
+ * ";key=value" settings: qualifier, payload (a selector producing the payload,
+ * defaults to the configurable payload of the filter) and timeout (ms). For
+ * example:
+ *
+ *   orders=orders-fn;qualifier=live;timeout=2000
+ *   profile=profile-fn;payload=${lambda.profile.body}
+ *
+ * The timeout of a target is also the time budget of its retry loop, so a
+ * target that timed out stops retrying. Targets that find more than maxQueued
+ * invocations waiting for a worker fail at once.
+ *
+ * Each target is prepared like the invocation of the Invoke Lambda Function
+ * filter (deadline, lane, deduplication, trace context, compression) and holds
+ * a slot of its concurrency limit until it is done.
+ *
+ * Credentials, regions, retries and payload fields are shared with the
+ * Invoke Lambda Function filter.
+ */
+public class ScatterGatherLambdaProcessor extends InvokeLambdaFunctionProcessor {
+
+	public static final String MERGE_DOCUMENT = "document";
+	public static final String MERGE_ATTRIBUTES = "attributes";
+
+	public static final String POLICY_REQUIRE_ALL = "requireAll";
+	public static final String POLICY_REQUIRE_ANY = "requireAny";
+	public static final String POLICY_IGNORE_FAILURES = "ignoreFailures";
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	protected List<ScatterTarget> targets;
+	protected String mergeMode;
+	protected String failurePolicy;
+	protected Selector<Integer> targetTimeout;
+
+	private ExecutorService executor;
+
+	@Override
+	public void filterAttached(ConfigContext ctx, Entity entity) throws EntityStoreException {
+		super.filterAttached(ctx, entity);
+
+		this.targets = parseTargets(entity.getStringValue("targets"));
+		this.mergeMode = MERGE_ATTRIBUTES.equals(entity.getStringValue("mergeMode")) ? MERGE_ATTRIBUTES : MERGE_DOCUMENT;
+		String policy = entity.getStringValue("failurePolicy");
+		this.failurePolicy = POLICY_REQUIRE_ANY.equals(policy) || POLICY_IGNORE_FAILURES.equals(policy) ? policy : POLICY_REQUIRE_ALL;
+		this.targetTimeout = new Selector(entity.getStringValue("targetTimeout") != null ? entity.getStringValue("targetTimeout") : "5000", Integer.class);
+
+		int maxConcurrency = 16;
+		try {
+			Integer configured = entity.getIntegerValue("maxConcurrency");
+			if (configured != null && configured > 0) {
+				maxConcurrency = configured;
+			}
+		} catch (Exception e) {
+			// Field doesn't exist, keep default
+		}
+		int maxQueued = 64;
+		try {
+			Integer configured = entity.getIntegerValue("maxQueued");
+			if (configured != null && configured > 0) {
+				maxQueued = configured;
+			}
+		} catch (Exception e) {
+			// Field doesn't exist, keep default
+		}
+		this.executor = LambdaExecutors.newInvocationExecutor("lambda-scatter", maxConcurrency, maxQueued);
+
+		Trace.info("=== Scatter-Gather Configuration ===");
+		Trace.info("Targets: " + targets);
+		Trace.info("Merge Mode: " + mergeMode);
+		Trace.info("Failure Policy: " + failurePolicy);
+		Trace.info("Max Concurrency: " + maxConcurrency + (LambdaExecutors.usesVirtualThreads() ? " (virtual threads)" : ""));
+		Trace.info("Max Queued: " + maxQueued);
+	}
+
+	@Override
+	public void filterDetached() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		super.filterDetached();
+	}
+
+	@Override
+	public boolean invoke(Circuit arg0, Message msg) throws CircuitAbortException {
+		// Concurrency slots are taken per target
+		return invokeRecorded(msg);
+	}
+
+	@Override
+	protected boolean invokeFunction(Message msg, LambdaTraceContext trace) throws CircuitAbortException {
+		if (lambdaClientBuilder == null) {
+			Trace.error("Invoke Lambda Function client builder was not configured");
+			msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not configured");
+			return false;
+		}
+		if (targets.isEmpty()) {
+			Trace.error("No scatter-gather targets configured");
+			msg.put("aws.lambda.error", "No scatter-gather targets configured");
+			return false;
+		}
+
+		Integer defaultTimeout = targetTimeout.substitute(msg);
+		if (defaultTimeout == null || defaultTimeout <= 0) {
+			defaultTimeout = 5000;
+		}
+
+		// Resolve payloads and settings on the message thread, then fan out
+		// Every target is bounded by its own timeout, counted from the fan-out
+		long start = System.nanoTime();
+		byte[] sharedPayload = null;
+		Map<ScatterTarget, LambdaInvocation> invocations = new LinkedHashMap<>();
+		Map<ScatterTarget, Future<InvokeResult>> futures = new LinkedHashMap<>();
+		for (ScatterTarget target : targets) {
+			byte[] payload;
+			if (target.payload != null) {
+				String value = target.payload.substitute(msg);
+				payload = (value != null && !value.isEmpty() ? value : "{}").getBytes(StandardCharsets.UTF_8);
+			} else {
+				if (sharedPayload == null) {
+					byte[] value = buildConfigurablePayload(msg);
+					sharedPayload = value != null && value.length > 0 ? value : "{}".getBytes(StandardCharsets.UTF_8);
+				}
+				payload = sharedPayload;
+			}
+			LambdaInvocation invocation = prepareInvocation(msg, target.functionName, target.qualifier, false).withTrace(trace);
+			long remaining = (target.timeout > 0 ? target.timeout : defaultTimeout) - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (remaining <= 0) {
+				invocation.withExpiredDeadline();
+			} else if (invocation.getRemainingMillis() > remaining) {
+				invocation.withTimeBudget(remaining);
+			}
+			invocations.put(target, invocation);
+			futures.put(target, submit(msg, target, invocation, payload, trace));
+		}
+
+		// Gather
+		ObjectNode document = MAPPER.createObjectNode();
+		int succeeded = 0;
+		int responseSize = 0;
+		List<String> failures = new ArrayList<>();
+		for (Map.Entry<ScatterTarget, Future<InvokeResult>> entry : futures.entrySet()) {
+			ScatterTarget target = entry.getKey();
+			long timeoutMs = target.timeout > 0 ? target.timeout : defaultTimeout;
+			long remaining = timeoutMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			String error = null;
+			InvokeResult result = null;
+			try {
+				result = entry.getValue().get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				entry.getValue().cancel(true);
+				error = "Timed out after " + timeoutMs + "ms";
+			} catch (ExecutionException e) {
+				error = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				cancelAll(futures);
+				Trace.error("Thread interrupted while gathering Lambda results");
+				msg.put("aws.lambda.error", "Interrupted while gathering Lambda results");
+				return false;
+			}
+
+			if (result != null) {
+				responseSize += result.getPayload() != null ? result.getPayload().limit() : 0;
+				error = storeResult(msg, target, invocations.get(target), result, document);
+			}
+			if (error == null) {
+				succeeded++;
+			} else {
+				Trace.error("Scatter target '" + target.name + "' failed: " + error);
+				failures.add(target.name + ": " + error);
+				msg.put("aws.lambda.error." + target.name, error);
+				if (MERGE_DOCUMENT.equals(mergeMode)) {
+					document.putNull(target.name);
+				}
+			}
+		}
+
+		if (MERGE_DOCUMENT.equals(mergeMode)) {
+			msg.put("aws.lambda.response", document.toString());
+		}
+		LambdaCapture.Record record = (LambdaCapture.Record) msg.get("aws.lambda.capture");
+		if (record != null) {
+			record.invoked(System.nanoTime() - start, responseSize);
+		}
+		msg.put("aws.lambda.scatter.succeeded", succeeded);
+		msg.put("aws.lambda.scatter.failed", failures.size());
+		Trace.info("Scatter-gather finished: " + succeeded + " succeeded, " + failures.size() + " failed in " +
+			TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms");
+
+		boolean success;
+		if (POLICY_IGNORE_FAILURES.equals(failurePolicy)) {
+			success = true;
+		} else if (POLICY_REQUIRE_ANY.equals(failurePolicy)) {
+			success = succeeded > 0;
+		} else {
+			success = failures.isEmpty();
+		}
+		if (!failures.isEmpty()) {
+			msg.put("aws.lambda.error", "Failed targets: " + String.join("; ", failures));
+		}
+		msg.put("aws.lambda.http.status.code", success ? 200 : 502);
+		return success;
+	}
+
+	/**
+	 * Prepares and starts the invocation of one target. A target that is not sent (a
+	 * duplicate, an error or a rejection) gets a completed future.
+	 */
+	private Future<InvokeResult> submit(Message msg, ScatterTarget target, LambdaInvocation invocation, byte[] payload, LambdaTraceContext trace) {
+		if (!tuning.tryAcquire()) {
+			return failed("Concurrency limit reached (" + tuning.getMaxConcurrency() + " invocations in flight)");
+		}
+		Boolean prepared = prepareSend(msg, invocation, payload, trace);
+		if (prepared != null) {
+			tuning.release();
+			if (prepared) {
+				Trace.info("Scatter target '" + target.name + "' deduplicated");
+				return CompletableFuture.completedFuture(new InvokeResult().withStatusCode(202));
+			}
+			Object error = msg.get("aws.lambda.error");
+			return failed(error != null ? error.toString() : "Invocation not sent");
+		}
+		// The slot and the deduplication key are released once the target is done or cancelled
+		FutureTask<InvokeResult> task = newInvocationTask(invocation);
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException e) {
+			invocation.completeDeduplication(false);
+			tuning.release();
+			return failed("Too many scatter-gather invocations waiting");
+		}
+		Trace.info("Scatter target '" + target.name + "' submitted (" + target.functionName + ", " + invocation.getPayload().length + " bytes)");
+		return task;
+	}
+
+	private static Future<InvokeResult> failed(String error) {
+		CompletableFuture<InvokeResult> future = new CompletableFuture<>();
+		future.completeExceptionally(new LambdaInvocationException(error, null));
+		return future;
+	}
+
+	/**
+	 * Stores one target result on the message. Returns an error description, or null on success.
+	 */
+	private String storeResult(Message msg, ScatterTarget target, LambdaInvocation invocation, InvokeResult result, ObjectNode document) {
+		String response = result.getPayload() != null ? StandardCharsets.UTF_8.decode(result.getPayload().duplicate()).toString() : "";
+		int statusCode = result.getStatusCode() != null ? result.getStatusCode() : 0;
+
+		if (MERGE_DOCUMENT.equals(mergeMode)) {
+			document.set(target.name, toJson(response));
+		} else {
+			msg.put("aws.lambda.response." + target.name, response);
+			msg.put("aws.lambda.http.status.code." + target.name, statusCode);
+			msg.put("aws.lambda.executed.version." + target.name, result.getExecutedVersion());
+			Object region = invocation.getAttributes().get("aws.lambda.region");
+			if (region != null) {
+				msg.put("aws.lambda.region." + target.name, region);
+			}
+		}
+
+		if (result.getFunctionError() != null) {
+			return "Function error: " + result.getFunctionError();
+		}
+		if (statusCode >= 400) {
+			return "HTTP Error: " + statusCode;
+		}
+		return null;
+	}
+
+	private static JsonNode toJson(String response) {
+		try {
+			return response.isEmpty() ? MAPPER.nullNode() : MAPPER.readTree(response);
+		} catch (Exception e) {
+			// Not JSON, embed as a string
+			return MAPPER.getNodeFactory().textNode(response);
+		}
+	}
+
+	private static void cancelAll(Map<ScatterTarget, Future<InvokeResult>> futures) {
+		for (Future<InvokeResult> future : futures.values()) {
+			future.cancel(true);
+		}
+	}
+
+	/**
+	 * Parses the target list, one "name=function;key=value..." entry per line
+	 */
+	static List<ScatterTarget> parseTargets(String spec) {
+		List<ScatterTarget> result = new ArrayList<>();
+		if (spec == null) {
+			return result;
+		}
+		for (String line : spec.split("\\r?\\n")) {
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split(";");
+			int eq = parts[0].indexOf('=');
+			if (eq <= 0 || eq == parts[0].length() - 1) {
+				Trace.error("Invalid scatter-gather target (expected name=function): " + line);
+				continue;
+			}
+			ScatterTarget target = new ScatterTarget(parts[0].substring(0, eq).trim(), parts[0].substring(eq + 1).trim());
+			for (int i = 1; i < parts.length; i++) {
+				int sep = parts[i].indexOf('=');
+				if (sep <= 0) {
+					continue;
+				}
+				String key = parts[i].substring(0, sep).trim();
+				String value = parts[i].substring(sep + 1).trim();
+				if ("qualifier".equals(key)) {
+					target.qualifier = value;
+				} else if ("payload".equals(key)) {
+					target.payload = new Selector<>(value, String.class);
+				} else if ("timeout".equals(key)) {
+					try {
+						target.timeout = Long.parseLong(value);
+					} catch (NumberFormatException e) {
+						Trace.error("Invalid timeout for scatter-gather target " + target.name + ": " + value);
+					}
+				} else {
+					Trace.error("Unknown scatter-gather target setting: " + key);
+				}
+			}
+			result.add(target);
+		}
+		return result;
+	}
+
+	/**
+	 * One function invoked by the scatter-gather filter
+	 */
+	static final class ScatterTarget {
+		final String name;
+		final String functionName;
+		String qualifier;
+		Selector<String> payload;
+		long timeout;
+
+		ScatterTarget(String name, String functionName) {
+			this.name = name;
+			this.functionName = functionName;
+		}
+
+		@Override
+		public String toString() {
+			return name + "=" + functionName + (qualifier != null ? ":" + qualifier : "") + (timeout > 0 ? " (" + timeout + "ms)" : "");
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package com.axway.aws.lambda;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.amazonaws.services.lambda.AWSLambda;
+import com.amazonaws.services.lambda.AWSLambdaClientBuilder;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.vordel.trace.Trace;
+
+/**
+ * Transport using the AWS SDK v1 blocking client (Apache HTTP client, one connection per in-flight request)
+ */
+public class SdkV1LambdaTransport implements LambdaTransport {
+
+	private final AWSLambdaClientBuilder builder;
+	private final Map<String, AWSLambda> clients = new ConcurrentHashMap<>();
+
+	public SdkV1LambdaTransport(AWSLambdaClientBuilder builder) {
+		this.builder = builder;
+	}
+
+	@Override
+	public InvokeResult invoke(String region, InvokeRequest request) {
+		return getClient(region).invoke(request);
+	}
+
+	/**
+	 * Returns the cached Lambda client for a region, building it on first use
+	 */
+	private AWSLambda getClient(String region) {
+		return clients.computeIfAbsent(region != null ? region : "", key -> {
+			// The builder is shared, so configure and build it under a lock
+			synchronized (builder) {
+				Trace.info("Creating Lambda client for region: " + region);
+				return builder.withRegion(region).build();
+			}
+		});
+	}
+
+	@Override
+	public String getName() {
+		return SDK_V1;
+	}
+
+	@Override
+	public void close() {
+		for (AWSLambda client : clients.values()) {
+			try {
+				client.shutdown();
+			} catch (Exception e) {
+				Trace.error("Error closing Lambda client: " + e.getMessage());
+			}
+		}
+		clients.clear();
+	}
+}
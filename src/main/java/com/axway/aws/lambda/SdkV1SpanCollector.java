@@ -0,0 +1,58 @@
+package com.axway.aws.lambda;
+
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.AWSRequestMetrics;
+import com.amazonaws.util.TimingInfo;
+
+/**
+ * Records the SDK v1 phases of an invoke attempt as child spans of the attempt.
+ *
+ * Setting a collector on a request makes the SDK v1 client time that request
+ * (and only that one). Its timings are System.nanoTime() readings, on the same
+ * clock as the trace. The SDK v2 transport ignores the collector.
+ */
+final class SdkV1SpanCollector extends RequestMetricCollector {
+
+	private static final AWSRequestMetrics.Field[] PHASES = {
+		AWSRequestMetrics.Field.CredentialsRequestTime,
+		AWSRequestMetrics.Field.RequestMarshallTime,
+		AWSRequestMetrics.Field.RequestSigningTime,
+		AWSRequestMetrics.Field.HttpRequestTime,
+		AWSRequestMetrics.Field.ResponseProcessingTime
+	};
+	private static final String[] SPAN_NAMES = {
+		"credentials", "request.marshall", "request.signing", "http.request", "response.unmarshall"
+	};
+
+	private final LambdaTraceContext trace;
+	private final String parentSpanId;
+
+	SdkV1SpanCollector(LambdaTraceContext trace, String parentSpanId) {
+		this.trace = trace;
+		this.parentSpanId = parentSpanId;
+	}
+
+	@Override
+	public void collectMetrics(Request<?> request, Response<?> response) {
+		AWSRequestMetrics metrics = request.getAWSRequestMetrics();
+		TimingInfo timing = metrics != null ? metrics.getTimingInfo() : null;
+		if (timing == null) {
+			return;
+		}
+		for (int i = 0; i < PHASES.length; i++) {
+			// The SDK retries internally: each retry adds a measurement of the phase
+			java.util.List<TimingInfo> measurements = timing.getAllSubMeasurements(PHASES[i].name());
+			if (measurements == null) {
+				continue;
+			}
+			for (TimingInfo measurement : measurements) {
+				Long end = measurement.getEndTimeNanoIfKnown();
+				if (end != null) {
+					trace.span(trace.newSpanId(), parentSpanId, SPAN_NAMES[i], LambdaSpan.KIND_INTERNAL, measurement.getStartTimeNano(), end);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package com.axway.aws.lambda;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.services.lambda.model.InvokeRequest;
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.vordel.trace.Trace;
+
+import io.netty.channel.ChannelOption;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.AwsSessionCredentials;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.client.config.SdkAdvancedClientOption;
+import software.amazon.awssdk.core.retry.RetryPolicy;
+import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.http.nio.netty.ProxyConfiguration;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.lambda.LambdaAsyncClient;
+import software.amazon.awssdk.services.lambda.LambdaAsyncClientBuilder;
+import software.amazon.awssdk.services.lambda.model.InvokeResponse;
+import software.amazon.awssdk.services.lambda.model.InvokeResponseStreamUpdate;
+import software.amazon.awssdk.services.lambda.model.InvokeWithResponseStreamCompleteEvent;
+import software.amazon.awssdk.services.lambda.model.InvokeWithResponseStreamRequest;
+import software.amazon.awssdk.services.lambda.model.InvokeWithResponseStreamResponseEvent;
+import software.amazon.awssdk.services.lambda.model.InvokeWithResponseStreamResponseHandler;
+
+/**
+ * Transport using the AWS SDK v2 async client on the Netty event-loop HTTP client.
+ *
+ * One Netty client (connection pool and event loop) is shared by the clients of
+ * all regions. Requests do not hold an I/O thread while waiting for Lambda.
+ * Settings of the AWSClientConfiguration entity are taken from the v1
+ * ClientConfiguration built by the processor, and credentials are read from the
+ * v1 provider on every resolution so refreshes still apply.
+ *
+ * This class needs the SDK v2 Lambda and Netty jars at runtime and is only loaded
+ * through {@link LambdaTransports}.
+ */
+public class SdkV2LambdaTransport implements LambdaTransport {
+
+	private final SdkAsyncHttpClient httpClient;
+	private final AwsCredentialsProvider credentialsProvider;
+	private final ClientOverrideConfiguration overrideConfiguration;
+	private final Map<String, LambdaAsyncClient> clients = new ConcurrentHashMap<>();
+
+	public SdkV2LambdaTransport(AWSCredentialsProvider credentials, ClientConfiguration config) {
+		ClientConfiguration clientConfig = config != null ? config : new ClientConfiguration();
+
+		NettyNioAsyncHttpClient.Builder http = NettyNioAsyncHttpClient.builder()
+			.maxConcurrency(clientConfig.getMaxConnections());
+		if (clientConfig.getConnectionTimeout() > 0) {
+			http.connectionTimeout(Duration.ofMillis(clientConfig.getConnectionTimeout()));
+		}
+		// v1 uses 0 for "no timeout", as does Netty
+		http.readTimeout(Duration.ofMillis(Math.max(0, clientConfig.getSocketTimeout())));
+		http.writeTimeout(Duration.ofMillis(Math.max(0, clientConfig.getSocketTimeout())));
+		if (clientConfig.getProxyHost() != null && !clientConfig.getProxyHost().isEmpty()) {
+			ProxyConfiguration.Builder proxy = ProxyConfiguration.builder()
+				.host(clientConfig.getProxyHost())
+				.port(clientConfig.getProxyPort());
+			if (clientConfig.getProxyUsername() != null) {
+				proxy.username(clientConfig.getProxyUsername()).password(clientConfig.getProxyPassword());
+			}
+			http.proxyConfiguration(proxy.build());
+		}
+		int[] bufferHints = clientConfig.getSocketBufferSizeHints();
+		if (bufferHints != null && bufferHints.length == 2) {
+			if (bufferHints[0] > 0) {
+				http.putChannelOption(ChannelOption.SO_SNDBUF, bufferHints[0]);
+			}
+			if (bufferHints[1] > 0) {
+				http.putChannelOption(ChannelOption.SO_RCVBUF, bufferHints[1]);
+			}
+		}
+		this.httpClient = http.build();
+
+		this.credentialsProvider = () -> {
+			AWSCredentials current = credentials.getCredentials();
+			if (current instanceof AWSSessionCredentials) {
+				return AwsSessionCredentials.create(current.getAWSAccessKeyId(), current.getAWSSecretKey(),
+					((AWSSessionCredentials) current).getSessionToken());
+			}
+			return AwsBasicCredentials.create(current.getAWSAccessKeyId(), current.getAWSSecretKey());
+		};
+
+		ClientOverrideConfiguration.Builder overrides = ClientOverrideConfiguration.builder();
+		if (clientConfig.getMaxErrorRetry() >= 0) {
+			overrides.retryPolicy(RetryPolicy.builder().numRetries(clientConfig.getMaxErrorRetry()).build());
+		}
+		// The entity userAgent is set as the v1 prefix, only forward it when it was configured
+		String userAgent = clientConfig.getUserAgentPrefix();
+		if (userAgent != null && !userAgent.equals(ClientConfiguration.DEFAULT_USER_AGENT)) {
+			overrides.putAdvancedOption(SdkAdvancedClientOption.USER_AGENT_SUFFIX, userAgent);
+		}
+		this.overrideConfiguration = overrides.build();
+
+		Trace.info("SDK v2 Netty transport: maxConcurrency=" + clientConfig.getMaxConnections() +
+			", connectionTimeout=" + clientConfig.getConnectionTimeout() + "ms, socketTimeout=" + clientConfig.getSocketTimeout() + "ms" +
+			(clientConfig.getProxyHost() != null ? ", proxy=" + clientConfig.getProxyHost() + ":" + clientConfig.getProxyPort() : ""));
+	}
+
+	@Override
+	public InvokeResult invoke(String region, InvokeRequest request) throws Exception {
+		software.amazon.awssdk.services.lambda.model.InvokeRequest.Builder v2Request =
+			software.amazon.awssdk.services.lambda.model.InvokeRequest.builder()
+				.functionName(request.getFunctionName())
+				.payload(SdkBytes.fromByteBuffer(request.getPayload().duplicate()))
+				.invocationType(request.getInvocationType())
+				.logType(request.getLogType());
+		if (request.getQualifier() != null && !request.getQualifier().isEmpty()) {
+			v2Request.qualifier(request.getQualifier());
+		}
+		if (request.getClientContext() != null) {
+			v2Request.clientContext(request.getClientContext());
+		}
+		Integer timeout = request.getSdkClientExecutionTimeout();
+		if (timeout != null && timeout > 0) {
+			v2Request.overrideConfiguration(o -> o.apiCallTimeout(Duration.ofMillis(timeout)));
+		}
+
+		CompletableFuture<InvokeResponse> future = getClient(region).invoke(v2Request.build());
+		InvokeResponse response;
+		try {
+			response = future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			throw e;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			throw cause instanceof Exception ? (Exception) cause : e;
+		}
+
+		// The processor reads the payload through array(), so copy into a heap buffer
+		byte[] payload = response.payload() != null ? response.payload().asByteArray() : new byte[0];
+		return new InvokeResult()
+			.withStatusCode(response.statusCode())
+			.withPayload(ByteBuffer.wrap(payload))
+			.withExecutedVersion(response.executedVersion())
+			.withLogResult(response.logResult())
+			.withFunctionError(response.functionError());
+	}
+
+	@Override
+	public boolean supportsStreaming() {
+		return true;
+	}
+
+	@Override
+	public LambdaResponseStream invokeStreaming(String region, InvokeRequest request, int bufferChunks) throws Exception {
+		InvokeWithResponseStreamRequest.Builder v2Request = InvokeWithResponseStreamRequest.builder()
+			.functionName(request.getFunctionName())
+			.payload(SdkBytes.fromByteBuffer(request.getPayload().duplicate()))
+			.invocationType("RequestResponse")
+			.logType(request.getLogType());
+		if (request.getQualifier() != null && !request.getQualifier().isEmpty()) {
+			v2Request.qualifier(request.getQualifier());
+		}
+		if (request.getClientContext() != null) {
+			v2Request.clientContext(request.getClientContext());
+		}
+
+		LambdaResponseStream stream = new LambdaResponseStream(bufferChunks);
+		InvokeWithResponseStreamResponseHandler handler = InvokeWithResponseStreamResponseHandler.builder()
+			.onResponse(response -> stream.start(response.statusCode(), response.executedVersion(), response.responseStreamContentType()))
+			.onEventStream(publisher -> publisher.subscribe(new StreamSubscriber(stream)))
+			.onError(stream::fail)
+			.build();
+		CompletableFuture<Void> call = getClient(region).invokeWithResponseStream(v2Request.build(), handler);
+		call.whenComplete((ignored, error) -> {
+			if (error != null) {
+				stream.fail(error instanceof java.util.concurrent.CompletionException && error.getCause() != null ? error.getCause() : error);
+			}
+		});
+
+		// The deadline bounds the wait for the initial response, not the transfer of the body
+		Integer timeout = request.getSdkClientExecutionTimeout();
+		try {
+			stream.awaitStart(timeout != null ? timeout : 0);
+		} catch (Exception e) {
+			call.cancel(true);
+			throw e;
+		}
+		return stream;
+	}
+
+	/**
+	 * Feeds payload chunks into the stream, requesting a new chunk each time the reader takes one
+	 */
+	private static final class StreamSubscriber implements Subscriber<InvokeWithResponseStreamResponseEvent> {
+		private final LambdaResponseStream stream;
+
+		StreamSubscriber(LambdaResponseStream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			stream.onDemand(subscription::request);
+			stream.onCancel(subscription::cancel);
+			subscription.request(stream.getBufferChunks());
+		}
+
+		@Override
+		public void onNext(InvokeWithResponseStreamResponseEvent event) {
+			if (event instanceof InvokeResponseStreamUpdate) {
+				SdkBytes payload = ((InvokeResponseStreamUpdate) event).payload();
+				stream.chunk(payload != null ? payload.asByteArray() : null);
+			} else if (event instanceof InvokeWithResponseStreamCompleteEvent) {
+				InvokeWithResponseStreamCompleteEvent complete = (InvokeWithResponseStreamCompleteEvent) event;
+				stream.complete(complete.errorCode(), complete.errorDetails(), complete.logResult());
+			}
+		}
+
+		@Override
+		public void onError(Throwable error) {
+			stream.fail(error);
+		}
+
+		@Override
+		public void onComplete() {
+			// No-op if the InvokeComplete event already ended the stream
+			stream.complete(null, null, null);
+		}
+	}
+
+	private LambdaAsyncClient getClient(String region) {
+		return clients.computeIfAbsent(region != null ? region : "", key -> {
+			Trace.info("Creating SDK v2 Lambda client for region: " + region);
+			LambdaAsyncClientBuilder builder = LambdaAsyncClient.builder()
+				.credentialsProvider(credentialsProvider)
+				.httpClient(httpClient)
+				.overrideConfiguration(overrideConfiguration);
+			if (!key.isEmpty()) {
+				builder.region(Region.of(key));
+			}
+			return builder.build();
+		});
+	}
+
+	@Override
+	public String getName() {
+		return SDK_V2_NETTY;
+	}
+
+	@Override
+	public void close() {
+		for (LambdaAsyncClient client : clients.values()) {
+			try {
+				client.close();
+			} catch (Exception e) {
+				Trace.error("Error closing Lambda client: " + e.getMessage());
+			}
+		}
+		clients.clear();
+		// The shared HTTP client is not closed by the service clients
+		httpClient.close();
+	}
+}
@@ -0,0 +1,127 @@
+package com.axway.aws.lambda;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.amazonaws.services.lambda.model.InvokeResult;
+import com.vordel.circuit.CircuitAbortException;
+import com.vordel.circuit.Message;
+import com.vordel.config.Circuit;
+import com.vordel.config.ConfigContext;
+import com.vordel.el.Selector;
+import com.vordel.es.Entity;
+import com.vordel.es.EntityStoreException;
+import com.vordel.trace.Trace;
+
+/**
+ * Starts a Lambda invocation without waiting for its result.
+ *
+ * The message settings and payload are resolved on the message thread, the
+ * invoke itself (with retries and region failover) runs on a pool of the
+ * filter. A {@link LambdaInvocationHandle} is stored on the message so an
+ * Await Lambda Result filter later in the policy can collect the result.
+ *
+ * The invocation is prepared like the one of the Invoke Lambda Function filter
+ * (deadline, lane, deduplication, compression) and holds a slot of its
+ * concurrency limit until it is done.
+ */
+public class StartLambdaInvocationProcessor extends InvokeLambdaFunctionProcessor {
+
+	public static final String DEFAULT_HANDLE_ATTRIBUTE = "aws.lambda.handle";
+
+	protected Selector<String> handleAttribute;
+
+	private ExecutorService executor;
+
+	@Override
+	public void filterAttached(ConfigContext ctx, Entity entity) throws EntityStoreException {
+		super.filterAttached(ctx, entity);
+
+		this.handleAttribute = new Selector(entity.getStringValue("handleAttribute") != null ? entity.getStringValue("handleAttribute") : DEFAULT_HANDLE_ATTRIBUTE, String.class);
+
+		int maxConcurrency = 32;
+		try {
+			Integer configured = entity.getIntegerValue("maxConcurrency");
+			if (configured != null && configured > 0) {
+				maxConcurrency = configured;
+			}
+		} catch (Exception e) {
+			// Field doesn't exist, keep default
+		}
+		int maxQueued = 128;
+		try {
+			Integer configured = entity.getIntegerValue("maxQueued");
+			if (configured != null && configured > 0) {
+				maxQueued = configured;
+			}
+		} catch (Exception e) {
+			// Field doesn't exist, keep default
+		}
+		this.executor = LambdaExecutors.newInvocationExecutor("lambda-start", maxConcurrency, maxQueued);
+
+		Trace.info("=== Start Lambda Invocation Configuration ===");
+		Trace.info("Handle Attribute: " + handleAttribute.getLiteral());
+		Trace.info("Max Concurrency: " + maxConcurrency + (LambdaExecutors.usesVirtualThreads() ? " (virtual threads)" : ""));
+		Trace.info("Max Queued: " + maxQueued);
+	}
+
+	@Override
+	public void filterDetached() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		super.filterDetached();
+	}
+
+	@Override
+	public boolean invoke(Circuit arg0, Message msg) throws CircuitAbortException {
+		if (lambdaClientBuilder == null) {
+			Trace.error("Invoke Lambda Function client builder was not configured");
+			msg.put("aws.lambda.error", "Invoke Lambda Function client builder was not configured");
+			return false;
+		}
+
+		String functionNameValue = functionName.substitute(msg);
+		String qualifierValue = qualifier.substitute(msg);
+		Integer memorySizeValue = memorySize.substitute(msg);
+		if (memorySizeValue == null) {
+			memorySizeValue = 128; // Default 128 MB
+		}
+
+		// Shed load above the runtime concurrency limit
+		if (!tuning.tryAcquire()) {
+			Trace.error("Lambda filter concurrency limit reached (" + tuning.getMaxConcurrency() + " invocations in flight)");
+			msg.put("aws.lambda.error", "Concurrency limit reached");
+			return false;
+		}
+		LambdaInvocation invocation = prepareInvocation(msg, functionNameValue, qualifierValue, true);
+		Boolean prepared = prepareSend(msg, invocation, null);
+		if (prepared != null) {
+			tuning.release();
+			return prepared;
+		}
+
+		String attribute = handleAttribute.substitute(msg);
+		if (attribute == null || attribute.trim().isEmpty()) {
+			attribute = DEFAULT_HANDLE_ATTRIBUTE;
+		}
+
+		// The slot and the deduplication key are released once the invocation is done or cancelled
+		FutureTask<InvokeResult> future = newInvocationTask(invocation);
+		try {
+			executor.execute(future);
+		} catch (RejectedExecutionException e) {
+			invocation.completeDeduplication(false);
+			tuning.release();
+			Trace.error("Lambda invocation rejected: " + e.getMessage());
+			msg.put("aws.lambda.error", "Lambda invocation rejected: " + e.getMessage());
+			return false;
+		}
+
+		msg.put(attribute, new LambdaInvocationHandle(future, invocation, this, memorySizeValue));
+		Trace.info("Lambda invocation of " + functionNameValue + " started, handle stored in " + attribute + 
+			" (" + invocation.getPayload().length + " bytes)");
+		return true;
+	}
+}
@@ -0,0 +1,144 @@
+package com.axway.aws.lambda;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the executors used to run Lambda invocations off the message thread.
+ *
+ * Java 21 implementation, packaged in META-INF/versions/21 of the multi-release
+ * jar. Each invocation runs on its own virtual thread, so a blocked invoke or a
+ * retry sleep does not hold a platform thread. Set the system property
+ * com.axway.aws.lambda.virtualThreads=false to fall back to platform threads.
+ */
+public final class LambdaExecutors {
+
+	private static final boolean VIRTUAL_THREADS =
+		Boolean.parseBoolean(System.getProperty("com.axway.aws.lambda.virtualThreads", "true"));
+
+	private LambdaExecutors() {
+	}
+
+	/**
+	 * Returns true if invocations run on virtual threads
+	 */
+	public static boolean usesVirtualThreads() {
+		return VIRTUAL_THREADS;
+	}
+
+	/**
+	 * Creates an executor running at most maxThreads invocations at a time.
+	 * With virtual threads, queued invocations wait on a semaphore instead of a queue.
+	 */
+	public static ExecutorService newInvocationExecutor(String name, int maxThreads) {
+		return newInvocationExecutor(name, maxThreads, 0);
+	}
+
+	/**
+	 * Creates an executor running at most maxThreads invocations at a time, with at most
+	 * maxQueued waiting ones (0 or less means no limit); invocations above it are rejected
+	 * with a RejectedExecutionException.
+	 */
+	public static ExecutorService newInvocationExecutor(String name, int maxThreads, int maxQueued) {
+		int threads = Math.max(1, maxThreads);
+		if (VIRTUAL_THREADS) {
+			ThreadFactory factory = Thread.ofVirtual().name(name + "-", 1).factory();
+			return new BoundedExecutor(Executors.newThreadPerTaskExecutor(factory), threads, maxQueued);
+		}
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(maxQueued > 0 ? maxQueued : Integer.MAX_VALUE), daemonThreadFactory(name));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	static ThreadFactory daemonThreadFactory(String name) {
+		AtomicInteger counter = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Thread-per-task executor limited to a number of concurrently running and waiting tasks
+	 */
+	private static final class BoundedExecutor extends AbstractExecutorService {
+		private final ExecutorService delegate;
+		private final Semaphore permits;
+		private final Semaphore admissions;
+
+		BoundedExecutor(ExecutorService delegate, int maxConcurrent, int maxQueued) {
+			this.delegate = delegate;
+			this.permits = new Semaphore(maxConcurrent);
+			this.admissions = maxQueued > 0 ? new Semaphore(maxConcurrent + maxQueued) : null;
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			if (admissions != null && !admissions.tryAcquire()) {
+				throw new RejectedExecutionException("Too many invocations waiting");
+			}
+			try {
+				delegate.execute(() -> {
+					try {
+						permits.acquire();
+					} catch (InterruptedException e) {
+						// Cancelled while waiting for a permit
+						releaseAdmission();
+						return;
+					}
+					try {
+						command.run();
+					} finally {
+						permits.release();
+						releaseAdmission();
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				releaseAdmission();
+				throw e;
+			}
+		}
+
+		private void releaseAdmission() {
+			if (admissions != null) {
+				admissions.release();
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			delegate.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return delegate.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return delegate.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return delegate.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return delegate.awaitTermination(timeout, unit);
+		}
+	}
+}